@@ -0,0 +1,205 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+
+import enums.Note;
+import enums.NoteLength;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Builds the workloads measured by the JMH benchmarks.
+ * JMH only accepts benchmarks in a named package, and classes in a named
+ * package cannot refer to the classes of this project, which live in the
+ * default package. Each workload is therefore handed to the benchmarks as a
+ * plain Callable, looked up by name once before measuring starts.
+ */
+public final class BenchWorkloads {
+
+    /** The audio format used by the Conductor */
+    private static final AudioFormat FORMAT = new AudioFormat(Note.SAMPLE_RATE, 8, 1, true, false);
+
+    /** Discards the errors of the measured code, valid songs have none */
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    /**
+     * Prevents instantiation, all workloads are created by static factories.
+     */
+    private BenchWorkloads() {
+    }
+
+    /**
+     * Compiles a text song to the binary format.
+     *
+     * @param text     The text song
+     * @param compiled The compiled song to write
+     * @return Null, the song is written to the file
+     * @throws IOException If the song cannot be read or written
+     */
+    public static Object compileSong(String text, String compiled) throws IOException {
+        final Score song = Conductor.readScore(new File(text), DISCARD);
+        if (song == null) {
+            throw new IOException("Invalid song " + text);
+        }
+        CompiledSong.write(song, new File(compiled));
+        return null;
+    }
+
+    /**
+     * Loads a song with Conductor.parseNotes.
+     *
+     * @param path The song file
+     * @return The workload
+     */
+    public static Callable<Object> parse(String path) {
+        final Conductor conductor = new Conductor(FORMAT);
+        return () -> conductor.parseNotes(path, DISCARD);
+    }
+
+    /**
+     * Parses a text song line by line with SongParser, the way songs were
+     * parsed before they were mapped into memory.
+     *
+     * @param path The song file
+     * @return The workload
+     */
+    public static Callable<Object> parseLines(String path) {
+        final File file = new File(path);
+        return () -> {
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                return new SongParser(DISCARD).parseLines(reader);
+            }
+        };
+    }
+
+    /**
+     * Adds a sine wave of a note to a buffer, as the mixer does.
+     *
+     * @param note   The name of the note
+     * @param length The name of the note length
+     * @return The workload
+     */
+    public static Callable<Object> sine(String note, String length) {
+        final Note n = Note.valueOf(note);
+        final int[] buffer = new int[Tempo.DEFAULT.samples(NoteLength.valueOf(length))];
+        return () -> {
+            n.addTo(buffer, 0, buffer.length, 0);
+            return buffer;
+        };
+    }
+
+    /**
+     * Renders a bell tone with its harmonics and envelope.
+     *
+     * @param note   The name of the note
+     * @param length The name of the note length
+     * @return The workload
+     */
+    public static Callable<Object> bellTone(String note, String length) {
+        final Note n = Note.valueOf(note);
+        final int frames = Tempo.DEFAULT.samples(NoteLength.valueOf(length));
+        return () -> ToneCache.render(n, frames, VoiceMixer.FORMAT);
+    }
+
+    /**
+     * Takes a bell tone from a cache that already holds it.
+     *
+     * @param note   The name of the note
+     * @param length The name of the note length
+     * @return The workload
+     */
+    public static Callable<Object> cachedBellTone(String note, String length) {
+        final Note n = Note.valueOf(note);
+        final int frames = Tempo.DEFAULT.samples(NoteLength.valueOf(length));
+        final ToneCache cache = new ToneCache(Long.MAX_VALUE);
+        cache.tone(n, frames, VoiceMixer.FORMAT);
+        return () -> cache.tone(n, frames, VoiceMixer.FORMAT);
+    }
+
+    /**
+     * Hands one note to a running Member and waits until it has been played.
+     * The member plays into a mixer that discards its notes, so only the
+     * handoff itself is measured. The workload must be closed to stop the
+     * member.
+     *
+     * @param handoff  The name of the handoff mode
+     * @param executor The name of the executor mode
+     * @return The workload, also an AutoCloseable
+     */
+    public static Callable<Object> handoff(String handoff, String executor) {
+        return new HandoffWorkload(Handoff.Mode.fromName(handoff), MemberExecutor.Mode.fromName(executor));
+    }
+
+    /**
+     * Renders a whole song into a sink that discards the samples.
+     *
+     * @param song The song file
+     * @param tone The name of the tone, sine or bell
+     * @return The workload
+     */
+    public static Callable<Object> render(String song, String tone) {
+        final Score score = Conductor.readScore(new File(song), DISCARD);
+        final boolean bell = ToneCache.Tone.fromName(tone) == ToneCache.Tone.BELL;
+        final Renderer renderer = new Renderer(FORMAT, bell ? new ToneCache(Long.MAX_VALUE) : null);
+        return () -> {
+            renderer.render(score, OutputStream.nullOutputStream());
+            return score;
+        };
+    }
+
+    /**
+     * A mixer that drops every note, so nothing builds up between steps.
+     */
+    static final class DiscardingMixer extends VoiceMixer {
+        @Override
+        public void mix(Note note, int count, int rest) {
+            // Discard the note.
+        }
+
+        @Override
+        public void mix(byte[] tone, int rest) {
+            // Discard the tone.
+        }
+    }
+
+    /**
+     * Cues a single running Member, one note per call.
+     */
+    static final class HandoffWorkload implements Callable<Object>, AutoCloseable {
+        /** Runs the member */
+        private final MemberExecutor executor;
+
+        /** The member being cued */
+        private final Member member;
+
+        /**
+         * Starts a member with the given handoff and executor.
+         *
+         * @param handoff  How cues are passed to the member
+         * @param executor Which threads the member runs on
+         */
+        HandoffWorkload(Handoff.Mode handoff, MemberExecutor.Mode executor) {
+            this.executor = new MemberExecutor(executor, 1);
+            this.member = new Member(Note.A4, new DiscardingMixer(), null,
+                    Handoff.create(handoff, new HandoffStats()), this.executor);
+            member.startMember();
+        }
+
+        @Override
+        public Object call() throws InterruptedException {
+            member.assignPart(NoteLength.EIGTH);
+            member.cue();
+            return member.awaitNotePlayed();
+        }
+
+        @Override
+        public void close() {
+            member.stopMember();
+            executor.shutdown();
+        }
+    }
+}
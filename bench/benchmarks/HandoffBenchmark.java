@@ -0,0 +1,75 @@
+package benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the round trip of one note between the Conductor and a Member:
+ * assigning the part, cueing the member and waiting until it has played the
+ * note. The member plays into a mixer that discards its notes, so only the
+ * handoff itself is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dmember.log=false")
+public class HandoffBenchmark {
+
+    /** How cues are passed to the member */
+    @Param({ "monitor", "lockfree" })
+    public String handoff;
+
+    /** Which threads the member runs on */
+    @Param({ "platform", "virtual", "pool" })
+    public String executor;
+
+    /** Cues the running member once per call */
+    private Callable<Object> cue;
+
+    /**
+     * Starts a member with the requested handoff and executor.
+     *
+     * @throws Exception If the member cannot be started
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        cue = Workloads.create("handoff", handoff, executor);
+    }
+
+    /**
+     * Stops the member and its executor.
+     *
+     * @throws Exception If the member cannot be stopped
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Workloads.close(cue);
+    }
+
+    /**
+     * Hands one note to the member and waits until it has been played.
+     *
+     * @return True if the member played the note
+     * @throws Exception If the benchmark thread is interrupted
+     */
+    @Benchmark
+    public Object cueAndAwait() throws Exception {
+        return cue.call();
+    }
+}
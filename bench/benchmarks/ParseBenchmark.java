@@ -0,0 +1,111 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long Conductor.parseNotes takes to load a song, for a small
+ * song and a very large generated one, in the text and compiled formats.
+ * The "lines" format parses the text song line by line with SongParser,
+ * as a baseline for the mapped parser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dmember.log=false")
+public class ParseBenchmark {
+
+    /** The small song, parsed as it is */
+    private static final String SMALL_SONG = "songs/MaryHadALittleLamb.txt";
+
+    /** The song repeated to build the large song */
+    private static final String LARGE_SOURCE = "songs/PlayThatSong.txt";
+
+    /** Number of lines in the large song */
+    private static final int LARGE_LINES = 200_000;
+
+    /** Size of the song: small or large */
+    @Param({ "small", "large" })
+    public String size;
+
+    /** Format of the song: txt, lines (txt parsed line by line) or bsong */
+    @Param({ "txt", "lines", "bsong" })
+    public String format;
+
+    /** Loads the song with Conductor.parseNotes */
+    private Callable<Object> parse;
+
+    /** Temporary files created for this trial */
+    private final List<File> tempFiles = new ArrayList<>();
+
+    /**
+     * Prepares the song in the requested size and format.
+     *
+     * @throws Exception If a temporary song cannot be written
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File text = new File(SMALL_SONG);
+        if (size.equals("large")) {
+            text = File.createTempFile("ParseBenchmark", ".txt");
+            tempFiles.add(text);
+            final List<String> lines = Files.readAllLines(new File(LARGE_SOURCE).toPath());
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(text.toPath()))) {
+                for (int i = 0; i < LARGE_LINES; i++) {
+                    out.println(lines.get(i % lines.size()));
+                }
+            }
+        }
+        String path = text.getPath();
+        if (format.equals("bsong")) {
+            final File compiled = File.createTempFile("ParseBenchmark", ".bsong");
+            tempFiles.add(compiled);
+            Workloads.call("compileSong", path, compiled.getPath());
+            path = compiled.getPath();
+        }
+        parse = Workloads.create(format.equals("lines") ? "parseLines" : "parse", path);
+    }
+
+    /**
+     * Deletes the temporary songs.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File f : tempFiles) {
+            f.delete();
+        }
+        tempFiles.clear();
+    }
+
+    /**
+     * Loads the song.
+     *
+     * @return The loaded song
+     * @throws Exception If loading fails
+     */
+    @Benchmark
+    public Object parseNotes() throws Exception {
+        return parse.call();
+    }
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast a whole song is mixed and written, end to end, into a
+ * sink that discards the samples. One operation renders PlayThatSong, about
+ * a minute of audio, with the Vector API kernels or the scalar kernels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dmember.log=false", "--add-modules", "jdk.incubator.vector" })
+public class RenderBenchmark {
+
+    /** The song rendered */
+    private static final String SONG = "songs/PlayThatSong.txt";
+
+    /** Tone of the notes: sine or bell */
+    @Param({ "sine", "bell" })
+    public String tone;
+
+    /** Whether the Vector API kernels are used, false for the scalar kernels */
+    @Param({ "true", "false" })
+    public String simd;
+
+    /** Renders the song into a discarding sink */
+    private Callable<Object> render;
+
+    /**
+     * Parses the song and creates the renderer.
+     *
+     * @throws Exception If the song cannot be parsed
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // Each trial runs in a fresh fork, so the kernels are chosen after this.
+        System.setProperty("simd", simd);
+        render = Workloads.create("render", SONG, tone);
+    }
+
+    /**
+     * Renders the song into a discarding sink.
+     *
+     * @return The rendered song
+     * @throws Exception Never, the sink does not fail
+     */
+    @Benchmark
+    public Object renderToDiscardingSink() throws Exception {
+        return render.call();
+    }
+}
@@ -0,0 +1,100 @@
+package benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of generating the samples of a note: a plain sine wave
+ * from the Note wavetable, a bell tone rendered from scratch and a bell tone
+ * taken from a warm ToneCache. Each is measured with the Vector API kernels
+ * and with the scalar kernels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dmember.log=false", "--add-modules", "jdk.incubator.vector" })
+public class SynthesisBenchmark {
+
+    /** The note generated */
+    @Param({ "A3", "A5", "B6" })
+    public String note;
+
+    /** The length of the generated note */
+    @Param({ "QUARTER", "WHOLE" })
+    public String length;
+
+    /** Whether the Vector API kernels are used, false for the scalar kernels */
+    @Param({ "true", "false" })
+    public String simd;
+
+    /** Adds a sine wave of the note to a buffer */
+    private Callable<Object> sine;
+
+    /** Renders a bell tone of the note */
+    private Callable<Object> bellTone;
+
+    /** Takes a bell tone of the note from a warm cache */
+    private Callable<Object> cachedBellTone;
+
+    /**
+     * Creates the workloads for the note.
+     *
+     * @throws Exception If a workload cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // Each trial runs in a fresh fork, so the kernels are chosen after this.
+        System.setProperty("simd", simd);
+        sine = Workloads.create("sine", note, length);
+        bellTone = Workloads.create("bellTone", note, length);
+        cachedBellTone = Workloads.create("cachedBellTone", note, length);
+    }
+
+    /**
+     * Adds a sine wave of the note to a buffer, as the mixer does.
+     *
+     * @return The buffer
+     * @throws Exception Never
+     */
+    @Benchmark
+    public Object sine() throws Exception {
+        return sine.call();
+    }
+
+    /**
+     * Renders a bell tone with its harmonics and envelope.
+     *
+     * @return The rendered tone
+     * @throws Exception Never
+     */
+    @Benchmark
+    public Object bellTone() throws Exception {
+        return bellTone.call();
+    }
+
+    /**
+     * Takes a bell tone from a cache that already holds it.
+     *
+     * @return The cached tone
+     * @throws Exception Never
+     */
+    @Benchmark
+    public Object cachedBellTone() throws Exception {
+        return cachedBellTone.call();
+    }
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * Looks up the workloads built by BenchWorkloads, which lives in the default
+ * package with the rest of the project and can only be reached by reflection.
+ * The lookup happens once per trial, so measured calls are plain interface
+ * calls.
+ */
+final class Workloads {
+
+    /** Name of the class building the workloads */
+    private static final String FACTORY = "BenchWorkloads";
+
+    /**
+     * Prevents instantiation.
+     */
+    private Workloads() {
+    }
+
+    /**
+     * Calls a static factory of BenchWorkloads taking only String arguments.
+     *
+     * @param name The name of the factory method
+     * @param args The arguments of the factory
+     * @return The value returned by the factory
+     * @throws Exception If the factory is missing or fails
+     */
+    static Object call(String name, String... args) throws Exception {
+        final Class<?>[] types = new Class<?>[args.length];
+        Arrays.fill(types, String.class);
+        final Method factory = Class.forName(FACTORY).getMethod(name, types);
+        try {
+            return factory.invoke(null, (Object[]) args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Creates a workload.
+     *
+     * @param name The name of the factory method
+     * @param args The arguments of the factory
+     * @return The workload
+     * @throws Exception If the factory is missing or fails
+     */
+    @SuppressWarnings("unchecked")
+    static Callable<Object> create(String name, String... args) throws Exception {
+        return (Callable<Object>) call(name, args);
+    }
+
+    /**
+     * Releases a workload that holds threads or other resources.
+     *
+     * @param workload The workload, may be null
+     * @throws Exception If releasing fails
+     */
+    static void close(Callable<Object> workload) throws Exception {
+        if (workload instanceof AutoCloseable) {
+            ((AutoCloseable) workload).close();
+        }
+    }
+}
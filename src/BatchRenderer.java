@@ -0,0 +1,393 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import dsp.Kernels;
+import enums.Note;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Renders many songs to audio files in parallel.
+ * Every song is read and rendered on a worker of a fixed pool, so the number
+ * of songs in memory at once is bounded by the pool size however long the
+ * queue is. The workers share one Renderer and one tone cache, and every
+ * sine wave is read from the wavetable shared by all notes, so no sample
+ * data is copied per worker.
+ */
+public class BatchRenderer {
+
+    /** Extension of the rendered files */
+    static final String OUTPUT_EXTENSION = ".wav";
+
+    /** Number of worker threads songs are rendered on */
+    private final int threads;
+
+    /** Renders the songs, shared by all workers */
+    private final Renderer renderer;
+
+    /** The tempo text songs start at unless they set their own */
+    private final Tempo tempo;
+
+    /**
+     * A song to render and the file it is rendered to.
+     */
+    public static final class Job {
+        /** The song file */
+        private final File song;
+
+        /** The audio file to write */
+        private final File out;
+
+        /**
+         * Constructs a job.
+         *
+         * @param song The song file
+         * @param out  The audio file to write
+         */
+        public Job(File song, File out) {
+            this.song = song;
+            this.out = out;
+        }
+
+        /**
+         * Gets the song file.
+         *
+         * @return The song file
+         */
+        public File getSong() {
+            return song;
+        }
+
+        /**
+         * Gets the audio file the song is rendered to.
+         *
+         * @return The audio file
+         */
+        public File getOut() {
+            return out;
+        }
+    }
+
+    /**
+     * The outcome of rendering one song.
+     */
+    public static final class Result {
+        /** The job that was run */
+        private final Job job;
+
+        /** Number of samples rendered, or -1 if the song failed */
+        private final long samples;
+
+        /** Time taken to read and render the song in nanoseconds */
+        private final long nanos;
+
+        /** Why the song failed, or null if it was rendered */
+        private final String error;
+
+        /**
+         * Constructs the result of one job.
+         *
+         * @param job     The job that was run
+         * @param samples Number of samples rendered, or -1 if the song failed
+         * @param nanos   Time taken to read and render the song in nanoseconds
+         * @param error   Why the song failed, or null if it was rendered
+         */
+        Result(Job job, long samples, long nanos, String error) {
+            this.job = job;
+            this.samples = samples;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        /**
+         * Gets the job that was run.
+         *
+         * @return The job
+         */
+        public Job getJob() {
+            return job;
+        }
+
+        /**
+         * Checks if the song was rendered.
+         *
+         * @return True if the audio file was written
+         */
+        public boolean isRendered() {
+            return error == null;
+        }
+
+        /**
+         * Gets the number of samples rendered.
+         *
+         * @return The number of samples, or -1 if the song failed
+         */
+        public long getSamples() {
+            return samples;
+        }
+
+        /**
+         * Gets the time taken to read and render the song.
+         *
+         * @return The time in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Gets the reason the song failed.
+         *
+         * @return The error, or null if the song was rendered
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Constructs a batch renderer running the given number of workers.
+     *
+     * @param af      The audio format to render to
+     * @param tones   Rendered bell tones shared by the workers, or null to render plain sine waves
+     * @param tempo   The tempo text songs start at unless they set their own
+     * @param threads The number of worker threads
+     */
+    public BatchRenderer(AudioFormat af, ToneCache tones, Tempo tempo, int threads) {
+        this(af, tones, null, tempo, threads);
+    }
+
+    /**
+     * Constructs a batch renderer running the given number of workers,
+     * reusing the segments of songs rendered before.
+     *
+     * @param af       The audio format to render to
+     * @param tones    Rendered bell tones shared by the workers, or null to render plain sine waves
+     * @param segments Rendered segments shared by the workers, or null to render every step
+     * @param tempo    The tempo text songs start at unless they set their own
+     * @param threads  The number of worker threads
+     */
+    public BatchRenderer(AudioFormat af, ToneCache tones, SegmentCache segments, Tempo tempo, int threads) {
+        this.renderer = new Renderer(af, tones, segments);
+        this.tempo = tempo;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Creates a job for every song below a directory, or for a single song.
+     * Songs below a directory are rendered to the same relative path below
+     * the output directory.
+     *
+     * @param input  A song directory or a song file
+     * @param outDir The directory the audio files are written to
+     * @return The jobs, sorted by song path
+     * @throws IOException If the directory cannot be read
+     */
+    public static List<Job> jobsFor(File input, File outDir) throws IOException {
+        final List<Job> jobs = new ArrayList<>();
+        final Path root = input.isDirectory() ? input.toPath() : null;
+        for (File song : LibraryValidator.findSongs(input)) {
+            final String relative = root == null ? song.getName() : root.relativize(song.toPath()).toString();
+            final int dot = relative.lastIndexOf('.');
+            final String base = dot > relative.lastIndexOf(File.separatorChar) ? relative.substring(0, dot) : relative;
+            jobs.add(new Job(song, new File(outDir, base + OUTPUT_EXTENSION)));
+        }
+        return jobs;
+    }
+
+    /**
+     * Renders songs in parallel.
+     *
+     * @param jobs The songs to render
+     * @return The result of every job, in the order of the given jobs
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public List<Result> render(List<Job> jobs) throws InterruptedException {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Callable<Result>> tasks = new ArrayList<>(jobs.size());
+            for (Job job : jobs) {
+                tasks.add(() -> render(job));
+            }
+            final List<Result> results = new ArrayList<>(jobs.size());
+            for (Future<Result> f : pool.invokeAll(tasks)) {
+                try {
+                    results.add(f.get());
+                } catch (ExecutionException e) {
+                    // render(Job) reports failures itself, this only happens on a bug.
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Reads and renders a single song, collecting its errors instead of
+     * printing them. An exception thrown by the song, such as one too long
+     * to render, fails only this job and not the whole batch.
+     *
+     * @param job The song to render
+     * @return The result of the job
+     */
+    Result render(Job job) {
+        final long start = System.nanoTime();
+        try {
+            return render(job, start);
+        } catch (RuntimeException e) {
+            return new Result(job, -1, System.nanoTime() - start, "Failed to render " + job.getSong() + ": " + e);
+        }
+    }
+
+    /**
+     * Reads and renders a single song, collecting its errors instead of
+     * printing them.
+     *
+     * @param job   The song to render
+     * @param start The time the job started, from System.nanoTime
+     * @return The result of the job
+     */
+    private Result render(Job job, long start) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final PrintStream err = new PrintStream(buffer, true, StandardCharsets.UTF_8);
+        final Score song = Conductor.readScore(job.getSong(), tempo, err);
+        if (song == null) {
+            final String errors = buffer.toString(StandardCharsets.UTF_8).strip();
+            return new Result(job, -1, System.nanoTime() - start, errors.isEmpty() ? "Invalid song" : errors);
+        }
+        final File parent = job.getOut().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            return new Result(job, -1, System.nanoTime() - start, "Cannot create directory " + parent);
+        }
+        try {
+            renderer.renderToFile(song, job.getOut());
+        } catch (IOException e) {
+            return new Result(job, -1, System.nanoTime() - start, "Failed to write " + job.getOut() + ": "
+                    + e.getMessage());
+        }
+        return new Result(job, renderer.sampleCount(song), System.nanoTime() - start, null);
+    }
+
+    /**
+     * Summarises the throughput of a batch: songs per second and seconds of
+     * audio rendered per second of wall-clock time.
+     *
+     * @param results   The results of all jobs
+     * @param wallNanos Wall-clock time taken to render the batch
+     * @return A human readable summary
+     */
+    public String summary(List<Result> results, long wallNanos) {
+        long rendered = 0;
+        long samples = 0;
+        long workNanos = 0;
+        for (Result r : results) {
+            workNanos += r.getNanos();
+            if (r.isRendered()) {
+                rendered++;
+                samples += r.getSamples();
+            }
+        }
+        final double wallSeconds = Math.max(1, wallNanos) / 1e9;
+        final double audioSeconds = (double) samples / Note.SAMPLE_RATE;
+        return String.format("Rendered %d of %d songs on %d threads in %.2f s (work %.2f s): %.2f songs/s, "
+                + "%.1f s of audio, %.1f audio-seconds per wall-second", rendered, results.size(), threads,
+                wallSeconds, workNanos / 1e9, rendered / wallSeconds, audioSeconds, audioSeconds / wallSeconds);
+    }
+
+    /**
+     * Entry point for batch rendering.
+     * The first argument is the output directory, the rest are song
+     * directories or song files. The number of threads is read from the
+     * "threads" property and defaults to the number of processors.
+     *
+     * @param args The output directory followed by the songs to render
+     */
+    public static void main(String[] args) {
+        if (args == null || args.length < 2 || args[0].isEmpty()) {
+            System.err.println("Usage: ant render-batch -Dsong=[SONG_DIRECTORY] -Dout=[OUTPUT_DIRECTORY]");
+            return;
+        }
+        final int threads;
+        try {
+            final String property = System.getProperty("threads", "");
+            threads = property.isBlank() ? Runtime.getRuntime().availableProcessors()
+                    : Integer.parseInt(property.strip());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid thread count, use -Dthreads=[THREADS]");
+            return;
+        }
+        final ToneCache tones;
+        try {
+            tones = Conductor.createTones();
+        } catch (IllegalArgumentException e) {
+            System.err.println(Conductor.TONE_USAGE);
+            return;
+        }
+        final SegmentCache segments;
+        try {
+            segments = SegmentCache.fromProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println(SegmentCache.USAGE);
+            return;
+        } catch (IOException e) {
+            System.err.println("Failed to open the segment cache: " + e.getMessage());
+            return;
+        }
+        final Tempo tempo;
+        try {
+            tempo = Tempo.fromProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println(Tempo.USAGE);
+            return;
+        }
+        final File outDir = new File(args[0]);
+        final List<Job> jobs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            try {
+                jobs.addAll(jobsFor(new File(args[i]), outDir));
+            } catch (IOException e) {
+                System.err.println("Failed to read " + args[i] + ": " + e.getMessage());
+                return;
+            }
+        }
+        final AudioFormat af = new AudioFormat(Note.SAMPLE_RATE, 8, 1, true, false);
+        final BatchRenderer batch = new BatchRenderer(af, tones, segments, tempo, threads);
+        final List<Result> results;
+        final long start = System.nanoTime();
+        try {
+            results = batch.render(jobs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while rendering");
+            return;
+        }
+        final long wallNanos = System.nanoTime() - start;
+        for (Result r : results) {
+            if (!r.isRendered()) {
+                System.err.println(r.getJob().getSong() + ":" + System.lineSeparator() + "    "
+                        + r.getError().replaceAll("\\R", System.lineSeparator() + "    "));
+            }
+        }
+        System.out.println(batch.summary(results, wallNanos) + ", written to " + outDir);
+        System.out.println("Sample kernels: " + Kernels.get().name());
+        if (tones != null) {
+            System.out.println("Tone cache: " + tones);
+        }
+        if (segments != null) {
+            System.out.println("Segment cache: " + segments);
+        }
+    }
+}
@@ -13,6 +13,9 @@ public class BellNote {
     /** The duration of the note */
     private final NoteLength length;
 
+    /** Whether this note sounds together with the previous note as a chord */
+    private final boolean chord;
+
     /**
      * Constructs a BellNote with the specified pitch and duration.
      *
@@ -20,8 +23,21 @@ public class BellNote {
      * @param length The duration of the note
      */
     public BellNote(Note note, NoteLength length) {
+        this(note, length, false);
+    }
+
+    /**
+     * Constructs a BellNote with the specified pitch and duration that may
+     * start together with the previous note.
+     *
+     * @param note   The pitch of the note
+     * @param length The duration of the note
+     * @param chord  True if the note sounds together with the previous note
+     */
+    public BellNote(Note note, NoteLength length, boolean chord) {
         this.note = note;
         this.length = length;
+        this.chord = chord;
     }
 
     /**
@@ -41,4 +57,13 @@ public class BellNote {
     public Note getNote() {
         return note;
     }
+
+    /**
+     * Checks if this note starts together with the previous note.
+     *
+     * @return True if this note is part of a chord with the previous note.
+     */
+    public boolean isChord() {
+        return chord;
+    }
 }
\ No newline at end of file
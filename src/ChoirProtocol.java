@@ -0,0 +1,316 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import enums.Note;
+
+/**
+ * The messages passed between a RemoteChoir and its RemoteMembers over TCP.
+ * All values are big-endian. Every message starts with a byte giving its
+ * type, followed by fields of fixed size except for the name and the list
+ * of bells:
+ * <pre>
+ * HELLO       member to conductor: magic "CHOR" (int), version (short), name (UTF)
+ * ASSIGN      conductor to member: number of bells (byte), note ordinal of each (byte)
+ * SYNC        conductor to member: conductor clock when sent (long)
+ * SYNC_REPLY  member to conductor: conductor clock when sent, member clock when
+ *             received, member clock when replied (long each)
+ * START       conductor to member: member clock at which frame 0 plays (long),
+ *             time notes are sent ahead of their frame in milliseconds (int)
+ * PLAY        conductor to member: start frame (int), note ordinal (byte),
+ *             number of samples (int)
+ * END         conductor to member: number of frames in the song (int)
+ * DONE        member to conductor: notes played, notes late, underruns (int each)
+ * </pre>
+ * Clocks are System.nanoTime of the sending or receiving JVM. Frames count
+ * samples from the start of the song on the timeline shared by the whole
+ * choir, so a PLAY is sent well before its note is due. A member keeps
+ * less than that time queued in its line, so notes reach it before it mixes
+ * their frames. A PLAY takes ten bytes.
+ */
+public final class ChoirProtocol {
+
+    /** The first four bytes of every HELLO, "CHOR" */
+    static final int MAGIC = 0x43484F52;
+
+    /** The version of the protocol spoken by this class */
+    static final short VERSION = 1;
+
+    /** A member introduces itself */
+    static final byte HELLO = 1;
+
+    /** The conductor tells a member which bells it rings */
+    static final byte ASSIGN = 2;
+
+    /** The conductor asks for the clock of a member */
+    static final byte SYNC = 3;
+
+    /** A member answers a SYNC with its clock */
+    static final byte SYNC_REPLY = 4;
+
+    /** The conductor starts a song */
+    static final byte START = 5;
+
+    /** The conductor asks for a note at a frame */
+    static final byte PLAY = 6;
+
+    /** The conductor has sent every note of the song */
+    static final byte END = 7;
+
+    /** A member has played out the song */
+    static final byte DONE = 8;
+
+    /** Number of bytes taken by a PLAY */
+    static final int PLAY_BYTES = 10;
+
+    /** All notes, indexed by ordinal */
+    private static final Note[] NOTES = Note.values();
+
+    /**
+     * A message read from the stream. Only the fields of its type are set.
+     */
+    static final class Message {
+        /** The type of the message */
+        final byte type;
+
+        /** Name of the member, HELLO only */
+        String name;
+
+        /** Bells of the member, ASSIGN only */
+        Note[] bells;
+
+        /** Conductor clock when a SYNC was sent, or member clock of frame 0 for START */
+        long sent;
+
+        /** Member clock when a SYNC was received */
+        long received;
+
+        /** Member clock when a SYNC was replied */
+        long replied;
+
+        /** Start frame of a PLAY, or number of frames for END */
+        int frame;
+
+        /** Note of a PLAY */
+        Note note;
+
+        /** Number of samples of a PLAY */
+        int samples;
+
+        /** Time notes are sent ahead of their frame in milliseconds, START only */
+        int aheadMs;
+
+        /** Notes played, notes late and underruns reported by DONE */
+        int played;
+
+        /** Notes that arrived after their start frame, DONE only */
+        int late;
+
+        /** Number of times the line of the member ran dry, DONE only */
+        int underruns;
+
+        /**
+         * Constructs an empty message of the given type.
+         *
+         * @param type The type of the message
+         */
+        Message(byte type) {
+            this.type = type;
+        }
+    }
+
+    /**
+     * Prevents instantiation.
+     */
+    private ChoirProtocol() {
+    }
+
+    /**
+     * Writes a HELLO.
+     *
+     * @param out  The stream to write to
+     * @param name The name of the member
+     * @throws IOException If writing fails
+     */
+    static void writeHello(DataOutputStream out, String name) throws IOException {
+        out.writeByte(HELLO);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeUTF(name);
+    }
+
+    /**
+     * Writes an ASSIGN.
+     *
+     * @param out   The stream to write to
+     * @param bells The notes the member rings
+     * @throws IOException If writing fails
+     */
+    static void writeAssign(DataOutputStream out, Note[] bells) throws IOException {
+        out.writeByte(ASSIGN);
+        out.writeByte(bells.length);
+        for (Note n : bells) {
+            out.writeByte(n.ordinal());
+        }
+    }
+
+    /**
+     * Writes a SYNC.
+     *
+     * @param out  The stream to write to
+     * @param sent The conductor clock now
+     * @throws IOException If writing fails
+     */
+    static void writeSync(DataOutputStream out, long sent) throws IOException {
+        out.writeByte(SYNC);
+        out.writeLong(sent);
+    }
+
+    /**
+     * Writes a SYNC_REPLY.
+     *
+     * @param out      The stream to write to
+     * @param sent     The conductor clock the SYNC was sent at
+     * @param received The member clock the SYNC was received at
+     * @param replied  The member clock now
+     * @throws IOException If writing fails
+     */
+    static void writeSyncReply(DataOutputStream out, long sent, long received, long replied) throws IOException {
+        out.writeByte(SYNC_REPLY);
+        out.writeLong(sent);
+        out.writeLong(received);
+        out.writeLong(replied);
+    }
+
+    /**
+     * Writes a START.
+     *
+     * @param out     The stream to write to
+     * @param nanos   The member clock at which frame 0 plays
+     * @param aheadMs The time notes are sent ahead of their frame, in milliseconds
+     * @throws IOException If writing fails
+     */
+    static void writeStart(DataOutputStream out, long nanos, int aheadMs) throws IOException {
+        out.writeByte(START);
+        out.writeLong(nanos);
+        out.writeInt(aheadMs);
+    }
+
+    /**
+     * Writes a PLAY.
+     *
+     * @param out     The stream to write to
+     * @param frame   The frame the note starts at
+     * @param note    The note
+     * @param samples The number of samples of the note
+     * @throws IOException If writing fails
+     */
+    static void writePlay(DataOutputStream out, int frame, Note note, int samples) throws IOException {
+        out.writeByte(PLAY);
+        out.writeInt(frame);
+        out.writeByte(note.ordinal());
+        out.writeInt(samples);
+    }
+
+    /**
+     * Writes an END.
+     *
+     * @param out    The stream to write to
+     * @param frames The number of frames in the song
+     * @throws IOException If writing fails
+     */
+    static void writeEnd(DataOutputStream out, int frames) throws IOException {
+        out.writeByte(END);
+        out.writeInt(frames);
+    }
+
+    /**
+     * Writes a DONE.
+     *
+     * @param out       The stream to write to
+     * @param played    The number of notes played
+     * @param late      The number of notes that arrived after their start frame
+     * @param underruns The number of times the line ran dry
+     * @throws IOException If writing fails
+     */
+    static void writeDone(DataOutputStream out, int played, int late, int underruns) throws IOException {
+        out.writeByte(DONE);
+        out.writeInt(played);
+        out.writeInt(late);
+        out.writeInt(underruns);
+    }
+
+    /**
+     * Reads the next message, waiting until it has arrived.
+     *
+     * @param in The stream to read from
+     * @return The message
+     * @throws IOException If reading fails, the stream ends or the message is invalid
+     */
+    static Message read(DataInputStream in) throws IOException {
+        final Message m = new Message(in.readByte());
+        switch (m.type) {
+            case HELLO:
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a choir member");
+                }
+                final short version = in.readShort();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported choir protocol version " + version);
+                }
+                m.name = in.readUTF();
+                break;
+            case ASSIGN:
+                m.bells = new Note[in.readUnsignedByte()];
+                for (int i = 0; i < m.bells.length; i++) {
+                    m.bells[i] = note(in.readUnsignedByte());
+                }
+                break;
+            case SYNC:
+                m.sent = in.readLong();
+                break;
+            case START:
+                m.sent = in.readLong();
+                m.aheadMs = in.readInt();
+                break;
+            case SYNC_REPLY:
+                m.sent = in.readLong();
+                m.received = in.readLong();
+                m.replied = in.readLong();
+                break;
+            case PLAY:
+                m.frame = in.readInt();
+                m.note = note(in.readUnsignedByte());
+                m.samples = in.readInt();
+                if (m.frame < 0 || m.samples < 0) {
+                    throw new IOException("Invalid note at frame " + m.frame + " for " + m.samples + " samples");
+                }
+                break;
+            case END:
+                m.frame = in.readInt();
+                break;
+            case DONE:
+                m.played = in.readInt();
+                m.late = in.readInt();
+                m.underruns = in.readInt();
+                break;
+            default:
+                throw new IOException("Unknown message type " + m.type);
+        }
+        return m;
+    }
+
+    /**
+     * Looks up a note by ordinal.
+     *
+     * @param ordinal The ordinal read from the stream
+     * @return The note
+     * @throws IOException If no note has the ordinal
+     */
+    private static Note note(int ordinal) throws IOException {
+        if (ordinal >= NOTES.length) {
+            throw new IOException("Unknown note " + ordinal);
+        }
+        return NOTES[ordinal];
+    }
+}
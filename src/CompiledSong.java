@@ -0,0 +1,374 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes songs in the compiled binary format, so a song does not
+ * have to be parsed from text every time it is played.
+ * All values are big-endian. The file starts with a 16 byte header:
+ * <pre>
+ *  0  magic "BELL"
+ *  4  format version (short)
+ *  6  flags (short), bit 0 set if a measure index follows the events,
+ *     bit 1 set if a tempo map follows the measure index
+ *  8  number of events (int)
+ * 12  number of measures in the index (int)
+ * </pre>
+ * The header is followed by one 16-bit event per note, packed as in Score,
+ * and then, aligned to 4 bytes, the measure index: for every measure the
+ * position of its first step (int) and the frame at which that step plays
+ * (long), followed by the number of frames the whole song plays for (long).
+ * The tempo map starts with the number of tempo regions as an int, followed
+ * for every region by the position of its first event (int), its beats per
+ * minute (short), and its beats per measure and beat unit (a byte each).
+ * Version 2 files hold only the position of each measure, and their frames
+ * are added up from the song when it is loaded. Version 1 files have no
+ * tempo map either and play at the default tempo.
+ */
+public class CompiledSong {
+
+    /** The first four bytes of every compiled song, "BELL" */
+    static final int MAGIC = 0x42454C4C;
+
+    /** The version of the format written by this class */
+    static final short VERSION = 3;
+
+    /** The version of the format without the frames of the measures */
+    private static final short VERSION_WITHOUT_FRAMES = 2;
+
+    /** The first version of the format, without a tempo map */
+    private static final short VERSION_WITHOUT_TEMPO = 1;
+
+    /** Flag marking a file that holds a measure index */
+    static final short FLAG_MEASURE_INDEX = 1;
+
+    /** Flag marking a file that holds a tempo map */
+    static final short FLAG_TEMPO_MAP = 2;
+
+    /** Number of bytes taken by each region of the tempo map */
+    private static final int TEMPO_REGION_BYTES = 8;
+
+    /** Number of bytes in the header, the events start right after it */
+    static final int HEADER_BYTES = 16;
+
+    /** Extension of compiled songs still being written */
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    /** File extension of compiled songs */
+    public static final String EXTENSION = ".bsong";
+
+    /**
+     * Checks if a file starts with the magic number of a compiled song.
+     *
+     * @param file The file to check
+     * @return True if the file is a compiled song, false if it is not or cannot be read
+     */
+    public static boolean isCompiled(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // Keep reading until the magic number is complete or the file ends.
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Maps a compiled song into memory. The header and every event are
+     * checked, but the events are not copied.
+     *
+     * @param file The compiled song file
+     * @param err  The stream errors are printed to
+     * @return A Score reading the mapped events, or null if the file is invalid
+     */
+    public static MappedScore load(File file, PrintStream err) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES || fileSize > Integer.MAX_VALUE) {
+                err.println("File " + file + " is not a valid compiled song: unexpected size " + fileSize);
+                return null;
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            if (buffer.getInt(0) != MAGIC) {
+                err.println("File " + file + " is not a compiled song");
+                return null;
+            }
+            final short version = buffer.getShort(4);
+            if (version != VERSION && version != VERSION_WITHOUT_FRAMES && version != VERSION_WITHOUT_TEMPO) {
+                err.println("File " + file + " has unsupported compiled song version " + version);
+                return null;
+            }
+            final short flags = buffer.getShort(6);
+            final boolean indexed = (flags & FLAG_MEASURE_INDEX) != 0;
+            final int events = buffer.getInt(8);
+            final int measures = indexed ? buffer.getInt(12) : 0;
+            final long indexOffset = align(HEADER_BYTES + 2L * events);
+            final boolean framed = indexed && version == VERSION;
+            final long tempoOffset = indexOffset + (long) entryBytes(framed) * measures + (framed ? Long.BYTES : 0);
+            if (events < 0 || measures < 0 || tempoOffset > fileSize) {
+                err.println("File " + file + " is not a valid compiled song: truncated body");
+                return null;
+            }
+            final MappedScore score = new MappedScore(buffer, events, measures, (int) indexOffset, framed);
+            if (version != VERSION_WITHOUT_TEMPO && (flags & FLAG_TEMPO_MAP) != 0
+                    && !loadTempoMap(score, buffer, (int) tempoOffset, file, err)) {
+                return null;
+            }
+            return check(score, file, err) ? score : null;
+        } catch (IOException e) {
+            err.println("Failed to read compiled song " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the tempo map of a compiled song into its score.
+     *
+     * @param score  The mapped song
+     * @param buffer The mapped contents of the file
+     * @param offset The position of the tempo map in the file
+     * @param file   The compiled song file, used in error messages
+     * @param err    The stream errors are printed to
+     * @return True if the tempo map is valid
+     */
+    private static boolean loadTempoMap(MappedScore score, ByteBuffer buffer, int offset, File file,
+            PrintStream err) {
+        if (offset + 4L > buffer.limit()) {
+            err.println("File " + file + " is not a valid compiled song: truncated tempo map");
+            return false;
+        }
+        final int regions = buffer.getInt(offset);
+        if (regions < 0 || offset + 4L + (long) TEMPO_REGION_BYTES * regions > buffer.limit()) {
+            err.println("File " + file + " is not a valid compiled song: truncated tempo map");
+            return false;
+        }
+        int pos = offset + 4;
+        for (int r = 0; r < regions; r++, pos += TEMPO_REGION_BYTES) {
+            final int start = buffer.getInt(pos);
+            try {
+                if (start < 0 || start > score.size()) {
+                    throw new IllegalArgumentException("Tempo region outside the song: " + start);
+                }
+                score.setTempo(start, new Tempo(buffer.getShort(pos + 4), buffer.get(pos + 6), buffer.get(pos + 7)));
+            } catch (IllegalArgumentException e) {
+                err.println("File " + file + ": invalid tempo region " + r + ": " + e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a song in the compiled format, with a measure index and a tempo
+     * map. The file is written under a temporary name in the same directory
+     * and moved into place, so a score still mapped from the old file keeps
+     * reading the old song and the new file is never seen half written.
+     *
+     * @param song The notes of the song
+     * @param file The file to write
+     * @return The number of measures in the index
+     * @throws IOException If writing the file fails
+     */
+    public static int write(Score song, File file) throws IOException {
+        final Path target = file.getAbsoluteFile().toPath();
+        final Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), TEMP_EXTENSION);
+        try {
+            final int measures = writeTo(song, temp.toFile());
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return measures;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes a song in the compiled format to a file that nothing has mapped.
+     *
+     * @param song The notes of the song
+     * @param file The file to write
+     * @return The number of measures in the index
+     * @throws IOException If writing the file fails
+     */
+    private static int writeTo(Score song, File file) throws IOException {
+        final MeasureIndex index = MeasureIndex.of(song);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(FLAG_MEASURE_INDEX | FLAG_TEMPO_MAP);
+            out.writeInt(song.size());
+            out.writeInt(index.measureCount());
+            for (int i = 0; i < song.size(); i++) {
+                out.writeShort(song.event(i));
+            }
+            final long eventsEnd = HEADER_BYTES + 2L * song.size();
+            for (long pad = align(eventsEnd) - eventsEnd; pad > 0; pad--) {
+                out.writeByte(0);
+            }
+            for (int m = 0; m < index.measureCount(); m++) {
+                out.writeInt(index.measureStart(m));
+                out.writeLong(index.measureFrame(m));
+            }
+            out.writeLong(index.totalFrames());
+            out.writeInt(song.regionCount());
+            for (int r = 0; r < song.regionCount(); r++) {
+                final Tempo tempo = song.regionTempo(r);
+                out.writeInt(song.regionStart(r));
+                out.writeShort(tempo.bpm());
+                out.writeByte(tempo.beats());
+                out.writeByte(tempo.beatUnit());
+            }
+        }
+        return index.measureCount();
+    }
+
+    /**
+     * Checks that every event of a mapped song is valid, that no note appears
+     * twice in a chord and that the measure index points into the song, with
+     * frames that never go back.
+     *
+     * @param score The mapped song
+     * @param file  The compiled song file, used in error messages
+     * @param err   The stream errors are printed to
+     * @return True if the song can be played
+     */
+    private static boolean check(MappedScore score, File file, PrintStream err) {
+        long stepNotes = 0;
+        for (int i = 0; i < score.size(); i++) {
+            final int event = score.event(i);
+            if (!Score.isValidEvent(event)) {
+                err.println("File " + file + ": invalid event " + event + " at position " + i);
+                return false;
+            }
+            final long bit = 1L << Score.noteOf(event).ordinal();
+            stepNotes = Score.isChordEvent(event) ? stepNotes : 0;
+            if ((stepNotes & bit) != 0) {
+                err.println("File " + file + ": note " + Score.noteOf(event) + " appears twice in chord at position "
+                        + i);
+                return false;
+            }
+            stepNotes |= bit;
+        }
+        int previous = 0;
+        long previousFrame = 0;
+        for (int m = 0; m < score.measureCount(); m++) {
+            final int start = score.measureStart(m);
+            if (start < previous || start > score.size()) {
+                err.println("File " + file + ": invalid measure index entry " + start + " for measure " + m);
+                return false;
+            }
+            previous = start;
+            if (score.hasMeasureFrames()) {
+                final long frame = score.measureFrame(m);
+                if (frame < previousFrame || (m == 0 && frame != 0)) {
+                    err.println("File " + file + ": invalid measure index frame " + frame + " for measure " + m);
+                    return false;
+                }
+                previousFrame = frame;
+            }
+        }
+        if (score.hasMeasureFrames() && score.totalFrames() < previousFrame) {
+            err.println("File " + file + ": invalid song length of " + score.totalFrames() + " frames");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of bytes taken by each entry of the measure index.
+     *
+     * @param framed Whether the entries hold the frame of their measure
+     * @return The size of an entry
+     */
+    static int entryBytes(boolean framed) {
+        return framed ? Integer.BYTES + Long.BYTES : Integer.BYTES;
+    }
+
+    /**
+     * Rounds a file position up to a multiple of 4 bytes.
+     *
+     * @param position The position
+     * @return The aligned position
+     */
+    private static long align(long position) {
+        return (position + 3) & ~3L;
+    }
+
+    /**
+     * Entry point for compiling songs.
+     * Every argument is a song file, or a directory whose .txt songs are all
+     * compiled. Each song is written next to its text file with the .bsong
+     * extension. Songs that do not set their own tempo are compiled at the
+     * tempo of the "tempo" and "meter" properties.
+     *
+     * @param args The songs or directories to compile
+     */
+    public static void main(String[] args) {
+        if (args == null || args.length == 0 || args[0].isEmpty()) {
+            System.err.println("Usage: ant compile-song -Dsong=[PATH_TO_SONG_OR_DIRECTORY]");
+            return;
+        }
+        final Tempo tempo;
+        try {
+            tempo = Tempo.fromProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println(Tempo.USAGE);
+            return;
+        }
+        int failed = 0;
+        for (String arg : args) {
+            final File dir = new File(arg);
+            final File[] files = dir.isDirectory()
+                    ? dir.listFiles((d, name) -> name.endsWith(".txt"))
+                    : new File[] { SongParser.resolve(arg, System.err) };
+            for (File file : files) {
+                if (file == null || !compile(file, tempo)) {
+                    failed++;
+                }
+            }
+        }
+        if (failed > 0) {
+            System.err.println(failed + " song(s) could not be compiled");
+        }
+    }
+
+    /**
+     * Parses a text song and writes it in the compiled format.
+     *
+     * @param file  The text song file
+     * @param tempo The tempo the song starts at unless it sets its own
+     * @return True if the song was compiled
+     */
+    private static boolean compile(File file, Tempo tempo) {
+        final long start = System.nanoTime();
+        final Score song = new SongParser(System.err, tempo).parseFile(file);
+        if (song == null) {
+            System.err.println("Skipping " + file);
+            return false;
+        }
+        final String name = file.getName();
+        final String base = name.endsWith(".txt") ? name.substring(0, name.length() - 4) : name;
+        final File out = new File(file.getParentFile(), base + EXTENSION);
+        try {
+            final int measures = write(song, out);
+            final long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Compiled " + song.size() + " notes (" + measures + " measures) from " + file
+                    + " to " + out + " in " + elapsedMs + " ms");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to write " + out + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
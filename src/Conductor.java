@@ -1,14 +1,11 @@
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.PrintStream;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
+import dsp.Kernels;
 import enums.Note;
-import enums.NoteLength;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
@@ -32,143 +29,351 @@ public class Conductor implements Runnable {
     /** Map of notes to their corresponding member threads */
     private final Map<Note, Member> choir = new HashMap<>();
 
-    /** How long to pause between notes, adding a staccato effect */
-    private final int STACCATO_PAUSE = 80;
+    /** Mixes the notes of each step, the only writer to the audio line */
+    private final VoiceMixer mixer = new VoiceMixer();
+
+    /** How cues are passed from the conductor to its members */
+    private final Handoff.Mode handoffMode;
+
+    /** Decides which threads the conductor and its members run on */
+    private final MemberExecutor executor;
 
-    // Add constants for dotted note lengths
+    /** Timings of all handoffs between the conductor and its members */
+    private final HandoffStats handoffStats = new HandoffStats();
 
-    /** Dotted half representation in txt files */
-    private static final int DOTTED_HALF_INPUT = 3;
+    /** Rendered bell tones shared by the members, or null to play plain sine waves */
+    private final ToneCache tones;
+
+    /** Sizes the buffer of the audio line and counts its underruns */
+    private final LineBuffer lineBuffer;
+
+    /** How long to pause between notes, adding a staccato effect */
+    static final int STACCATO_PAUSE = 80;
 
-    /** Dotted quarter representation in txt files */
-    private static final int DOTTED_QUARTER_INPUT = 6;
+    /** Number of parsed steps a streaming song reads ahead of playback */
+    private static final int STREAM_LOOKAHEAD = 64;
 
-    /** Dotted half measure length */
-    private static final float DOTTED_HALF_LENGTH = 0.75f;
+    /** Default memory budget of the tone cache in KB */
+    private static final int DEFAULT_TONE_CACHE_KB = 4096;
 
-    /** Dotted quarter measure length */
-    private static final float DOTTED_QUARTER_LENGTH = 0.375f;
+    /** Explains the tone properties when they are invalid */
+    static final String TONE_USAGE = "Unknown tone, use -Dtone=sine or -Dtone=bell with an optional "
+            + "-Dtone.cache=[KB]";
 
     /** The sequence of notes that form the song to be played */
-    private List<BellNote> song;
+    private Score song;
+
+    /** Reads the song while it plays, or null if the whole song was parsed up front */
+    private SongReader reader;
+
+    /** The tempo songs start at unless their header sets one */
+    private Tempo tempo = Tempo.DEFAULT;
+
+    /** Parsed songs shared by conductors, or null to read every song from disk */
+    private SongCache cache;
+
+    /** Index of the song the range was chosen from, or null if the whole song is played */
+    private MeasureIndex index;
+
+    /** Position of the first event played */
+    private int rangeStart = 0;
+
+    /** Position after the last event played, or -1 to play to the end of the song */
+    private int rangeEnd = -1;
+
+    /** Number of times the range is played */
+    private int loops = 1;
+
+    /** Time mixed ahead of the line in milliseconds, or 0 to write each step to the line directly */
+    private int lookahead = LineWriter.DEFAULT_LOOKAHEAD_MS;
+
+    /**
+     * Parses a file containing musical notation into a Score.
+     * See SongParser for the text format. Songs compiled with CompiledSong are
+     * detected by their header and mapped into memory instead of parsed.
+     *
+     * @param filename The path of the file to parse
+     * @return A Score holding the notes of the song, or null if parsing failed
+     */
+    public Score parseNotes(String filename) {
+        return parseNotes(filename, System.err);
+    }
 
     /**
-     * Parses a file containing musical notation into a list of BellNotes.
-     * The file format should have one note per line with the format: "NOTE LENGTH"
-     * Where NOTE is the name of a Note enum value and LENGTH is a number
-     * representing
-     * the note duration (1 for whole note, 2 for half note, 4 for quarter note,
-     * etc.).
+     * Parses a file containing musical notation into a Score, reporting errors
+     * to the given stream instead of System.err.
      *
      * @param filename The path of the file to parse
-     * @return A list of BellNotes representing the song, or null if parsing failed
+     * @param err      The stream parse errors are printed to
+     * @return A Score holding the notes of the song, or null if parsing failed
      */
-    public List<BellNote> parseNotes(String filename) {
-        File file = new File(filename);
-        if (file.exists()) {
-            // Check that the provided path is not a directory
-            if (file.isDirectory()) {
-                System.err.println("Provided path is a directory, not a valid file: " + filename);
+    public Score parseNotes(String filename, PrintStream err) {
+        final Score notes;
+        if (cache != null) {
+            notes = cache.get(filename, tempo, err);
+        } else {
+            final File file = SongParser.resolve(filename, err);
+            if (file == null) {
                 return null;
             }
-            final List<BellNote> notes = new ArrayList<>();
-            String line;
-            String[] elements;
-            boolean valid = true;
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                while ((line = reader.readLine()) != null) {
-                    elements = line.split(" ");
-                    if (elements.length < 2) {
-                        System.err.println("Couldn't extract two elements from line: " + line);
-                        valid = false;
-                        continue;
-                    }
-                    Note n = parseNote(elements[0]);
-                    NoteLength nl = parseNoteLength(elements[1]);
-                    if (n == null || nl == null) {
-                        valid = false;
-                        continue;
-                    }
-                    notes.add(new BellNote(n, nl));
-                }
-                if (valid == false) {
-                    System.err.println("At least one line failed to read, please review errors");
-                    return null;
-                }
-                this.song = notes;
-                return notes;
-            } catch (IOException ignored) {
-                System.err.println("File " + filename + " exists, this should never happen");
-            }
-        } else {
-            // If the file is not found, try prepending the songs/ directory or adding .txt
-            if (!filename.startsWith("songs/")) {
-                return parseNotes("songs/" + filename);
-            } else if (!filename.endsWith(".txt")) {
-                return parseNotes(filename + ".txt");
+            notes = readScore(file, tempo, err);
+        }
+        if (notes != null) {
+            this.song = notes;
+        }
+        return notes;
+    }
+
+    /**
+     * Reads a song file in either the text or the compiled format, starting
+     * text songs at the default tempo.
+     *
+     * @param file The song file
+     * @param err  The stream errors are printed to
+     * @return A Score holding the notes of the song, or null if it is invalid
+     */
+    static Score readScore(File file, PrintStream err) {
+        return readScore(file, Tempo.DEFAULT, err);
+    }
+
+    /**
+     * Reads a song file in either the text or the compiled format. Compiled
+     * songs keep the tempo they were compiled with.
+     *
+     * @param file  The song file
+     * @param tempo The tempo a text song starts at unless it sets its own
+     * @param err   The stream errors are printed to
+     * @return A Score holding the notes of the song, or null if it is invalid
+     */
+    static Score readScore(File file, Tempo tempo, PrintStream err) {
+        return CompiledSong.isCompiled(file)
+                ? CompiledSong.load(file, err)
+                : new SongParser(err, tempo).parseFile(file);
+    }
+
+    /**
+     * Sets the tempo songs start at unless their header sets one.
+     *
+     * @param tempo The starting tempo
+     */
+    public void setTempo(Tempo tempo) {
+        this.tempo = tempo;
+    }
+
+    /**
+     * Sets how far ahead of the audio line steps are mixed. The steps are
+     * written to the line by a single writer thread, so a late Member delays
+     * the song only once the lookahead has run out.
+     *
+     * @param ms The lookahead in milliseconds, or 0 to write each step to the line directly
+     */
+    public void setLookahead(int ms) {
+        this.lookahead = ms;
+    }
+
+    /**
+     * Sets the cache songs are parsed through. Conductors playing one song
+     * after another share a cache, so a song played again is not read again.
+     *
+     * @param cache The song cache, or null to read every song from disk
+     */
+    public void setCache(SongCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Chooses the part of the parsed song to play and how many times to play
+     * it. Positions are measure numbers counted from 1, or times such as
+     * "1:30" or "90.5s". The start measure and the end measure are both
+     * played; a start time begins with the step playing at that time and an
+     * end time stops before the first step starting at or after it.
+     *
+     * @param from  Where to start, or a blank string for the start of the song
+     * @param to    Where to stop, or a blank string for the end of the song
+     * @param times The number of times to play the range, at least 1
+     * @throws IllegalArgumentException If a position is invalid or the range is empty
+     * @throws IllegalStateException    If no song has been parsed
+     */
+    public void setRange(String from, String to, int times) {
+        if (song == null) {
+            throw new IllegalStateException("No song to choose a range from");
+        }
+        if (times < 1) {
+            throw new IllegalArgumentException("Loop count must be at least 1: " + times);
+        }
+        final MeasureIndex measures = MeasureIndex.of(song);
+        final int start = from.isBlank() ? 0 : measures.startOf(from);
+        final int end = to.isBlank() ? song.size() : measures.endOf(to);
+        if (start >= end) {
+            throw new IllegalArgumentException("Empty range from " + (from.isBlank() ? "the start" : from) + " to "
+                    + (to.isBlank() ? "the end" : to));
+        }
+        this.index = measures;
+        this.rangeStart = start;
+        this.rangeEnd = end;
+        this.loops = times;
+    }
+
+    /**
+     * Starts playing a song while it is still being read. Members are created
+     * and given their parts just in time, so the first note plays as soon as
+     * the first line is parsed. Playback stops at the first invalid line, and
+     * errors in the rest of the file are still reported. A compiled song is
+     * mapped into memory at once, and a song in the cache is already parsed,
+     * so they are simply played.
+     *
+     * @param filename The path of the song file
+     * @return True if playback started, false if the file could not be found
+     */
+    public boolean streamSong(String filename) {
+        final Score cached = cache == null ? null : cache.peek(filename, tempo);
+        if (cached != null) {
+            // Already parsed, nothing to stream.
+            song = cached;
+            thread.start();
+            return true;
+        }
+        final File file = SongParser.resolve(filename, System.err);
+        if (file == null) {
+            return false;
+        }
+        if (CompiledSong.isCompiled(file)) {
+            if (parseNotes(file.getPath()) == null) {
+                return false;
             }
-            System.err.println("File: " + filename + " not found");
+            thread.start();
+            return true;
         }
-        return null;
+        reader = new SongReader(file, STREAM_LOOKAHEAD, tempo, System.err);
+        reader.start();
+        thread.start();
+        return true;
     }
 
     /**
-     * Parses a string into a Note enum value.
+     * Assigns parts to Member threads that all play into the shared mixer.
+     * This ensures consistent audio output from the same device.
      *
-     * @param note The string representation of the note
-     * @return The corresponding Note enum value, or null if parsing fails
+     * @param notes The Score to be played.
+     * @param start The position of the first note to assign
+     * @param end   The position after the last note to assign
      */
-    private Note parseNote(String note) {
-        try {
-            return Note.valueOf(note);
-        } catch (IllegalArgumentException e) {
-            System.err.println("Failed to parse note: " + note);
-            return null;
+    private void assignParts(Score notes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            // Queue the note duration for playback.
+            memberFor(notes.note(i)).assignPart(notes.length(i));
+        }
+    }
+
+    /**
+     * Gets the Member playing the given note, creating it if the choir does
+     * not have one yet.
+     *
+     * @param note The note to be played
+     * @return The Member playing that note
+     */
+    private Member memberFor(Note note) {
+        Member m = choir.get(note);
+        if (m == null) {
+            // Create a new Member for this note if one does not already exist.
+            m = new Member(note, mixer, tones, Handoff.create(handoffMode, handoffStats), executor);
+            choir.put(note, m);
         }
+        return m;
     }
 
     /**
-     * Parses a string into a NoteLength enum value.
-     * Supports standard note lengths as well as dotted notes.
-     * Example: "4" = quarter note, "2" = half note, "1" = whole note
-     * Special cases: "3" = dotted half note, "6" = dotted quarter note
+     * Signals every Member of a step to play its next note and waits until all
+     * of them have added their note to the mixer.
      *
-     * @param noteLength The string representation of the note length
-     * @return The corresponding NoteLength enum value, or null if parsing fails
+     * @param score     The score holding the step
+     * @param start     The position of the first note of the step
+     * @param end       The position after the last note of the step
+     * @param scheduler The scheduler the step will be written with
+     * @return False if playback has been stopped, true otherwise
      */
-    private NoteLength parseNoteLength(String noteLength) {
+    private boolean playStep(Score score, int start, int end, FrameScheduler scheduler) {
+        final Tempo stepTempo = score.tempoAt(start);
+        for (int i = start; i < end; i++) {
+            Member player = choir.get(score.note(i));
+            if (!player.isPlaying())
+                return false;
+
+            final NoteEvents.Scheduled event = new NoteEvents.Scheduled();
+            if (event.isEnabled()) {
+                event.note = score.note(i).name();
+                event.length = score.length(i).name();
+                event.member = player.getName();
+                event.step = scheduler.steps();
+                event.expectedFrame = scheduler.nextFrame();
+                event.observedFrame = scheduler.observedFrame();
+                event.expectedNanos = scheduler.expectedNanos(scheduler.nextFrame());
+                event.observedNanos = System.nanoTime();
+            }
+            // Signal the member that a new note is ready.
+            player.cue(stepTempo);
+            event.commit();
+        }
         try {
-            int temp = Integer.parseInt(noteLength.strip());
-            if (temp == DOTTED_HALF_INPUT) {
-                return NoteLength.fromLength(DOTTED_HALF_LENGTH);
-            } else if (temp == DOTTED_QUARTER_INPUT) {
-                return NoteLength.fromLength(DOTTED_QUARTER_LENGTH);
+            for (int i = start; i < end; i++) {
+                // Wait until the member finishes playing the note.
+                if (!choir.get(score.note(i)).awaitNotePlayed())
+                    return false;
             }
-            return NoteLength.fromLength(1 / ((float) temp));
-        } catch (IllegalArgumentException e) {
-            System.err.println("Failed to parse note length: " + noteLength);
-            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while waiting for player to finish.");
+            return false;
         }
+        return true;
     }
 
     /**
-     * Assigns parts to Member threads using the shared SourceDataLine.
-     * This ensures consistent audio output from the same device.
+     * Plays the steps of a score between two positions, a single note or a
+     * chord at a time.
+     * Only the mixer writes a combined step to the line, followed by silence up
+     * to the start frame of the next step (staccato).
      *
-     * @param notes List of BellNotes to be played.
-     * @param line  Shared SourceDataLine used for audio playback.
+     * @param score     The score to play
+     * @param first     The position of the first note of the first step to play
+     * @param last      The position after the last note to play, at the start of a step
+     * @param scheduler The scheduler writing the steps to the line
+     * @return False if playback has been stopped, true otherwise
      */
-    private void assignParts(List<BellNote> notes, SourceDataLine line) {
-        for (BellNote bNote : notes) {
-            Note note = bNote.getNote();
-            Member m = choir.getOrDefault(note, null);
-            if (m == null) {
-                // Create a new Member for this note if one does not already exist.
-                m = new Member(note, line);
-                choir.put(note, m);
+    private boolean playSteps(Score score, int first, int last, FrameScheduler scheduler) {
+        for (int start = first; start < last; start = score.stepEnd(start)) {
+            final int end = score.stepEnd(start);
+            if (!playStep(score, start, end, scheduler)) {
+                return false;
+            }
+            scheduler.write(mixer, score, start, end);
+        }
+        return true;
+    }
+
+    /**
+     * Plays a song while the reader is still parsing it. Members are created
+     * and given their parts just before they are cued.
+     *
+     * @param scheduler The scheduler writing the steps to the line
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    private void playStream(FrameScheduler scheduler) throws InterruptedException {
+        Score step;
+        while ((step = reader.next()) != null) {
+            if (tones != null) {
+                tones.prewarm(step, 0, step.size(), VoiceMixer.FORMAT);
+            }
+            for (int i = 0; i < step.size(); i++) {
+                Member m = memberFor(step.note(i));
+                if (!m.isPlaying()) {
+                    m.startMember();
+                }
+                m.assignPart(step.length(i));
+            }
+            if (!playSteps(step, 0, step.size(), scheduler)) {
+                return;
             }
-            // Queue the note duration for playback.
-            m.assignPart(bNote.getLength());
         }
     }
 
@@ -187,13 +392,9 @@ public class Conductor implements Runnable {
      * then waiting for them to complete any current operations.
      */
     private void stopThreads() {
-        // First signal all threads to stop
+        // Signal all threads to stop, waking up any that are waiting
         for (Member m : choir.values()) {
             m.stopMember();
-            // Wake up any waiting threads to process their stop signal
-            synchronized (m) {
-                m.notify();
-            }
         }
     }
 
@@ -201,23 +402,130 @@ public class Conductor implements Runnable {
 
     /**
      * Main entry point for the application.
-     * Parses a song file and plays it.
+     * Parses each song file given and plays them one after another. Every song
+     * is played on a line buffer sized from the underruns of the song before.
      *
-     * @param args Command line arguments, optionally containing the path to a song
-     *             file
+     * @param args Command line arguments, optionally containing the paths to
+     *             song files
      */
     public static void main(String[] args) {
         final AudioFormat af = new AudioFormat(Note.SAMPLE_RATE, 8, 1, true, false);
-        Conductor conductor = new Conductor(af);
-        List<BellNote> notes = null;
-        if (args != null && args.length > 0) {
-            notes = conductor.parseNotes(args[0]);
+        Handoff.Mode handoffMode;
+        try {
+            handoffMode = Handoff.Mode.fromName(System.getProperty("handoff", "lockfree"));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown handoff mode, use -Dhandoff=lockfree or -Dhandoff=monitor");
+            return;
+        }
+        final ToneCache tones;
+        try {
+            tones = createTones();
+        } catch (IllegalArgumentException e) {
+            System.err.println(TONE_USAGE);
+            return;
         }
-        if (notes == null) { // If we fail to read in our file, end the program. Some output should have been
+        final Tempo startTempo;
+        try {
+            startTempo = Tempo.fromProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println(Tempo.USAGE);
+            return;
+        }
+        final LineBuffer lineBuffer;
+        try {
+            lineBuffer = LineBuffer.fromProperties(af);
+        } catch (IllegalArgumentException e) {
+            System.err.println(LineBuffer.USAGE);
+            return;
+        }
+        if (args == null || args.length == 0) {
             System.err.println("Failed to read in notes. Pass in a file using argument -Dsong=[PATH_TO_SONG]");
             return;
         }
-        conductor.playSong();
+        final String from = System.getProperty("from", "");
+        final String to = System.getProperty("to", "");
+        final int loops;
+        try {
+            final String loop = System.getProperty("loop", "");
+            loops = loop.isBlank() ? 1 : Integer.parseInt(loop.strip());
+        } catch (NumberFormatException e) {
+            System.err.println(MeasureIndex.USAGE);
+            return;
+        }
+        final int lookahead;
+        try {
+            lookahead = LineWriter.lookaheadFromProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println(LineWriter.USAGE);
+            return;
+        }
+        final SongCache cache;
+        try {
+            cache = SongCache.fromProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println(SongCache.USAGE);
+            return;
+        } catch (IOException e) {
+            System.err.println("Failed to watch the songs directory: " + e.getMessage());
+            return;
+        }
+        final MemberExecutor executor = createExecutor();
+        if (executor == null) {
+            return;
+        }
+        for (String filename : args) {
+            final Conductor conductor = new Conductor(af, handoffMode, executor, tones, lineBuffer);
+            conductor.setTempo(startTempo);
+            conductor.setCache(cache);
+            conductor.setLookahead(lookahead);
+            play(conductor, filename, from, to, loops);
+        }
+        executor.shutdown();
+        System.out.println("Sample kernels: " + Kernels.get().name());
+        if (tones != null) {
+            System.out.println("Tone cache: " + tones);
+        }
+        if (cache != null) {
+            cache.close();
+            System.out.println("Song cache: " + cache);
+        }
+    }
+
+    /**
+     * Plays a single song, or a range of it, and waits for it to finish.
+     * A range needs the whole song to be indexed, so it is never streamed.
+     *
+     * @param conductor The conductor to play the song with
+     * @param filename  The path of the song file
+     * @param from      Where to start, or a blank string for the start of the song
+     * @param to        Where to stop, or a blank string for the end of the song
+     * @param loops     The number of times to play the range
+     */
+    private static void play(Conductor conductor, String filename, String from, String to, int loops) {
+        final boolean range = !from.isBlank() || !to.isBlank() || loops != 1;
+        if (Boolean.getBoolean("stream") && !range) {
+            // Play the song while it is being read.
+            if (!conductor.streamSong(filename)) {
+                System.err.println("Failed to read in notes. Pass in a file using argument -Dsong=[PATH_TO_SONG]");
+                return;
+            }
+        } else {
+            // If we fail to read in our file, skip the song. Some output should have been printed.
+            if (conductor.parseNotes(filename) == null) {
+                System.err.println("Failed to read in notes. Pass in a file using argument -Dsong=[PATH_TO_SONG]");
+                return;
+            }
+            if (range) {
+                try {
+                    conductor.setRange(from, to, loops);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(filename + ": " + e.getMessage());
+                    System.err.println(MeasureIndex.USAGE);
+                    return;
+                }
+            }
+            conductor.playSong();
+        }
 
         // Wait for the song to finish before stopping threads
         try {
@@ -227,6 +535,50 @@ public class Conductor implements Runnable {
         }
 
         conductor.stopThreads();
+        System.out.println("Handoff (" + conductor.handoffMode.name().toLowerCase() + ", "
+                + conductor.executor.getMode().name().toLowerCase() + " members): " + conductor.getHandoffStats());
+        System.out.println("Handoff wake: " + conductor.getHandoffStats().wakeHistogram());
+        System.out.println("Handoff round trip: " + conductor.getHandoffStats().roundTripHistogram());
+    }
+
+    /**
+     * Creates the tone cache from the "tone" and "tone.cache" system
+     * properties.
+     *
+     * @return The tone cache, or null if plain sine waves are played
+     * @throws IllegalArgumentException If the properties are invalid
+     */
+    static ToneCache createTones() {
+        final ToneCache.Tone tone = ToneCache.Tone.fromName(System.getProperty("tone", "sine"));
+        if (tone == ToneCache.Tone.SINE) {
+            return null;
+        }
+        final String budget = System.getProperty("tone.cache", "");
+        final long kb = budget.isBlank() ? DEFAULT_TONE_CACHE_KB : Long.parseLong(budget.strip());
+        if (kb < 0) {
+            throw new IllegalArgumentException("Negative tone cache budget: " + kb);
+        }
+        return new ToneCache(kb * 1024);
+    }
+
+    /**
+     * Creates the executor for the members from the "executor" and "pool.size"
+     * system properties.
+     *
+     * @return The executor, or null if the properties are invalid
+     */
+    private static MemberExecutor createExecutor() {
+        try {
+            final MemberExecutor.Mode mode = MemberExecutor.Mode.fromName(System.getProperty("executor", "platform"));
+            final String poolSize = System.getProperty("pool.size", "");
+            return new MemberExecutor(mode, poolSize.isBlank()
+                    ? Runtime.getRuntime().availableProcessors()
+                    : Integer.parseInt(poolSize.strip()));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown executor, use -Dexecutor=platform, -Dexecutor=virtual or "
+                    + "-Dexecutor=pool with an optional -Dpool.size=[THREADS]");
+            return null;
+        }
     }
 
     /**
@@ -247,8 +599,65 @@ public class Conductor implements Runnable {
      * @param af The audio format to use for playback
      */
     public Conductor(AudioFormat af) {
-        thread = new Thread(this, "Conductor");
+        this(af, Handoff.Mode.LOCKFREE, new MemberExecutor());
+    }
+
+    /**
+     * Constructs a Conductor with the specified audio format, handoff and
+     * execution model. Several conductors may share one executor.
+     *
+     * @param af          The audio format to use for playback
+     * @param handoffMode How cues are passed from the conductor to its members
+     * @param executor    Decides which threads the conductor and members run on
+     */
+    public Conductor(AudioFormat af, Handoff.Mode handoffMode, MemberExecutor executor) {
+        this(af, handoffMode, executor, null);
+    }
+
+    /**
+     * Constructs a Conductor with the specified audio format, handoff,
+     * execution model and tones. Several conductors may share one executor
+     * and one tone cache.
+     *
+     * @param af          The audio format to use for playback
+     * @param handoffMode How cues are passed from the conductor to its members
+     * @param executor    Decides which threads the conductor and members run on
+     * @param tones       Rendered bell tones, or null to play plain sine waves
+     */
+    public Conductor(AudioFormat af, Handoff.Mode handoffMode, MemberExecutor executor, ToneCache tones) {
+        this(af, handoffMode, executor, tones, new LineBuffer(af, LineBuffer.DEFAULT_LATENCY_MS,
+                LineBuffer.DEFAULT_MIN_LATENCY_MS, LineBuffer.DEFAULT_MAX_LATENCY_MS));
+    }
+
+    /**
+     * Constructs a Conductor with the specified audio format, handoff,
+     * execution model, tones and line buffer. Conductors playing one song
+     * after another share a line buffer, so that each song is played with the
+     * buffer size chosen after the one before.
+     *
+     * @param af          The audio format to use for playback
+     * @param handoffMode How cues are passed from the conductor to its members
+     * @param executor    Decides which threads the conductor and members run on
+     * @param tones       Rendered bell tones, or null to play plain sine waves
+     * @param lineBuffer  Sizes the buffer of the audio line
+     */
+    public Conductor(AudioFormat af, Handoff.Mode handoffMode, MemberExecutor executor, ToneCache tones,
+            LineBuffer lineBuffer) {
+        thread = executor.newThread(this, "Conductor");
         this.af = af;
+        this.handoffMode = handoffMode;
+        this.executor = executor;
+        this.tones = tones;
+        this.lineBuffer = lineBuffer;
+    }
+
+    /**
+     * Gets the timings of the handoffs between this conductor and its members.
+     *
+     * @return The handoff statistics
+     */
+    public HandoffStats getHandoffStats() {
+        return handoffStats;
     }
 
     /**
@@ -261,59 +670,71 @@ public class Conductor implements Runnable {
     /**
      * The main execution method for the conductor thread.
      * Opens the shared audio line, assigns notes to members, starts member threads,
-     * and signals each member to play the next note while applying a staccato
-     * pause.
+     * and signals the members of each step to play their next note. The mixer
+     * then writes the step, padded with a staccato pause of silent frames so
+     * that every step starts on its scheduled frame, into the ring of the line
+     * writer, which feeds the line on its own thread.
      */
     @Override
     public void run() {
         // Use try-with-resources so the SourceDataLine is automatically closed.
         try (final SourceDataLine line = AudioSystem.getSourceDataLine(af)) {
-            line.open();
+            lineBuffer.open(line);
             line.start();
 
-            // Assign parts using the shared audio line.
-            assignParts(song, line);
-            startThreads();
-
-            // Signal each BellNote to the respective Member.
-            for (BellNote bn : song) {
-                Note note = bn.getNote();
-                Member player = choir.get(note);
-                synchronized (player) {
-                    if (!player.isPlaying())
-                        break; // Exit if playback has been stopped.
-
-                    // Signal the member that a new note is ready.
-                    player.setHasNewNote(true);
-                    player.notify();
-                    try {
-                        // Wait until the member finishes playing the note.
-                        while (player.hasNewNote() && player.isPlaying()) {
-                            player.wait(1000); // Timeout to avoid potential deadlock.
-                            if (player.hasNewNote() && !player.isPlaying()) {
-                                // If stopping mid-note, clear the new note flag.
-                                player.setHasNewNote(false);
-                                break;
-                            }
-                        }
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        System.err.println("Interrupted while waiting for player to finish.");
+            // Feed the line from a ring filled ahead of time, so handoffs never reach the audio device.
+            final LineWriter writer = lookahead > 0 ? new LineWriter(line, lineBuffer, lookahead) : null;
+            if (writer != null) {
+                writer.start();
+            }
+
+            // Signal each step, a single note or a chord, to the respective Members.
+            final FrameScheduler scheduler = new FrameScheduler(line, lineBuffer, writer);
+            if (reader == null) {
+                final int end = rangeEnd < 0 ? song.size() : rangeEnd;
+                if (index != null) {
+                    System.out.println("Playing from " + index.describe(rangeStart) + " to "
+                            + index.describe(end) + (loops > 1 ? ", " + loops + " times" : ""));
+                }
+                if (tones != null) {
+                    // Render every tone of the range now, so no Member renders one while it plays.
+                    tones.prewarm(song, rangeStart, end, VoiceMixer.FORMAT);
+                }
+                for (int pass = 0; pass < loops; pass++) {
+                    // Assign the parts of the range to members playing into the shared mixer.
+                    assignParts(song, rangeStart, end);
+                    if (pass == 0) {
+                        startThreads();
+                    }
+                    if (!playSteps(song, rangeStart, end, scheduler)) {
                         break;
                     }
                 }
-                // Apply a short pause between notes to simulate staccato.
-                synchronized (this) {
-                    try {
-                        Thread.sleep(STACCATO_PAUSE);
-                    } catch (InterruptedException e) {
-                        System.err.println("Interrupted while pausing between notes (staccato effect).");
-                    }
+            } else {
+                try {
+                    playStream(scheduler);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    System.err.println("Interrupted while waiting for the song to be read.");
                 }
             }
 
             // Ensure all queued audio is processed.
-            line.drain();
+            scheduler.drain();
+            System.out.println(scheduler.summary());
+            System.out.println("Scheduling lateness: " + scheduler.lateness());
+            lineBuffer.adapt();
+            System.out.println("Line buffer: " + lineBuffer);
+            if (writer != null) {
+                System.out.println("Line writer: " + writer);
+            }
+            if (reader != null) {
+                reader.close();
+                if (reader.errorLine() != 0) {
+                    System.err.println("Playback stopped after " + scheduler.steps() + " steps at invalid line "
+                            + reader.errorLine());
+                }
+            }
         } catch (LineUnavailableException e) {
             System.err.println("playSong: The Audio System tried to read an unavailable line.");
         }
@@ -1,10 +1,42 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
 
+import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
 
+import dsp.Kernels;
 import enums.Note;
 
 /**
@@ -16,8 +48,56 @@ public class ConductorTest {
     /** Directory containing test files */
     private static final String TEST_DIR = "songs/test/";
 
-    /** Original error output stream to restore after tests */
-    private static PrintStream originalErr;
+    /** Size of the ring in the lookahead test, small and not a power of two so it wraps often */
+    private static final int RING_TEST_BYTES = 1000;
+
+    /** Disk budget of the segment cache test, enough for every test song */
+    private static final long SEGMENT_TEST_BYTES = 64L << 20;
+
+    /** Gains the kernel test scales the mixed notes with, including ones that round and clip */
+    private static final float[] KERNEL_TEST_GAINS = { 1.0f, 0.5f, 1.0f / 3, 2.5f };
+
+    /** Number of frames of every tone in the tone eviction test */
+    private static final int TONE_TEST_FRAMES = 1000;
+
+    /** Songs every subsystem test runs on, a plain melody and one with chords, tempos and meters */
+    private static final String[] TEST_SONGS = { "Valid-Mary.txt", "Valid-Tempo.txt" };
+
+    /** Songs the parser test runs on, one with every quirk the parsers accept and one with every error */
+    private static final String[] PARSER_TEST_SONGS = { "Valid-Quirks.txt", "Invalid-Quirks.txt" };
+
+    /** Time the choir test sends notes ahead, long enough that none has finished when a member is dropped */
+    private static final int CHOIR_TEST_AHEAD_MS = 2000;
+
+    /** Longest time the choir test waits for the conductor to notice something, in milliseconds */
+    private static final int CHOIR_TEST_WAIT_MS = 2000;
+
+    /** Directory the render server serves songs from by name */
+    private static final String SERVER_TEST_DIR = "songs/";
+
+    /** Song of the library the render server test fetches by name and posts as text */
+    private static final String SERVER_TEST_SONG = "MaryHadALittleLamb.txt";
+
+    /** Longest time the render server test waits for a response, in milliseconds */
+    private static final int SERVER_TEST_TIMEOUT_MS = 5000;
+
+    /** Discards the parse errors of the invalid test files */
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    /**
+     * A test of one subsystem, run on one song file.
+     */
+    private interface SongTest {
+
+        /**
+         * Runs the test.
+         *
+         * @param file The song file
+         * @return True if the test passed, false otherwise
+         * @throws Exception If the test fails with an error
+         */
+        boolean run(File file) throws Exception;
+    }
 
     /**
      * Main entry point for the test application.
@@ -58,9 +138,7 @@ public class ConductorTest {
             System.out.println("File: " + filename);
             System.out.println("Expected: " + (expectedValid ? "Valid" : "Invalid"));
 
-            suppressErrors();
             boolean result = testFile(file.getAbsolutePath(), expectedValid);
-            restoreErrors();
 
             if (result) {
                 System.out.println("Result: PASS");
@@ -74,26 +152,96 @@ public class ConductorTest {
 
         System.out.println("\n=== Test Summary ===");
         System.out.println("Valid-Invalid Tests Passed: " + passCount + "/" + totalTests);
+
+        runSubsystemTests();
     }
 
     /**
-     * Suppresses error output during tests by redirecting System.err
-     * to a null output stream.
+     * Runs each subsystem test on the songs picked for it, counting one test
+     * per song.
      */
-    private static void suppressErrors() {
-        // Create a null output stream that discards error output.
-        System.setErr(new PrintStream(new OutputStream() {
-            public void write(int b) {
-                // Discard the output.
-            }
-        }));
+    private static void runSubsystemTests() {
+        System.out.println("\n=== Running Subsystem Tests ===");
+        int passCount = 0;
+        int totalTests = 0;
+        for (String song : PARSER_TEST_SONGS) {
+            passCount += runTest("Parsers", new File(TEST_DIR, song), "Mapped parser does not match the line parser",
+                    file -> testParsers(file));
+            totalTests++;
+        }
+        for (String name : TEST_SONGS) {
+            final File song = new File(TEST_DIR, name);
+            passCount += runTest("Compiled", song, "Compiled song does not match the text song",
+                    file -> testCompiled(parse(file)));
+            passCount += runTest("Rewrite", song, "Rewriting a compiled song changes a score mapped from it",
+                    file -> testRewrite(parse(file)));
+            passCount += runTest("Seek", song, "Seeking to a measure does not find its first step",
+                    file -> testSeek(parse(file)));
+            passCount += runTest("Kernels", song, Kernels.get().name() + " kernels do not match the scalar kernels",
+                    file -> testKernels(parse(file)));
+            passCount += runTest("Lookahead", song, "Samples passed through the ring do not match the rendered song",
+                    file -> testLookahead(parse(file)));
+            passCount += runTest("Protocol", song, "Choir messages do not survive a round trip",
+                    file -> testProtocol(parse(file)));
+            passCount += runTest("Choir", song, "A dropped member's bells and notes do not move to the member left",
+                    file -> testChoir(parse(file)));
+            passCount += runTest("Wav", song, "Streamed WAV files do not match the WAV file of the Java Sound API",
+                    file -> testWav(parse(file)));
+            passCount += runTest("Segments", song, "Cached segments do not match the rendered song",
+                    file -> testSegments(parse(file)));
+            passCount += runTest("Tones", song, "Prewarmed tones are not rendered once each",
+                    file -> testTones(parse(file)));
+            passCount += runTest("Eviction", song, "The tone cache does not evict the least recently used tones",
+                    file -> testToneEviction(parse(file)));
+            totalTests += 11;
+        }
+        passCount += runTest("Server", new File(SERVER_TEST_DIR, SERVER_TEST_SONG),
+                "The render server does not stream songs or reject bad requests", file -> testServer(file));
+        totalTests++;
+
+        System.out.println("\n=== Test Summary ===");
+        System.out.println("Subsystem Tests Passed: " + passCount + "/" + totalTests);
     }
 
     /**
-     * Restores the original error output stream.
+     * Runs one subsystem test on one song.
+     *
+     * @param name    The name of the test
+     * @param song    The song file
+     * @param failure The message printed when the test fails
+     * @param test    The test
+     * @return 1 if the test passed, 0 otherwise
      */
-    private static void restoreErrors() {
-        System.setErr(originalErr);
+    private static int runTest(String name, File song, String failure, SongTest test) {
+        System.out.println("Test: " + name + " on " + song.getName());
+        boolean passed;
+        try {
+            passed = test.run(song);
+        } catch (Exception e) {
+            System.err.println("Error in test " + name + ": " + e.getMessage());
+            e.printStackTrace();
+            passed = false;
+        }
+        if (!passed) {
+            System.out.println(failure);
+        }
+        System.out.println("Result: " + (passed ? "PASS" : "FAIL"));
+        return passed ? 1 : 0;
+    }
+
+    /**
+     * Parses a test song that is known to be valid.
+     *
+     * @param file The song file
+     * @return The parsed song
+     * @throws IOException If the song does not parse
+     */
+    private static Score parse(File file) throws IOException {
+        final Score song = new SongParser(DISCARD).parseFile(file);
+        if (song == null) {
+            throw new IOException("Test song " + file + " does not parse");
+        }
+        return song;
     }
 
     /**
@@ -110,13 +258,12 @@ public class ConductorTest {
             final AudioFormat af = new AudioFormat(Note.SAMPLE_RATE, 8, 1, true, false);
             Conductor conductor = new Conductor(af);
 
-            List<BellNote> notes = conductor.parseNotes(filepath);
+            List<BellNote> notes = conductor.parseNotes(filepath, DISCARD);
 
             // A non-null 'notes' indicates the file was parsed successfully.
             boolean actualValid = (notes != null);
 
             System.out.println("Actual: " + (actualValid ? "Valid" : "Invalid"));
-
             return actualValid == expectedValid;
         } catch (Exception e) {
             System.err.println("Error testing file: " + e.getMessage());
@@ -124,4 +271,746 @@ public class ConductorTest {
             return false;
         }
     }
+
+    /**
+     * Parses a song line by line and with the mapped parser, in one chunk
+     * and in several, and checks that all of them report the same errors and
+     * give the same events and tempo regions.
+     *
+     * @param file The song file
+     * @return True if the parsers agree, false otherwise
+     * @throws IOException If the file cannot be read
+     */
+    private static boolean testParsers(File file) throws IOException {
+        final ByteArrayOutputStream expectedErrors = new ByteArrayOutputStream();
+        final Score expected;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            expected = new SongParser(new PrintStream(expectedErrors, true, StandardCharsets.UTF_8))
+                    .parseLines(reader);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        for (int chunks = 1; chunks <= 3; chunks += 2) {
+            final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            final Score actual = MappedSongParser.parse(buffer, Tempo.DEFAULT,
+                    new PrintStream(errors, true, StandardCharsets.UTF_8), chunks);
+            if (!errors.toString(StandardCharsets.UTF_8).equals(expectedErrors.toString(StandardCharsets.UTF_8))
+                    || (actual == null) != (expected == null)) {
+                return false;
+            }
+            if (expected != null && !sameScore(expected, actual)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that two scores hold the same events and tempo regions.
+     *
+     * @param expected The first score
+     * @param actual   The second score
+     * @return True if the scores are the same
+     */
+    private static boolean sameScore(Score expected, Score actual) {
+        if (actual.size() != expected.size() || actual.regionCount() != expected.regionCount()) {
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (actual.event(i) != expected.event(i)) {
+                return false;
+            }
+        }
+        for (int r = 0; r < expected.regionCount(); r++) {
+            if (actual.regionStart(r) != expected.regionStart(r)
+                    || !actual.regionTempo(r).equals(expected.regionTempo(r))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compiles a parsed song to a temporary file and checks that loading it
+     * back gives the same events and tempo regions, and no events past the
+     * end of the song.
+     *
+     * @param song The parsed song
+     * @return True if the compiled song matches, false otherwise
+     * @throws IOException If the temporary file cannot be written
+     */
+    private static boolean testCompiled(Score song) throws IOException {
+        final File compiled = File.createTempFile("ConductorTest", CompiledSong.EXTENSION);
+        try {
+            CompiledSong.write(song, compiled);
+            final MappedScore loaded = CompiledSong.load(compiled, DISCARD);
+            if (loaded == null || loaded.size() != song.size()) {
+                return false;
+            }
+            for (int i = 0; i < song.size(); i++) {
+                if (loaded.event(i) != song.event(i)) {
+                    return false;
+                }
+            }
+            try {
+                // Past the last event lie the measure index and the tempo map, not notes.
+                loaded.event(loaded.size());
+                return false;
+            } catch (IndexOutOfBoundsException e) {
+                // Expected, like PackedScore.
+            }
+            final MeasureIndex index = MeasureIndex.of(song);
+            if (loaded.measureCount() != index.measureCount()) {
+                return false;
+            }
+            for (int m = 0; m < index.measureCount(); m++) {
+                if (loaded.measureStart(m) != index.measureStart(m)) {
+                    return false;
+                }
+            }
+            // Seeking in the compiled song uses the index stored in its file.
+            if (!loaded.hasMeasureFrames()) {
+                return false;
+            }
+            final MeasureIndex mapped = MeasureIndex.of(loaded);
+            for (int m = index.measureCount() - 1; m >= 0; m--) {
+                if (mapped.measureStart(m) != index.measureStart(m)
+                        || mapped.measureFrame(m) != index.measureFrame(m)
+                        || mapped.stepAt(index.measureFrame(m)) != index.stepAt(index.measureFrame(m))) {
+                    return false;
+                }
+            }
+            if (mapped.totalFrames() != index.totalFrames() || !testSeek(loaded)) {
+                return false;
+            }
+            if (loaded.regionCount() != song.regionCount()) {
+                return false;
+            }
+            for (int r = 0; r < song.regionCount(); r++) {
+                if (loaded.regionStart(r) != song.regionStart(r)
+                        || !loaded.regionTempo(r).equals(song.regionTempo(r))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            compiled.delete();
+        }
+    }
+
+    /**
+     * Compiles a song, maps it, and compiles a shorter song over the same
+     * file again and again while another thread keeps reading the mapped
+     * score. The mapped score must keep reading the first song, and loading
+     * the file again must give the last song written.
+     *
+     * @param song The parsed song
+     * @return True if the mapped score is unaffected by the rewrites, false otherwise
+     * @throws IOException          If the temporary file cannot be written
+     * @throws InterruptedException If the test is interrupted while waiting for the reader
+     */
+    private static boolean testRewrite(Score song) throws IOException, InterruptedException {
+        final File compiled = File.createTempFile("ConductorTest", CompiledSong.EXTENSION);
+        try {
+            CompiledSong.write(song, compiled);
+            final MappedScore loaded = CompiledSong.load(compiled, DISCARD);
+            if (loaded == null) {
+                return false;
+            }
+            final PackedScore shorter = new PackedScore();
+            for (int i = 0; i < song.size() / 2; i++) {
+                shorter.append(song.event(i));
+            }
+            final AtomicBoolean stop = new AtomicBoolean();
+            final AtomicBoolean same = new AtomicBoolean(true);
+            final Thread reader = new Thread(() -> {
+                try {
+                    while (!stop.get() && same.get()) {
+                        for (int i = 0; i < song.size(); i++) {
+                            if (loaded.event(i) != song.event(i)) {
+                                same.set(false);
+                            }
+                        }
+                        Thread.yield();
+                    }
+                } catch (RuntimeException | InternalError e) {
+                    // A file truncated under its mapping faults on the next read.
+                    same.set(false);
+                }
+            }, "Mapped score reader");
+            reader.start();
+            for (int i = 0; i < 50; i++) {
+                CompiledSong.write(i % 2 == 0 ? shorter : song, compiled);
+            }
+            CompiledSong.write(shorter, compiled);
+            stop.set(true);
+            reader.join();
+            final MappedScore reloaded = CompiledSong.load(compiled, DISCARD);
+            return same.get() && reloaded != null && sameScore(shorter, reloaded);
+        } finally {
+            compiled.delete();
+        }
+    }
+
+    /**
+     * Checks that seeking to the start frame of every measure finds the
+     * first step of that measure, and that the frame of that step is the
+     * start frame of the measure.
+     *
+     * @param song The parsed song
+     * @return True if every measure is found again, false otherwise
+     */
+    private static boolean testSeek(Score song) {
+        final MeasureIndex index = MeasureIndex.of(song);
+        for (int m = 0; m < index.measureCount(); m++) {
+            final long frame = index.measureFrame(m);
+            if (index.stepAt(frame) != index.measureStart(m) || index.stepFrom(frame) != index.measureStart(m)
+                    || index.frameOf(index.measureStart(m)) != frame) {
+                return false;
+            }
+        }
+        return index.stepAt(index.totalFrames()) == song.size();
+    }
+
+    /**
+     * Mixes a song into a small sample ring while another thread reads it
+     * out in pieces of a different size, and checks that the samples read
+     * are exactly the ones rendered offline.
+     *
+     * @param song The parsed song
+     * @return True if the samples match, false otherwise
+     * @throws InterruptedException If the test is interrupted while waiting for the reader
+     */
+    private static boolean testLookahead(Score song) throws InterruptedException {
+        final byte[] expected = new Renderer(VoiceMixer.FORMAT, null).render(song);
+        final byte[] actual = new byte[expected.length];
+        final SampleRing ring = new SampleRing(RING_TEST_BYTES);
+        final long[] received = new long[1];
+        final Thread reader = new Thread(() -> {
+            final byte[] piece = new byte[777];
+            while (true) {
+                final int n = ring.read(piece, 0, piece.length);
+                if (n == 0) {
+                    if (!ring.awaitSamples(1_000_000) && ring.isClosed() && ring.size() == 0) {
+                        return;
+                    }
+                    continue;
+                }
+                // Samples past the expected length are only counted.
+                final int fits = (int) Math.max(0, Math.min(n, actual.length - received[0]));
+                System.arraycopy(piece, 0, actual, (int) Math.min(received[0], actual.length), fits);
+                received[0] += n;
+            }
+        }, "Ring reader");
+        reader.start();
+        final VoiceMixer mixer = new VoiceMixer();
+        for (int start = 0; start < song.size(); start = song.stepEnd(start)) {
+            final int end = song.stepEnd(start);
+            for (int i = start; i < end; i++) {
+                mixer.mix(song.note(i), song.tempoAt(start).samples(song.length(i)), Member.REST_SAMPLES);
+            }
+            mixer.padTo(FrameScheduler.stepFrames(song, start, end));
+            mixer.writeTo(ring);
+        }
+        ring.close();
+        reader.join();
+        return received[0] == expected.length && ring.size() == 0 && Arrays.equals(actual, expected);
+    }
+
+    /**
+     * Checks that the kernels in use give exactly the samples of the scalar
+     * kernels for every note of a song at its length and tempo. The note
+     * starts at an odd offset, so the scalar tail of the SIMD loops is used
+     * as well. The samples are then scaled and clipped with gains that round
+     * and clip, converted from floats with many exact ties, and added back
+     * as bytes.
+     *
+     * @param song The parsed song
+     * @return True if both kernels agree, false otherwise
+     */
+    private static boolean testKernels(Score song) {
+        final Kernels active = Kernels.get();
+        final Kernels scalar = Kernels.scalar();
+        final Set<String> tested = new HashSet<>();
+        for (int i = 0; i < song.size(); i++) {
+            final int count = song.tempoAt(i).samples(song.length(i));
+            if (!tested.add(song.note(i) + "/" + count)) {
+                continue;
+            }
+            final int[] expected = new int[count + 3];
+            final int[] actual = new int[count + 3];
+            song.note(i).addTo(expected, 3, count, i, scalar);
+            song.note(i).addTo(actual, 3, count, i, active);
+            if (!Arrays.equals(expected, actual)) {
+                return false;
+            }
+            final byte[] expectedBytes = new byte[expected.length];
+            final byte[] actualBytes = new byte[expected.length];
+            for (float gain : KERNEL_TEST_GAINS) {
+                if (scalar.clipToBytes(expected, expectedBytes, 1, count, gain)
+                        != active.clipToBytes(expected, actualBytes, 1, count, gain)
+                        || !Arrays.equals(expectedBytes, actualBytes)) {
+                    return false;
+                }
+            }
+            final float[] wave = new float[expected.length];
+            for (int j = 0; j < wave.length; j++) {
+                // Odd samples become ties once multiplied by the peak.
+                wave[j] = expected[j] / 254.0f;
+            }
+            scalar.toBytes(wave, expectedBytes, 2, count, Byte.MAX_VALUE);
+            active.toBytes(wave, actualBytes, 2, count, Byte.MAX_VALUE);
+            if (!Arrays.equals(expectedBytes, actualBytes)) {
+                return false;
+            }
+            scalar.addBytes(expectedBytes, 1, expected, 2, count);
+            active.addBytes(expectedBytes, 1, actual, 2, count);
+            if (!Arrays.equals(expected, actual)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the messages a choir would exchange for a song, checks that
+     * every PLAY takes its ten bytes, and reads them all back. A message cut
+     * short must fail to read.
+     *
+     * @param song The parsed song
+     * @return True if every message reads back as written, false otherwise
+     * @throws IOException If writing to memory fails
+     */
+    private static boolean testProtocol(Score song) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        ChoirProtocol.writeHello(out, "tenor");
+        ChoirProtocol.writeAssign(out, Note.values());
+        ChoirProtocol.writeSync(out, -1L);
+        ChoirProtocol.writeSyncReply(out, Long.MIN_VALUE, 0L, Long.MAX_VALUE);
+        ChoirProtocol.writeStart(out, 123_456_789L, 500);
+        final int header = out.size();
+        int frame = 0;
+        for (int i = 0; i < song.size(); i++) {
+            ChoirProtocol.writePlay(out, frame, song.note(i), song.tempoAt(i).samples(song.length(i)));
+            frame += i;
+        }
+        if (out.size() - header != song.size() * ChoirProtocol.PLAY_BYTES) {
+            return false;
+        }
+        ChoirProtocol.writeEnd(out, frame);
+        ChoirProtocol.writeDone(out, song.size(), 1, 2);
+        final byte[] written = bytes.toByteArray();
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(written));
+        final ChoirProtocol.Message hello = ChoirProtocol.read(in);
+        final ChoirProtocol.Message assign = ChoirProtocol.read(in);
+        final ChoirProtocol.Message sync = ChoirProtocol.read(in);
+        final ChoirProtocol.Message reply = ChoirProtocol.read(in);
+        final ChoirProtocol.Message start = ChoirProtocol.read(in);
+        if (!"tenor".equals(hello.name) || !Arrays.equals(assign.bells, Note.values()) || sync.sent != -1L
+                || reply.sent != Long.MIN_VALUE || reply.received != 0L || reply.replied != Long.MAX_VALUE
+                || start.type != ChoirProtocol.START || start.sent != 123_456_789L || start.aheadMs != 500) {
+            return false;
+        }
+        frame = 0;
+        for (int i = 0; i < song.size(); i++) {
+            final ChoirProtocol.Message play = ChoirProtocol.read(in);
+            if (play.type != ChoirProtocol.PLAY || play.frame != frame || play.note != song.note(i)
+                    || play.samples != song.tempoAt(i).samples(song.length(i))) {
+                return false;
+            }
+            frame += i;
+        }
+        final ChoirProtocol.Message end = ChoirProtocol.read(in);
+        final ChoirProtocol.Message done = ChoirProtocol.read(in);
+        if (end.frame != frame || done.played != song.size() || done.late != 1 || done.underruns != 2
+                || in.read() != -1) {
+            return false;
+        }
+        try {
+            // Everything but the last byte of the DONE, a type and three ints.
+            final int doneBytes = 1 + 3 * Integer.BYTES;
+            ChoirProtocol.read(new DataInputStream(
+                    new ByteArrayInputStream(written, written.length - doneBytes, doneBytes - 1)));
+            return false;
+        } catch (EOFException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Conducts a song on two members over loopback sockets, each serving in
+     * its own thread, and checks that their clocks are measured within the
+     * round trip of the samples, as both read the same clock. Once a member
+     * has notes waiting, its socket is closed: every bell it rang and every
+     * note it still had to play must move to the member left.
+     *
+     * @param song The parsed song
+     * @return True if the dropped member's bells and notes moved, false otherwise
+     * @throws IOException          If the choir cannot listen or a member cannot connect
+     * @throws InterruptedException If the test is interrupted while waiting for the threads
+     */
+    private static boolean testChoir(Score song) throws IOException, InterruptedException {
+        boolean bells = false;
+        for (int i = 0; i < song.size(); i++) {
+            bells |= song.note(i) != Note.REST;
+        }
+        if (!bells) {
+            return true;
+        }
+        final List<Socket> sockets = new ArrayList<>();
+        final List<Thread> members = new ArrayList<>();
+        Thread player = null;
+        final RemoteChoir choir = new RemoteChoir(InetAddress.getLoopbackAddress(), 0, CHOIR_TEST_AHEAD_MS);
+        try {
+            for (int i = 0; i < 2; i++) {
+                final Socket socket = RemoteMember.connect(choir.localHost(), choir.port());
+                if (socket == null) {
+                    return false;
+                }
+                sockets.add(socket);
+                final RemoteMember member = new RemoteMember("member-" + i, socket,
+                        LineBuffer.fromProperties(VoiceMixer.FORMAT));
+                members.add(Thread.ofPlatform().name("member-" + i).start(member::serve));
+            }
+            if (choir.gather(2) != 2) {
+                return false;
+            }
+            for (String name : choir.members()) {
+                if (choir.roundTrip(name) == Long.MAX_VALUE
+                        || Math.abs(choir.clockOffset(name)) > choir.roundTrip(name)) {
+                    return false;
+                }
+            }
+            player = Thread.ofPlatform().name("Choir player").start(() -> choir.play(song));
+            final String[] victim = new String[1];
+            if (!await(() -> {
+                for (String name : choir.members()) {
+                    if (!choir.pending(name).isEmpty()) {
+                        victim[0] = name;
+                        return true;
+                    }
+                }
+                return false;
+            })) {
+                return false;
+            }
+            final List<String> names = choir.members();
+            final String survivor = names.get(1 - names.indexOf(victim[0]));
+            final List<Note> moved = choir.bells(victim[0]);
+            final List<int[]> pending = choir.pending(victim[0]);
+            sockets.get(Integer.parseInt(victim[0].substring("member-".length()))).close();
+            if (!await(() -> choir.members().equals(List.of(survivor)))) {
+                return false;
+            }
+            return choir.bells(survivor).containsAll(moved) && choir.pending(survivor).containsAll(pending);
+        } finally {
+            choir.close();
+            if (player != null) {
+                player.join();
+            }
+            for (Thread member : members) {
+                member.join();
+            }
+        }
+    }
+
+    /**
+     * Waits for a condition to hold, checking it every millisecond.
+     *
+     * @param condition The condition
+     * @return True if the condition held within CHOIR_TEST_WAIT_MS, false otherwise
+     */
+    private static boolean await(BooleanSupplier condition) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CHOIR_TEST_WAIT_MS);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    /**
+     * Checks that the WAV file the Renderer streams to disk and the WAV
+     * stream the render server sends are both byte for byte the WAV file
+     * the Java Sound API writes for the rendered samples, and that the
+     * header is flushed on its own before any sample is rendered.
+     *
+     * @param song The parsed song
+     * @return True if the file and the stream match, false otherwise
+     * @throws IOException If a file cannot be written or read
+     */
+    private static boolean testWav(Score song) throws IOException {
+        final Renderer renderer = new Renderer(VoiceMixer.FORMAT);
+        final File expected = File.createTempFile("expected", ".wav");
+        final File file = File.createTempFile("stream", ".wav");
+        try {
+            final byte[] samples = renderer.render(song);
+            try (AudioInputStream ais = new AudioInputStream(new ByteArrayInputStream(samples), VoiceMixer.FORMAT,
+                    samples.length / VoiceMixer.FORMAT.getFrameSize())) {
+                AudioSystem.write(ais, AudioFileFormat.Type.WAVE, expected);
+            }
+            renderer.renderToFile(song, file);
+            final byte[] wav = Files.readAllBytes(expected.toPath());
+            if (!Arrays.equals(wav, Files.readAllBytes(file.toPath()))) {
+                return false;
+            }
+            final int[] flushedAt = {-1};
+            final ByteArrayOutputStream streamed = new ByteArrayOutputStream() {
+                @Override
+                public void flush() {
+                    if (flushedAt[0] < 0) {
+                        flushedAt[0] = size();
+                    }
+                }
+            };
+            renderer.renderWav(song, streamed);
+            return flushedAt[0] == Renderer.WAV_HEADER_BYTES && Arrays.equals(wav, streamed.toByteArray());
+        } finally {
+            expected.delete();
+            file.delete();
+        }
+    }
+
+    /**
+     * Starts a render server on a free port and fetches a song from it, once
+     * posted as text to /render and once by name from /songs/. Each response
+     * must be chunked, and its body must be the WAV the Renderer streams.
+     * Rendering is held back until the response headers and the WAV header
+     * have arrived, so they are known to be sent before the song is
+     * rendered. The server must also answer unknown songs with 404, the
+     * wrong method with 405 and a song that is too large with 413.
+     *
+     * @param file The song file, in the directory the server serves
+     * @return True if the server streams the song and rejects the bad requests, false otherwise
+     * @throws IOException          If the server cannot be started or a request fails
+     * @throws InterruptedException If the test is interrupted while waiting for a render
+     */
+    private static boolean testServer(File file) throws IOException, InterruptedException {
+        final Score song = parse(file);
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new Renderer(VoiceMixer.FORMAT).renderWav(song, expected);
+        final Semaphore gate = new Semaphore(0);
+        final Renderer held = new Renderer(VoiceMixer.FORMAT) {
+            @Override
+            public void render(Score score, OutputStream out) throws IOException {
+                try {
+                    if (!gate.tryAcquire(SERVER_TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        throw new IOException("Rendering was never let through");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+                super.render(score, out);
+            }
+        };
+        final RenderServer server = new RenderServer(0, 2, held, null, Tempo.DEFAULT);
+        server.start();
+        try {
+            final String base = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.port();
+            final String name = URLEncoder.encode(file.getName(), StandardCharsets.UTF_8).replace("+", "%20");
+            final HttpURLConnection[] streams = {
+                request(base + "/render", "POST", Files.readAllBytes(file.toPath())),
+                request(base + "/songs/" + name, "GET", null),
+            };
+            for (HttpURLConnection connection : streams) {
+                // The headers and the WAV header must arrive while the samples are held back.
+                if (connection.getResponseCode() != 200
+                        || !"chunked".equalsIgnoreCase(connection.getHeaderField("Transfer-Encoding"))) {
+                    return false;
+                }
+                try (InputStream in = connection.getInputStream()) {
+                    final byte[] header = in.readNBytes(Renderer.WAV_HEADER_BYTES);
+                    gate.release();
+                    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                    body.write(header);
+                    in.transferTo(body);
+                    if (!Arrays.equals(expected.toByteArray(), body.toByteArray())) {
+                        return false;
+                    }
+                }
+            }
+            return request(base + "/songs/NoSuchSong", "GET", null).getResponseCode() == 404
+                    && request(base + "/songs/..%2Fbuild.xml", "GET", null).getResponseCode() == 404
+                    && request(base + "/render", "GET", null).getResponseCode() == 405
+                    && request(base + "/songs/" + name, "POST", new byte[0]).getResponseCode() == 405
+                    && request(base + "/render", "POST", new byte[RenderServer.MAX_SONG_BYTES + 1])
+                            .getResponseCode() == 413;
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Sends a request to the render server under test.
+     *
+     * @param address The address of the request
+     * @param method  The HTTP method
+     * @param body    The body to send, or null for none
+     * @return The connection, with the request sent
+     * @throws IOException If the request cannot be sent
+     */
+    private static HttpURLConnection request(String address, String method, byte[] body) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) URI.create(address).toURL().openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(SERVER_TEST_TIMEOUT_MS);
+        connection.setReadTimeout(SERVER_TEST_TIMEOUT_MS);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Renders a song through a segment cache in a scratch directory, then
+     * again from a cache reopened on the same directory, and then with its
+     * last note changed. The samples must always match a render without the
+     * cache, the second render must not mix anything and the edited song
+     * must only mix its last segment again.
+     *
+     * @param song The parsed song
+     * @return True if the cache renders the same samples and reuses its segments, false otherwise
+     * @throws IOException If the scratch directory cannot be used
+     */
+    private static boolean testSegments(Score song) throws IOException {
+        if (song.isEmpty()) {
+            return true;
+        }
+        final Path dir = Files.createTempDirectory("segments");
+        try {
+            final byte[] expected = new Renderer(VoiceMixer.FORMAT).render(song);
+            final SegmentCache first = new SegmentCache(dir, SEGMENT_TEST_BYTES);
+            if (!Arrays.equals(expected, new Renderer(VoiceMixer.FORMAT, null, first).render(song))) {
+                return false;
+            }
+            final SegmentCache reopened = new SegmentCache(dir, SEGMENT_TEST_BYTES);
+            if (!Arrays.equals(expected, new Renderer(VoiceMixer.FORMAT, null, reopened).render(song))
+                    || reopened.misses() != 0 || reopened.hits() != first.misses()) {
+                return false;
+            }
+            final PackedScore edited = new PackedScore();
+            for (int i = 0; i < song.size() - 1; i++) {
+                edited.append(song.event(i));
+            }
+            final int last = song.event(song.size() - 1);
+            final Note[] notes = Note.values();
+            edited.append(Score.encode(notes[(Score.noteOf(last).ordinal() + 1) % notes.length],
+                    Score.lengthOf(last), Score.isChordEvent(last)));
+            for (int r = 0; r < song.regionCount(); r++) {
+                edited.setTempo(song.regionStart(r), song.regionTempo(r));
+            }
+            final long hits = reopened.hits();
+            return Arrays.equals(new Renderer(VoiceMixer.FORMAT).render(edited),
+                    new Renderer(VoiceMixer.FORMAT, null, reopened).render(edited))
+                    && reopened.misses() == 1 && reopened.hits() - hits == first.misses() - 1;
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Prewarms a tone cache with a song from two threads at once, then looks
+     * up every note of the song. Each distinct tone must be rendered exactly
+     * once, every lookup afterwards must hit, and the cached tones must match
+     * tones rendered on their own.
+     *
+     * @param song The parsed song
+     * @return True if the tones are rendered once and match, false otherwise
+     * @throws InterruptedException If the test is interrupted while waiting for the other thread
+     */
+    private static boolean testTones(Score song) throws InterruptedException {
+        final ToneCache tones = new ToneCache(Long.MAX_VALUE);
+        final Thread other = new Thread(() -> tones.prewarm(song, 0, song.size(), VoiceMixer.FORMAT));
+        other.start();
+        tones.prewarm(song, 0, song.size(), VoiceMixer.FORMAT);
+        other.join();
+        final Set<String> distinct = new HashSet<>();
+        for (int i = 0; i < song.size(); i++) {
+            distinct.add(song.note(i) + " " + song.tempoAt(i).samples(song.length(i)));
+        }
+        final long misses = tones.misses();
+        for (int i = 0; i < song.size(); i++) {
+            final int frames = song.tempoAt(i).samples(song.length(i));
+            if (!Arrays.equals(tones.tone(song.note(i), frames, VoiceMixer.FORMAT),
+                    ToneCache.render(song.note(i), frames, VoiceMixer.FORMAT))) {
+                return false;
+            }
+        }
+        return misses == distinct.size() && tones.misses() == misses;
+    }
+
+    /**
+     * Fills a tone cache with room for three tones with four notes, all of
+     * the same length, taken from the song and from the other notes when the
+     * song has fewer than four. Checks that the least recently used
+     * tone is evicted each time the budget is passed, that the cache always
+     * counts the bytes of the tones it still holds, and that a tone larger
+     * than the whole budget is rendered without being cached.
+     *
+     * @param song The parsed song
+     * @return True if the right tones are evicted and the bytes add up, false otherwise
+     */
+    private static boolean testToneEviction(Score song) {
+        final List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < song.size() && notes.size() < 4; i++) {
+            if (song.note(i) != Note.REST && !notes.contains(song.note(i))) {
+                notes.add(song.note(i));
+            }
+        }
+        for (Note note : Note.values()) {
+            if (note != Note.REST && notes.size() < 4 && !notes.contains(note)) {
+                notes.add(note);
+            }
+        }
+        final Note a = notes.get(0);
+        final Note b = notes.get(1);
+        final Note c = notes.get(2);
+        final Note d = notes.get(3);
+        final long toneBytes = ToneCache.render(a, TONE_TEST_FRAMES, VoiceMixer.FORMAT).length;
+        final ToneCache tones = new ToneCache(3 * toneBytes);
+        tones.tone(a, TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        tones.tone(b, TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        tones.tone(c, TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        if (tones.bytes() != 3 * toneBytes || tones.evictions() != 0) {
+            return false;
+        }
+        // Using a again leaves b the least recently used, so d evicts it.
+        tones.tone(a, TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        tones.tone(d, TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        if (tones.bytes() != 3 * toneBytes || tones.evictions() != 1 || tones.hits() != 1 || tones.misses() != 4) {
+            return false;
+        }
+        tones.tone(c, TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        tones.tone(a, TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        tones.tone(d, TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        if (tones.hits() != 4 || tones.misses() != 4) {
+            return false;
+        }
+        // b is rendered again and evicts c, then c evicts a.
+        tones.tone(b, TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        tones.tone(c, TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        tones.tone(d, TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        if (tones.bytes() != 3 * toneBytes || tones.evictions() != 3 || tones.hits() != 5 || tones.misses() != 6) {
+            return false;
+        }
+        tones.tone(a, TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        if (tones.evictions() != 4 || tones.misses() != 7) {
+            return false;
+        }
+        final byte[] large = tones.tone(a, 4 * TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        tones.tone(a, 4 * TONE_TEST_FRAMES, VoiceMixer.FORMAT);
+        return Arrays.equals(large, ToneCache.render(a, 4 * TONE_TEST_FRAMES, VoiceMixer.FORMAT))
+                && tones.bytes() == 3 * toneBytes && tones.evictions() == 4 && tones.misses() == 9;
+    }
 }
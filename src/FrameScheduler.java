@@ -0,0 +1,242 @@
+import enums.Note;
+
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Schedules the steps of a song on the audio frame clock.
+ * Every step starts at a frame position worked out from the lengths of the
+ * notes before it. The staccato pause is written as silence frames rather
+ * than slept, so the timing of a song does not depend on the OS scheduler and
+ * no error builds up over long songs. The position of the line is checked
+ * before each step to notice when the conductor fell behind the audio device,
+ * and its fill level is checked while writing to count underruns. With a
+ * LineWriter the steps are mixed into its ring ahead of the line instead of
+ * being written to the line by the conductor.
+ */
+public class FrameScheduler {
+
+    /** The line the steps are written to */
+    private final SourceDataLine line;
+
+    /** Frame position at which the next step starts */
+    private long nextFrame = 0;
+
+    /** Number of steps written so far */
+    private int steps = 0;
+
+    /** Number of steps that started after the line had already played everything */
+    private int lateSteps = 0;
+
+    /** Largest number of frames by which the line was ahead of the schedule */
+    private long maxLateFrames = 0;
+
+    /** Time at which frame 0 should play, set when the first step is scheduled */
+    private long startNanos = 0;
+
+    /** Distribution of how late steps were written after the line ran dry */
+    private final LatencyHistogram lateness = new LatencyHistogram();
+
+    /** Watches the fill level of the line, or null if it is not watched */
+    private final LineBuffer buffer;
+
+    /** Writes the mixed steps to the line on its own thread, or null to write them directly */
+    private final LineWriter writer;
+
+    /**
+     * Constructs a scheduler writing to the given line.
+     *
+     * @param line The line the steps are written to
+     */
+    public FrameScheduler(SourceDataLine line) {
+        this(line, null);
+    }
+
+    /**
+     * Constructs a scheduler writing to the given line, checking its fill
+     * level as every step is written.
+     *
+     * @param line   The line the steps are written to
+     * @param buffer The buffer sizer the line was opened with, or null
+     */
+    public FrameScheduler(SourceDataLine line, LineBuffer buffer) {
+        this(line, buffer, null);
+    }
+
+    /**
+     * Constructs a scheduler mixing the steps into the ring of a line
+     * writer, which writes them to the line on its own thread.
+     *
+     * @param line   The line the steps are played on
+     * @param buffer The buffer sizer the line was opened with, or null
+     * @param writer The started writer of the line, or null to write each step to the line directly
+     */
+    public FrameScheduler(SourceDataLine line, LineBuffer buffer, LineWriter writer) {
+        this.line = line;
+        this.buffer = buffer;
+        this.writer = writer;
+    }
+
+    /**
+     * Calculates the number of silent frames in the staccato pause between
+     * steps.
+     *
+     * @return The number of frames in the staccato pause
+     */
+    static int staccatoFrames() {
+        return Note.SAMPLE_RATE * Conductor.STACCATO_PAUSE / 1000;
+    }
+
+    /**
+     * Calculates the number of frames a step spans: its longest note at the
+     * tempo of the step, the rest a Member adds after each note and the
+     * staccato pause.
+     *
+     * @param score The score holding the step
+     * @param start The position of the first note of the step
+     * @param end   The position after the last note of the step
+     * @return The number of frames from the start of this step to the next
+     */
+    static int stepFrames(Score score, int start, int end) {
+        final Tempo tempo = score.tempoAt(start);
+        int frames = 0;
+        for (int i = start; i < end; i++) {
+            frames = Math.max(frames, tempo.samples(score.length(i)) + Member.REST_SAMPLES);
+        }
+        return frames + staccatoFrames();
+    }
+
+    /**
+     * Gets the frame position at which the next step starts.
+     *
+     * @return The start frame of the next step
+     */
+    public long nextFrame() {
+        return nextFrame;
+    }
+
+    /**
+     * Gets the time at which a frame should play. The clock starts when the
+     * first step is scheduled.
+     *
+     * @param frame The frame position
+     * @return The expected System.nanoTime of the frame
+     */
+    public long expectedNanos(long frame) {
+        if (startNanos == 0) {
+            startNanos = System.nanoTime();
+        }
+        return startNanos + frame * 1_000_000_000L / Note.SAMPLE_RATE;
+    }
+
+    /**
+     * Gets the frame the line is currently playing.
+     *
+     * @return The frame position of the line
+     */
+    public long observedFrame() {
+        return line.getLongFramePosition();
+    }
+
+    /**
+     * Gets the distribution of how late steps were written. A step written
+     * before the line ran out of frames counts as 0.
+     *
+     * @return The lateness histogram
+     */
+    public LatencyHistogram lateness() {
+        return lateness;
+    }
+
+    /**
+     * Gets the number of steps written so far.
+     *
+     * @return The number of steps written
+     */
+    public int steps() {
+        return steps;
+    }
+
+    /**
+     * Writes a mixed step to the line, or to the ring of the line writer,
+     * padded with silence up to the start frame of the following step. A
+     * full ring holds the caller back until the line has played some of it.
+     *
+     * @param mixer The mixer holding the notes of the step
+     * @param score The score holding the step
+     * @param start The position of the first note of the step
+     * @param end   The position after the last note of the step
+     */
+    public void write(VoiceMixer mixer, Score score, int start, int end) {
+        final NoteEvents.SamplesWritten event = new NoteEvents.SamplesWritten();
+        event.begin();
+        if (startNanos == 0) {
+            startNanos = System.nanoTime();
+        }
+        final int underruns = buffer == null ? 0 : buffer.underruns();
+        final long observed = line.getLongFramePosition();
+        final long late = observed - nextFrame;
+        if (steps > 0) {
+            // The line has played everything written so far, so this step is late.
+            if (late >= 0) {
+                lateSteps++;
+                maxLateFrames = Math.max(maxLateFrames, late);
+            }
+            lateness.record(late * 1_000_000_000L / Note.SAMPLE_RATE);
+        }
+        final int frames = stepFrames(score, start, end);
+        mixer.padTo(frames);
+        if (writer != null) {
+            mixer.writeTo(writer.ring());
+        } else {
+            mixer.writeTo(line, buffer);
+        }
+        if (event.isEnabled()) {
+            event.step = steps;
+            event.frames = frames;
+            event.expectedFrame = nextFrame;
+            event.observedFrame = observed;
+            event.expectedNanos = expectedNanos(nextFrame);
+            event.observedNanos = System.nanoTime();
+            event.late = steps > 0 && late >= 0;
+            event.underrun = buffer != null && buffer.underruns() > underruns;
+        }
+        event.commit();
+        nextFrame += frames;
+        steps++;
+    }
+
+    /**
+     * Waits until the line writer has emptied its ring, if there is one, and
+     * the line has played every frame written.
+     */
+    public void drain() {
+        final NoteEvents.LineDrained event = new NoteEvents.LineDrained();
+        event.begin();
+        if (writer != null) {
+            writer.finish();
+        }
+        line.drain();
+        if (event.isEnabled()) {
+            event.expectedFrame = nextFrame;
+            event.observedFrame = line.getLongFramePosition();
+            event.expectedNanos = expectedNanos(nextFrame);
+            event.observedNanos = System.nanoTime();
+        }
+        event.commit();
+    }
+
+    /**
+     * Summarises how closely playback followed the schedule. Should be called
+     * after the line has been drained.
+     *
+     * @return A human readable summary
+     */
+    public String summary() {
+        final long nominalMs = nextFrame * 1000 / Note.SAMPLE_RATE;
+        final long elapsedMs = startNanos == 0 ? 0 : (System.nanoTime() - startNanos) / 1_000_000;
+        return "Scheduled " + nextFrame + " frames (" + nominalMs + " ms), line at "
+                + line.getLongFramePosition() + " frames, played in " + elapsedMs + " ms (drift "
+                + (elapsedMs - nominalMs) + " ms), late steps " + lateSteps + " (max "
+                + maxLateFrames * 1000 / Note.SAMPLE_RATE + " ms)";
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Passes the cue for a note from the Conductor to a Member and the
+ * acknowledgement that the note was played back again.
+ * Exactly one Conductor thread signals and exactly one Member thread waits,
+ * so implementations only need to handle a single producer and consumer.
+ */
+public abstract class Handoff {
+
+    /**
+     * The available handoff implementations.
+     */
+    public enum Mode {
+        /** The original synchronized wait/notify handshake */
+        MONITOR,
+        /** Park/unpark on an atomic state without taking any monitor */
+        LOCKFREE;
+
+        /**
+         * Finds the mode with the given name, ignoring case.
+         *
+         * @param name The name of the mode
+         * @return The matching mode
+         * @throws IllegalArgumentException If no mode has the given name
+         */
+        public static Mode fromName(String name) {
+            return valueOf(name.strip().toUpperCase());
+        }
+    }
+
+    /** Statistics shared by all handoffs of one Conductor */
+    private final HandoffStats stats;
+
+    /** Time at which the current note was signalled */
+    private volatile long signalNanos;
+
+    /**
+     * Constructs a Handoff that records its timings into the given statistics.
+     *
+     * @param stats The statistics to record into
+     */
+    protected Handoff(HandoffStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Creates a handoff of the requested mode.
+     *
+     * @param mode  The implementation to use
+     * @param stats The statistics to record into
+     * @return A new Handoff
+     */
+    public static Handoff create(Mode mode, HandoffStats stats) {
+        if (mode == Mode.MONITOR) {
+            return new MonitorHandoff(stats);
+        }
+        return new ParkingHandoff(stats);
+    }
+
+    /**
+     * Called by the Conductor to signal that the next note should be played.
+     */
+    public final void signal() {
+        signalNanos = System.nanoTime();
+        doSignal();
+    }
+
+    /**
+     * Gets the time at which the current note was signalled.
+     *
+     * @return The System.nanoTime of the last signal
+     */
+    public final long signalNanos() {
+        return signalNanos;
+    }
+
+    /**
+     * Called by the Member to wait for the next note.
+     *
+     * @return True if a note was signalled, false if the handoff was stopped
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    public final boolean awaitSignal() throws InterruptedException {
+        if (!doAwaitSignal()) {
+            return false;
+        }
+        stats.recordWake(System.nanoTime() - signalNanos);
+        return true;
+    }
+
+    /**
+     * Called by the Member once the signalled note has been played.
+     */
+    public abstract void complete();
+
+    /**
+     * Called by the Conductor to wait until the Member has played the note.
+     *
+     * @return True if the note was played, false if the handoff was stopped
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    public final boolean awaitCompletion() throws InterruptedException {
+        if (!doAwaitCompletion()) {
+            return false;
+        }
+        stats.recordRoundTrip(System.nanoTime() - signalNanos);
+        return true;
+    }
+
+    /**
+     * Stops the handoff and wakes up any thread waiting on it.
+     */
+    public abstract void stop();
+
+    /**
+     * Checks if this handoff has been stopped.
+     *
+     * @return True if the handoff was stopped
+     */
+    public abstract boolean isStopped();
+
+    /**
+     * Marks a note as ready and wakes up the Member.
+     */
+    protected abstract void doSignal();
+
+    /**
+     * Blocks until a note is ready or the handoff is stopped.
+     *
+     * @return True if a note is ready, false if the handoff was stopped
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    protected abstract boolean doAwaitSignal() throws InterruptedException;
+
+    /**
+     * Blocks until the note has been played or the handoff is stopped.
+     *
+     * @return True if the note was played, false if the handoff was stopped
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    protected abstract boolean doAwaitCompletion() throws InterruptedException;
+}
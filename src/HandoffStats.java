@@ -0,0 +1,108 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the cost of the handoffs between the Conductor and its Members.
+ * Records how long a Member takes to wake up after a note is signalled and
+ * the full round trip until the Conductor sees the note completed.
+ */
+public class HandoffStats {
+
+    /** Number of Member wake-ups recorded */
+    private final LongAdder wakes = new LongAdder();
+
+    /** Total time between signal and Member wake-up in nanoseconds */
+    private final LongAdder wakeNanos = new LongAdder();
+
+    /** Longest time between signal and Member wake-up in nanoseconds */
+    private final AtomicLong maxWakeNanos = new AtomicLong();
+
+    /** Number of round trips recorded */
+    private final LongAdder roundTrips = new LongAdder();
+
+    /** Total round trip time in nanoseconds */
+    private final LongAdder roundTripNanos = new LongAdder();
+
+    /** Longest round trip in nanoseconds */
+    private final AtomicLong maxRoundTripNanos = new AtomicLong();
+
+    /** Distribution of the wake-up latencies */
+    private final LatencyHistogram wakeHistogram = new LatencyHistogram();
+
+    /** Distribution of the round trip times */
+    private final LatencyHistogram roundTripHistogram = new LatencyHistogram();
+
+    /**
+     * Records the time a Member needed to wake up after being signalled.
+     *
+     * @param nanos The wake-up latency in nanoseconds
+     */
+    public void recordWake(long nanos) {
+        wakes.increment();
+        wakeNanos.add(nanos);
+        maxWakeNanos.accumulateAndGet(nanos, Math::max);
+        wakeHistogram.record(nanos);
+    }
+
+    /**
+     * Records the time from signalling a note until the Conductor saw it played.
+     *
+     * @param nanos The round trip time in nanoseconds
+     */
+    public void recordRoundTrip(long nanos) {
+        roundTrips.increment();
+        roundTripNanos.add(nanos);
+        maxRoundTripNanos.accumulateAndGet(nanos, Math::max);
+        roundTripHistogram.record(nanos);
+    }
+
+    /**
+     * Gets the distribution of the wake-up latencies.
+     *
+     * @return The wake-up latency histogram
+     */
+    public LatencyHistogram wakeHistogram() {
+        return wakeHistogram;
+    }
+
+    /**
+     * Gets the distribution of the round trip times.
+     *
+     * @return The round trip histogram
+     */
+    public LatencyHistogram roundTripHistogram() {
+        return roundTripHistogram;
+    }
+
+    /**
+     * Gets the mean wake-up latency.
+     *
+     * @return The mean wake-up latency in nanoseconds, or 0 if none recorded
+     */
+    public long meanWakeNanos() {
+        final long count = wakes.sum();
+        return count == 0 ? 0 : wakeNanos.sum() / count;
+    }
+
+    /**
+     * Gets the mean round trip time.
+     *
+     * @return The mean round trip time in nanoseconds, or 0 if none recorded
+     */
+    public long meanRoundTripNanos() {
+        final long count = roundTrips.sum();
+        return count == 0 ? 0 : roundTripNanos.sum() / count;
+    }
+
+    /**
+     * Summarises the recorded handoffs in microseconds.
+     *
+     * @return A human readable summary
+     */
+    @Override
+    public String toString() {
+        return wakes.sum() + " notes, wake mean " + meanWakeNanos() / 1000 + " us / max "
+                + maxWakeNanos.get() / 1000 + " us, round trip mean " + meanRoundTripNanos() / 1000
+                + " us / max " + maxRoundTripNanos.get() / 1000 + " us";
+    }
+}
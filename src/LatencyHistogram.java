@@ -0,0 +1,137 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds with buckets of bounded relative
+ * error, in the style of HdrHistogram. Values below 64 ns get a bucket each;
+ * above that every power of two is split into 32 buckets, so any recorded
+ * value is reported within about 3% while the whole range of a long fits in
+ * under 2000 counters. Recording is lock-free and never allocates, so it
+ * can be done on the playback path.
+ */
+public class LatencyHistogram {
+
+    /** Number of sub-buckets each power of two is split into, as a power of two */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** Number of sub-buckets each power of two is split into */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Values below this get a bucket of their own */
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+
+    /** Total number of buckets, enough for any positive long */
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    /** Percentiles shown in the summary */
+    private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9 };
+
+    /** Count of recorded values in each bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** Number of recorded values */
+    private final LongAdder total = new LongAdder();
+
+    /** Largest recorded value */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency. Negative values are recorded as 0.
+     *
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        total.increment();
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return The number of values
+     */
+    public long count() {
+        return total.sum();
+    }
+
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return The largest value in nanoseconds, or 0 if nothing was recorded
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Gets the value below which the given percentage of recorded values fall.
+     * The upper bound of the matching bucket is returned, never more than
+     * the largest recorded value.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The value at the percentile in nanoseconds, or 0 if nothing was recorded
+     */
+    public long valueAt(double percentile) {
+        final long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), max());
+            }
+        }
+        return max();
+    }
+
+    /**
+     * Summarises the recorded values in microseconds.
+     *
+     * @return A human readable summary
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder().append(count()).append(" values");
+        for (double p : PERCENTILES) {
+            sb.append(", p").append(p == Math.floor(p) ? String.valueOf((long) p) : String.valueOf(p))
+                    .append(' ').append(valueAt(p) / 1000).append(" us");
+        }
+        return sb.append(", max ").append(max() / 1000).append(" us").toString();
+    }
+
+    /**
+     * Finds the bucket a value is counted in.
+     *
+     * @param value The value, not negative
+     * @return The index of the bucket
+     */
+    private static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        // Keep the SUB_BUCKET_BITS bits below the highest set bit.
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Finds the largest value counted in a bucket.
+     *
+     * @param bucket The index of the bucket
+     * @return The largest value of the bucket
+     */
+    private static long highestValueOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        final int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        final long sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
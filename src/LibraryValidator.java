@@ -0,0 +1,398 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Validates every song of a library in parallel and writes a report.
+ * Each song is parsed on a worker thread with its own error stream, so the
+ * errors of different files never mix and System.err is left alone. The
+ * report lists, for every file, whether it is valid, its errors with their
+ * line numbers and how long it took to parse, as JSON or CSV.
+ */
+public class LibraryValidator {
+
+    /** Matches the line number at the start of a parse error */
+    private static final Pattern LINE_ERROR = Pattern.compile("^Line (\\d+): (.*)$");
+
+    /** Number of worker threads songs are parsed on */
+    private final int threads;
+
+    /**
+     * An error found in a song file.
+     */
+    public static final class SongError {
+        /** The line of the error, or 0 if it concerns the whole file */
+        private final int line;
+
+        /** The description of the error */
+        private final String message;
+
+        /**
+         * Constructs an error.
+         *
+         * @param line    The line of the error, or 0 if it concerns the whole file
+         * @param message The description of the error
+         */
+        SongError(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        /**
+         * Gets the line of the error.
+         *
+         * @return The line number, or 0 if the error concerns the whole file
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * Gets the description of the error.
+         *
+         * @return The error message
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * The outcome of validating one song file.
+     */
+    public static final class FileReport {
+        /** The song file */
+        private final File file;
+
+        /** Number of notes in the song, or -1 if it is invalid */
+        private final int notes;
+
+        /** Time taken to parse the song in nanoseconds */
+        private final long parseNanos;
+
+        /** Errors found in the song, in the order they were reported */
+        private final List<SongError> errors;
+
+        /**
+         * Constructs the report of one file.
+         *
+         * @param file       The song file
+         * @param notes      Number of notes in the song, or -1 if it is invalid
+         * @param parseNanos Time taken to parse the song in nanoseconds
+         * @param errors     Errors found in the song
+         */
+        FileReport(File file, int notes, long parseNanos, List<SongError> errors) {
+            this.file = file;
+            this.notes = notes;
+            this.parseNanos = parseNanos;
+            this.errors = errors;
+        }
+
+        /**
+         * Gets the song file.
+         *
+         * @return The song file
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Checks if the song can be played.
+         *
+         * @return True if the song parsed without errors
+         */
+        public boolean isValid() {
+            return notes >= 0;
+        }
+
+        /**
+         * Gets the number of notes in the song.
+         *
+         * @return The number of notes, or -1 if the song is invalid
+         */
+        public int getNotes() {
+            return notes;
+        }
+
+        /**
+         * Gets the time taken to parse the song.
+         *
+         * @return The parse time in nanoseconds
+         */
+        public long getParseNanos() {
+            return parseNanos;
+        }
+
+        /**
+         * Gets the errors found in the song.
+         *
+         * @return The errors, empty if the song is valid
+         */
+        public List<SongError> getErrors() {
+            return errors;
+        }
+    }
+
+    /**
+     * Constructs a validator parsing songs on the given number of threads.
+     *
+     * @param threads The number of worker threads
+     */
+    public LibraryValidator(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Finds every text and compiled song below a directory, or the file
+     * itself if a single song is given.
+     *
+     * @param root The library directory or a song file
+     * @return The song files, sorted by path
+     * @throws IOException If the directory cannot be read
+     */
+    public static List<File> findSongs(File root) throws IOException {
+        if (!root.isDirectory()) {
+            return List.of(root);
+        }
+        try (Stream<Path> paths = Files.walk(root.toPath())) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(p -> p.toString().endsWith(".txt") || p.toString().endsWith(CompiledSong.EXTENSION))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Validates songs in parallel.
+     *
+     * @param files The song files
+     * @return The report of every file, in the order of the given files
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public List<FileReport> validate(List<File> files) throws InterruptedException {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Callable<FileReport>> tasks = new ArrayList<>(files.size());
+            for (File file : files) {
+                tasks.add(() -> validateFile(file));
+            }
+            final List<FileReport> reports = new ArrayList<>(files.size());
+            for (Future<FileReport> f : pool.invokeAll(tasks)) {
+                try {
+                    reports.add(f.get());
+                } catch (ExecutionException e) {
+                    // validateFile reports failures itself, this only happens on a bug.
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return reports;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Parses a single song, collecting its errors instead of printing them.
+     *
+     * @param file The song file
+     * @return The report of the file
+     */
+    static FileReport validateFile(File file) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final PrintStream err = new PrintStream(buffer, true, StandardCharsets.UTF_8);
+        final long start = System.nanoTime();
+        final Score song = Conductor.readScore(file, err);
+        final long parseNanos = System.nanoTime() - start;
+        final List<SongError> errors = new ArrayList<>();
+        for (String message : buffer.toString(StandardCharsets.UTF_8).split("\\R")) {
+            if (message.isEmpty()) {
+                continue;
+            }
+            final Matcher m = LINE_ERROR.matcher(message);
+            errors.add(m.matches()
+                    ? new SongError(Integer.parseInt(m.group(1)), m.group(2))
+                    : new SongError(0, message));
+        }
+        return new FileReport(file, song == null ? -1 : song.size(), parseNanos, errors);
+    }
+
+    /**
+     * Writes the reports as a JSON document.
+     *
+     * @param reports   The reports of all files
+     * @param wallNanos Wall-clock time taken to validate the library
+     * @param out       The writer to write to
+     */
+    public void writeJson(List<FileReport> reports, long wallNanos, PrintWriter out) {
+        final long valid = reports.stream().filter(FileReport::isValid).count();
+        out.println("{");
+        out.println("  \"threads\": " + threads + ",");
+        out.println("  \"files\": " + reports.size() + ",");
+        out.println("  \"valid\": " + valid + ",");
+        out.println("  \"invalid\": " + (reports.size() - valid) + ",");
+        out.println("  \"wallMicros\": " + wallNanos / 1000 + ",");
+        out.println("  \"parseMicros\": " + totalParseNanos(reports) / 1000 + ",");
+        out.println("  \"songs\": [");
+        for (int i = 0; i < reports.size(); i++) {
+            final FileReport r = reports.get(i);
+            out.print("    {\"file\": " + jsonString(r.getFile().getPath()) + ", \"valid\": " + r.isValid()
+                    + ", \"notes\": " + r.getNotes() + ", \"parseMicros\": " + r.getParseNanos() / 1000
+                    + ", \"errors\": [");
+            for (int e = 0; e < r.getErrors().size(); e++) {
+                final SongError error = r.getErrors().get(e);
+                out.print((e > 0 ? ", " : "") + "{\"line\": " + error.getLine() + ", \"message\": "
+                        + jsonString(error.getMessage()) + "}");
+            }
+            out.println("]}" + (i < reports.size() - 1 ? "," : ""));
+        }
+        out.println("  ]");
+        out.println("}");
+    }
+
+    /**
+     * Writes the reports as CSV, one row per error and one row for each
+     * valid file.
+     *
+     * @param reports The reports of all files
+     * @param out     The writer to write to
+     */
+    public void writeCsv(List<FileReport> reports, PrintWriter out) {
+        out.println("file,valid,notes,parse_micros,line,message");
+        for (FileReport r : reports) {
+            final String prefix = csvField(r.getFile().getPath()) + "," + r.isValid() + "," + r.getNotes() + ","
+                    + r.getParseNanos() / 1000 + ",";
+            if (r.getErrors().isEmpty()) {
+                out.println(prefix + ",");
+            }
+            for (SongError error : r.getErrors()) {
+                out.println(prefix + error.getLine() + "," + csvField(error.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Adds up the parse times of all files.
+     *
+     * @param reports The reports of all files
+     * @return The total parse time in nanoseconds
+     */
+    private static long totalParseNanos(List<FileReport> reports) {
+        long total = 0;
+        for (FileReport r : reports) {
+            total += r.getParseNanos();
+        }
+        return total;
+    }
+
+    /**
+     * Quotes and escapes a string for JSON.
+     *
+     * @param s The string
+     * @return The JSON string literal
+     */
+    private static String jsonString(String s) {
+        final StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Quotes a CSV field if it holds a separator, quote or line break.
+     *
+     * @param s The field
+     * @return The CSV field
+     */
+    private static String csvField(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return s;
+        }
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Entry point for validating a song library.
+     * The first argument is the library directory, the optional second one
+     * the report file; a report ending in .csv is written as CSV, any other
+     * as JSON. The number of threads is read from the "threads" property and
+     * defaults to the number of processors.
+     *
+     * @param args The library directory followed by the report file
+     */
+    public static void main(String[] args) {
+        if (args == null || args.length == 0 || args[0].isEmpty()) {
+            System.err.println("Usage: ant validate -Dsong=[LIBRARY_DIRECTORY] -Dout=[REPORT.json|REPORT.csv]");
+            return;
+        }
+        final int threads;
+        try {
+            final String property = System.getProperty("threads", "");
+            threads = property.isBlank() ? Runtime.getRuntime().availableProcessors()
+                    : Integer.parseInt(property.strip());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid thread count, use -Dthreads=[THREADS]");
+            return;
+        }
+        final LibraryValidator validator = new LibraryValidator(threads);
+        final List<File> files;
+        final List<FileReport> reports;
+        final long start = System.nanoTime();
+        try {
+            files = findSongs(new File(args[0]));
+            reports = validator.validate(files);
+        } catch (IOException e) {
+            System.err.println("Failed to read library " + args[0] + ": " + e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while validating " + args[0]);
+            return;
+        }
+        final long wallNanos = System.nanoTime() - start;
+
+        final String report = args.length > 1 ? args[1] : "";
+        if (!report.isEmpty()) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Path.of(report), StandardCharsets.UTF_8))) {
+                if (report.endsWith(".csv")) {
+                    validator.writeCsv(reports, out);
+                } else {
+                    validator.writeJson(reports, wallNanos, out);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to write " + report + ": " + e.getMessage());
+                return;
+            }
+        }
+        final long valid = reports.stream().filter(FileReport::isValid).count();
+        System.out.println("Validated " + files.size() + " songs (" + valid + " valid, " + (files.size() - valid)
+                + " invalid) on " + validator.threads + " threads in " + wallNanos / 1_000_000 + " ms, parse time "
+                + totalParseNanos(reports) / 1_000_000 + " ms"
+                + (report.isEmpty() ? "" : ", report written to " + report));
+    }
+}
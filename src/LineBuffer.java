@@ -0,0 +1,213 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Sizes the buffer of the audio line and watches how full it stays.
+ * The line is opened with a buffer holding the target latency instead of the
+ * device default. Before each block of samples is written the fill level of
+ * the line is checked, and a line found empty counts as an underrun: it ran
+ * dry and the listener heard a dropout. Between songs the buffer is doubled after any
+ * underrun, or shrunk by a quarter if it never fell below half full, always
+ * staying within the given bounds. During a song the fill levels are only
+ * written by the thread writing to the line, but are read by the thread
+ * playing the song, so they are volatile.
+ */
+public class LineBuffer {
+
+    /** Default latency the buffer is sized for, in milliseconds */
+    static final int DEFAULT_LATENCY_MS = 250;
+
+    /** Default smallest buffer, in milliseconds */
+    static final int DEFAULT_MIN_LATENCY_MS = 50;
+
+    /** Default largest buffer, in milliseconds */
+    static final int DEFAULT_MAX_LATENCY_MS = 2000;
+
+    /** Explains the latency properties when they are invalid */
+    static final String USAGE = "Invalid latency, use -Dlatency=[MS] within -Dlatency.min=[MS] and "
+            + "-Dlatency.max=[MS]";
+
+    /** The format of the line, used to convert between bytes and time */
+    private final AudioFormat af;
+
+    /** Smallest buffer size in bytes */
+    private final int minBytes;
+
+    /** Largest buffer size in bytes */
+    private final int maxBytes;
+
+    /** Buffer size the next line is opened with, in bytes */
+    private int requestedBytes;
+
+    /** Buffer size of the current line, as granted by the device */
+    private int bufferBytes = 0;
+
+    /** Number of fill checks during the current song */
+    private volatile int checks = 0;
+
+    /** Number of times the line was found empty during the current song */
+    private volatile int underruns = 0;
+
+    /** Lowest fill level seen during the current song, in bytes */
+    private volatile int minFill = Integer.MAX_VALUE;
+
+    /** Sum of the fill levels seen during the current song, in bytes */
+    private volatile long fillSum = 0;
+
+    /**
+     * Constructs a buffer sizer for lines of the given format.
+     *
+     * @param af        The format of the lines
+     * @param latencyMs The latency the first buffer is sized for, in milliseconds
+     * @param minMs     The smallest buffer, in milliseconds
+     * @param maxMs     The largest buffer, in milliseconds
+     * @throws IllegalArgumentException If the latency is outside the bounds
+     */
+    public LineBuffer(AudioFormat af, int latencyMs, int minMs, int maxMs) {
+        if (minMs <= 0 || minMs > maxMs || latencyMs < minMs || latencyMs > maxMs) {
+            throw new IllegalArgumentException("Latency " + latencyMs + " ms outside " + minMs + "-" + maxMs + " ms");
+        }
+        this.af = af;
+        this.minBytes = bytesFor(minMs);
+        this.maxBytes = bytesFor(maxMs);
+        this.requestedBytes = bytesFor(latencyMs);
+    }
+
+    /**
+     * Creates a buffer sizer from the "latency", "latency.min" and
+     * "latency.max" system properties, in milliseconds.
+     *
+     * @param af The format of the lines
+     * @return The buffer sizer
+     * @throws IllegalArgumentException If the properties are invalid
+     */
+    static LineBuffer fromProperties(AudioFormat af) {
+        return new LineBuffer(af, intProperty("latency", DEFAULT_LATENCY_MS),
+                intProperty("latency.min", DEFAULT_MIN_LATENCY_MS), intProperty("latency.max", DEFAULT_MAX_LATENCY_MS));
+    }
+
+    /**
+     * Reads an integer system property, using a default when it is unset or
+     * blank.
+     *
+     * @param key      The name of the property
+     * @param fallback The value used when the property is unset
+     * @return The value of the property
+     * @throws NumberFormatException If the property is not an integer
+     */
+    private static int intProperty(String key, int fallback) {
+        final String value = System.getProperty(key, "");
+        return value.isBlank() ? fallback : Integer.parseInt(value.strip());
+    }
+
+    /**
+     * Converts a duration to a whole number of frames in bytes.
+     *
+     * @param ms The duration in milliseconds
+     * @return The size in bytes
+     */
+    private int bytesFor(int ms) {
+        final int frames = Math.max(1, (int) ((long) af.getFrameRate() * ms / 1000));
+        return frames * af.getFrameSize();
+    }
+
+    /**
+     * Converts a size in bytes to a duration.
+     *
+     * @param bytes The size in bytes
+     * @return The duration in milliseconds
+     */
+    private long msFor(long bytes) {
+        return (long) (bytes * 1000 / (af.getFrameRate() * af.getFrameSize()));
+    }
+
+    /**
+     * Opens a line with the current buffer size and starts a new song.
+     *
+     * @param line The line to open
+     * @throws LineUnavailableException If the line cannot be opened
+     */
+    public void open(SourceDataLine line) throws LineUnavailableException {
+        line.open(af, requestedBytes);
+        bufferBytes = line.getBufferSize();
+        checks = 0;
+        underruns = 0;
+        minFill = Integer.MAX_VALUE;
+        fillSum = 0;
+    }
+
+    /**
+     * Checks the fill level of the line before a block of frames is written.
+     * The first check of a song is skipped, as nothing has been written yet.
+     *
+     * @param line The line about to be written to
+     */
+    public void check(SourceDataLine line) {
+        final int fill = Math.max(0, bufferBytes - line.available());
+        if (checks++ == 0) {
+            return;
+        }
+        minFill = Math.min(minFill, fill);
+        fillSum += fill;
+        if (fill == 0) {
+            underruns++;
+        }
+    }
+
+    /**
+     * Chooses the buffer size for the next song from how this one went.
+     * The buffer is doubled after an underrun, and shrunk by a quarter when
+     * it never fell below half full.
+     */
+    public void adapt() {
+        final int frameSize = af.getFrameSize();
+        if (underruns > 0) {
+            requestedBytes = Math.min(maxBytes, Math.max(requestedBytes, bufferBytes) * 2);
+        } else if (checks > 1 && minFill > bufferBytes / 2) {
+            requestedBytes = Math.max(minBytes, requestedBytes * 3 / 4);
+        }
+        requestedBytes -= requestedBytes % frameSize;
+    }
+
+    /**
+     * Gets the buffer size of the current line.
+     *
+     * @return The buffer size in bytes
+     */
+    public int bufferBytes() {
+        return bufferBytes;
+    }
+
+    /**
+     * Gets the buffer size the next line will be opened with.
+     *
+     * @return The buffer size in bytes
+     */
+    public int requestedBytes() {
+        return requestedBytes;
+    }
+
+    /**
+     * Gets the number of underruns during the current song.
+     *
+     * @return The number of underruns
+     */
+    public int underruns() {
+        return underruns;
+    }
+
+    /**
+     * Summarises the buffer size and fill levels of the current song, and
+     * the size chosen for the next one.
+     *
+     * @return A human readable summary
+     */
+    @Override
+    public String toString() {
+        final int measured = checks - 1;
+        return bufferBytes + " bytes (" + msFor(bufferBytes) + " ms), " + underruns + " underruns, fill min "
+                + (measured > 0 ? msFor(minFill) : 0) + " ms / mean " + (measured > 0 ? msFor(fillSum / measured) : 0)
+                + " ms, next song " + requestedBytes + " bytes (" + msFor(requestedBytes) + " ms)";
+    }
+}
@@ -0,0 +1,206 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * The single thread writing to the audio line during playback.
+ * The Conductor mixes every step into a ring holding the next few hundred
+ * milliseconds of the song, and this thread moves the samples from the ring
+ * to the line. It only ever writes as many samples as the line has room for,
+ * so it never blocks inside the line, and it never waits for the Conductor or
+ * a Member while the ring holds samples. Handing a cue to a Member and
+ * waiting for its note therefore delays the song by nothing, as long as it
+ * takes less time than the lookahead.
+ */
+public class LineWriter implements Runnable {
+
+    /** Default time the ring holds, in milliseconds */
+    static final int DEFAULT_LOOKAHEAD_MS = 200;
+
+    /** Longest lookahead allowed, in milliseconds */
+    static final int MAX_LOOKAHEAD_MS = 10_000;
+
+    /** Explains the lookahead property when it is invalid */
+    static final String USAGE = "Invalid lookahead, use -Dlookahead=[MS] up to " + MAX_LOOKAHEAD_MS
+            + ", or -Dlookahead=0 to write each step straight to the line";
+
+    /** Largest number of bytes moved to the line at a time */
+    private static final int CHUNK_BYTES = 4096;
+
+    /** Shortest time to wait for the line to make room */
+    private static final long MIN_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    /** The line the samples are written to */
+    private final SourceDataLine line;
+
+    /** Checks the fill level of the line before every write, or null */
+    private final LineBuffer buffer;
+
+    /** The samples mixed ahead of the line */
+    private final SampleRing ring;
+
+    /** Samples moved from the ring to the line */
+    private final byte[] chunk;
+
+    /** Size of a frame in bytes, every write is a whole number of frames */
+    private final int frameSize;
+
+    /** Number of bytes the line plays per second */
+    private final double bytesPerSecond;
+
+    /** The writer thread, created by start() */
+    private Thread thread;
+
+    /** Number of writes to the line */
+    private long writes = 0;
+
+    /** Number of times the writer waited for the line to make room */
+    private long roomWaits = 0;
+
+    /** Number of times the writer found the ring empty after the first write */
+    private long sampleWaits = 0;
+
+    /**
+     * Constructs a writer holding the given time of samples ahead of the
+     * line. The line must be open.
+     *
+     * @param line        The open line the samples are written to
+     * @param buffer      The buffer sizer the line was opened with, or null
+     * @param lookaheadMs The time the ring holds, in milliseconds
+     */
+    public LineWriter(SourceDataLine line, LineBuffer buffer, int lookaheadMs) {
+        this.line = line;
+        this.buffer = buffer;
+        this.frameSize = Math.max(1, line.getFormat().getFrameSize());
+        this.bytesPerSecond = line.getFormat().getFrameRate() * frameSize;
+        final int frames = Math.max(1, (int) (line.getFormat().getFrameRate() * lookaheadMs / 1000));
+        this.ring = new SampleRing(frames * frameSize);
+        this.chunk = new byte[Math.max(frameSize, CHUNK_BYTES - CHUNK_BYTES % frameSize)];
+    }
+
+    /**
+     * Reads the "lookahead" system property, in milliseconds.
+     *
+     * @return The lookahead, 0 to write each step straight to the line
+     * @throws IllegalArgumentException If the property is invalid
+     */
+    static int lookaheadFromProperties() {
+        final String value = System.getProperty("lookahead", "");
+        final int ms = value.isBlank() ? DEFAULT_LOOKAHEAD_MS : Integer.parseInt(value.strip());
+        if (ms < 0 || ms > MAX_LOOKAHEAD_MS) {
+            throw new IllegalArgumentException("Lookahead " + ms + " ms outside 0-" + MAX_LOOKAHEAD_MS + " ms");
+        }
+        return ms;
+    }
+
+    /**
+     * Gets the ring the steps are mixed into.
+     *
+     * @return The ring read by this writer
+     */
+    public SampleRing ring() {
+        return ring;
+    }
+
+    /**
+     * Starts the writer thread. The thread is only created here, after
+     * construction, so it never sees a writer that is not fully built.
+     */
+    public void start() {
+        // A platform thread, so a busy carrier can never hold back the line.
+        thread = Thread.ofPlatform().name("Line writer").daemon().priority(Thread.MAX_PRIORITY).start(this);
+    }
+
+    /**
+     * Marks the end of the song and waits until every sample in the ring has
+     * been written to the line.
+     */
+    public void finish() {
+        ring.close();
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while waiting for the line writer");
+        }
+    }
+
+    /**
+     * Moves samples from the ring to the line until the ring is closed and
+     * empty. Each write is no larger than the room left in the line.
+     */
+    @Override
+    public void run() {
+        while (line.isOpen()) {
+            final int room = line.available();
+            final int space = Math.min(chunk.length, room - room % frameSize);
+            if (space <= 0) {
+                roomWaits++;
+                waitForRoom();
+                continue;
+            }
+            final int n = ring.read(chunk, 0, space);
+            if (n == 0) {
+                if (ring.isClosed() && ring.size() == 0) {
+                    return;
+                }
+                if (writes > 0) {
+                    sampleWaits++;
+                }
+                ring.awaitSamples(nanosFor(line.getBufferSize() - room));
+                continue;
+            }
+            if (buffer != null) {
+                buffer.check(line);
+            }
+            line.write(chunk, 0, n);
+            writes++;
+        }
+    }
+
+    /**
+     * Parks until the line should have played a chunk of samples, or a
+     * quarter of its buffer if that is smaller, so it never runs low while
+     * the writer sleeps.
+     */
+    private void waitForRoom() {
+        final int bytes = Math.min(chunk.length, line.getBufferSize() / 4);
+        LockSupport.parkNanos(this, Math.max(MIN_WAIT_NANOS, nanosFor(bytes)));
+    }
+
+    /**
+     * Converts a number of bytes to the time the line takes to play them.
+     *
+     * @param bytes The number of bytes
+     * @return The time in nanoseconds
+     */
+    private long nanosFor(int bytes) {
+        return (long) (Math.max(0, bytes) * 1e9 / bytesPerSecond);
+    }
+
+    /**
+     * Converts a number of bytes to the time the line takes to play them.
+     *
+     * @param bytes The number of bytes
+     * @return The time in milliseconds
+     */
+    private long msFor(long bytes) {
+        return (long) (bytes * 1000 / bytesPerSecond);
+    }
+
+    /**
+     * Summarises the lookahead and how often the writer had to wait. Should
+     * be called after finish().
+     *
+     * @return A human readable summary
+     */
+    @Override
+    public String toString() {
+        return "lookahead " + ring.limit() + " bytes (" + msFor(ring.limit()) + " ms), " + writes
+                + " writes, waited for room " + roomWaits + " times and for samples " + sampleWaits + " times";
+    }
+}
@@ -0,0 +1,133 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A Score that reads its events straight from a compiled song file mapped
+ * into memory. Nothing is copied when the song is loaded: each event is
+ * decoded from the mapped 16-bit body when playback asks for it.
+ * See CompiledSong for the layout of the file.
+ */
+public class MappedScore extends Score {
+
+    /** The mapped contents of the compiled song file */
+    private final ByteBuffer buffer;
+
+    /** The number of events in the song */
+    private final int size;
+
+    /** The number of entries in the measure index, 0 if there is no index */
+    private final int measures;
+
+    /** Position in the buffer of the measure index */
+    private final int indexOffset;
+
+    /** Whether every entry of the measure index also holds the frame of its measure */
+    private final boolean framed;
+
+    /**
+     * Constructs a view of a mapped compiled song. The header must already
+     * have been checked by CompiledSong.
+     *
+     * @param buffer      The mapped contents of the file
+     * @param size        The number of events in the song
+     * @param measures    The number of entries in the measure index
+     * @param indexOffset The position in the buffer of the measure index
+     * @param framed      Whether the measure index holds the frame of every measure
+     */
+    MappedScore(ByteBuffer buffer, int size, int measures, int indexOffset, boolean framed) {
+        this.buffer = buffer;
+        this.size = size;
+        this.measures = measures;
+        this.indexOffset = indexOffset;
+        this.framed = framed;
+    }
+
+    /**
+     * Gets the packed event at the given position.
+     *
+     * @param index The position of the event
+     * @return The packed event
+     * @throws IndexOutOfBoundsException If the position is outside the song
+     */
+    @Override
+    public int event(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        return buffer.getShort(CompiledSong.HEADER_BYTES + (index << 1)) & 0xFFFF;
+    }
+
+    /**
+     * Gets the number of events in the song.
+     *
+     * @return The number of events
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of measures in the measure index.
+     *
+     * @return The number of measures, or 0 if the file has no measure index
+     */
+    public int measureCount() {
+        return measures;
+    }
+
+    /**
+     * Gets the position of the first step that starts in or after a measure.
+     *
+     * @param measure The number of the measure, starting at 0
+     * @return The position of the first event of that step
+     * @throws IndexOutOfBoundsException If the measure is not in the index
+     */
+    public int measureStart(int measure) {
+        if (measure < 0 || measure >= measures) {
+            throw new IndexOutOfBoundsException("Measure " + measure + " out of bounds for length " + measures);
+        }
+        return buffer.getInt(indexOffset + measure * CompiledSong.entryBytes(framed));
+    }
+
+    /**
+     * Checks if the measure index holds the frame of every measure and the
+     * length of the song, so seeking needs no walk through the song.
+     *
+     * @return True if the frames are stored, false for files of older versions
+     */
+    public boolean hasMeasureFrames() {
+        return framed;
+    }
+
+    /**
+     * Gets the frame at which the first step of a measure plays.
+     *
+     * @param measure The number of the measure, starting at 0
+     * @return The frame, counted from the start of the song
+     * @throws IndexOutOfBoundsException If the measure is not in the index
+     * @throws IllegalStateException     If the index holds no frames
+     */
+    public long measureFrame(int measure) {
+        if (!framed) {
+            throw new IllegalStateException("Measure index without frames");
+        }
+        if (measure < 0 || measure >= measures) {
+            throw new IndexOutOfBoundsException("Measure " + measure + " out of bounds for length " + measures);
+        }
+        return buffer.getLong(indexOffset + measure * CompiledSong.entryBytes(true) + Integer.BYTES);
+    }
+
+    /**
+     * Gets the number of frames the whole song plays for, stored after the
+     * measure index.
+     *
+     * @return The number of frames
+     * @throws IllegalStateException If the index holds no frames
+     */
+    public long totalFrames() {
+        if (!framed) {
+            throw new IllegalStateException("Measure index without frames");
+        }
+        return buffer.getLong(indexOffset + measures * CompiledSong.entryBytes(true));
+    }
+}
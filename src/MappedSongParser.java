@@ -0,0 +1,645 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import enums.Note;
+import enums.NoteLength;
+
+/**
+ * Parses song files straight from a memory-mapped buffer, in parallel for
+ * large files. It accepts exactly the text format of SongParser and reports
+ * the same errors with the same line numbers.
+ * The buffer is split into chunks at line boundaries and every chunk is
+ * parsed on its own, collecting packed events, tempo and meter directives
+ * and errors. The chunks are then joined in order, replaying the directives
+ * so the tempo regions come out as if the file had been parsed line by line.
+ * A line is copied into a reused character buffer, and note names and
+ * lengths are found by table lookups without exceptions, so a valid note
+ * line allocates nothing.
+ */
+public final class MappedSongParser {
+
+    /** Smallest number of bytes worth parsing on a thread of its own */
+    static final int MIN_CHUNK_BYTES = 1 << 20;
+
+    /** All notes, indexed by ordinal */
+    private static final Note[] NOTES = Note.values();
+
+    /** Number of letters a note name can start with, A to G */
+    private static final int NOTE_LETTERS = 7;
+
+    /** Notes named by a letter, an octave digit and an optional S for sharp, by perfect hash */
+    private static final Note[] NOTE_TABLE = new Note[NOTE_LETTERS * 10 * 2];
+
+    /** Notes with any other name, such as REST */
+    private static final Note[] OTHER_NOTES;
+
+    /** Note lengths by the number written in the file, null where the number is not a length */
+    private static final NoteLength[] LENGTHS_BY_INPUT = new NoteLength[9];
+
+    /** Result of parseInt for text that SongParser would not accept as a positive number */
+    private static final int INVALID = -1;
+
+    static {
+        final List<Note> others = new ArrayList<>();
+        for (Note n : NOTES) {
+            final char[] name = n.name().toCharArray();
+            final int key = noteKey(name, 0, name.length);
+            if (key >= 0) {
+                NOTE_TABLE[key] = n;
+            } else {
+                others.add(n);
+            }
+        }
+        OTHER_NOTES = others.toArray(new Note[0]);
+        // Built with SongParser's own rules so both parsers accept the same lengths.
+        for (int input = 1; input < LENGTHS_BY_INPUT.length; input++) {
+            LENGTHS_BY_INPUT[input] = SongParser.lengthOf(input);
+        }
+    }
+
+    /**
+     * Prevents instantiation, all parsing is done by static methods.
+     */
+    private MappedSongParser() {
+    }
+
+    /**
+     * Checks if songs in a charset can be split into lines byte by byte,
+     * because every line break is a single byte that is never part of
+     * another character.
+     *
+     * @param charset The charset song files are read with
+     * @return True if this parser can read songs in the charset
+     */
+    static boolean supports(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Maps a song file into memory and parses it.
+     *
+     * @param file  The song file
+     * @param tempo The tempo the song starts at unless it sets its own
+     * @param err   The stream parse errors are printed to
+     * @return A Score holding the notes of the song, or null if parsing failed
+     */
+    public static Score parseFile(File file, Tempo tempo, PrintStream err) {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                err.println("File " + file + " is too large to parse");
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            err.println("File " + file + " exists, this should never happen");
+            return null;
+        }
+        return parse(buffer, tempo, err);
+    }
+
+    /**
+     * Parses a song held in a buffer, decoded with the default charset.
+     * Large songs are parsed in parallel.
+     *
+     * @param buffer The bytes of the song file, from position 0 to the limit
+     * @param tempo  The tempo the song starts at unless it sets its own
+     * @param err    The stream parse errors are printed to
+     * @return A Score holding the notes of the song, or null if parsing failed
+     */
+    public static Score parse(ByteBuffer buffer, Tempo tempo, PrintStream err) {
+        final int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(),
+                buffer.limit() / MIN_CHUNK_BYTES));
+        return parse(buffer, tempo, err, chunks);
+    }
+
+    /**
+     * Parses a song held in a buffer in about the given number of chunks.
+     *
+     * @param buffer The bytes of the song file, from position 0 to the limit
+     * @param tempo  The tempo the song starts at unless it sets its own
+     * @param err    The stream parse errors are printed to
+     * @param chunks The number of chunks to split the song into
+     * @return A Score holding the notes of the song, or null if parsing failed
+     */
+    static Score parse(ByteBuffer buffer, Tempo tempo, PrintStream err, int chunks) {
+        final int[] bounds = chunkBounds(buffer, chunks);
+        final List<Chunk> parts = new ArrayList<>(bounds.length - 1);
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            parts.add(new Chunk(buffer, bounds[i], bounds[i + 1]));
+        }
+        if (parts.size() == 1) {
+            parts.get(0).call();
+        } else {
+            try {
+                for (Future<Chunk> f : ForkJoinPool.commonPool().invokeAll(parts)) {
+                    f.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                err.println("Interrupted while parsing");
+                return null;
+            } catch (ExecutionException e) {
+                // Chunk.call reports every problem with the song itself, this only happens on a bug.
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return join(parts, tempo, err);
+    }
+
+    /**
+     * Splits a buffer into chunks that each start at the beginning of a line.
+     *
+     * @param buffer The bytes of the song file
+     * @param chunks The number of chunks wanted
+     * @return The start of every chunk followed by the end of the last one
+     */
+    private static int[] chunkBounds(ByteBuffer buffer, int chunks) {
+        final int limit = buffer.limit();
+        final int[] bounds = new int[chunks + 1];
+        int count = 1;
+        for (int k = 1; k < chunks; k++) {
+            int p = Math.max(bounds[count - 1], (int) ((long) limit * k / chunks));
+            while (p < limit && buffer.get(p) != '\n') {
+                p++;
+            }
+            if (p + 1 >= limit) {
+                break;
+            }
+            // Start after the line feed, so a CR LF pair is never split.
+            bounds[count++] = p + 1;
+        }
+        bounds[count++] = limit;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * Joins parsed chunks into one score, printing their errors with the
+     * line numbers of the whole file.
+     *
+     * @param parts The parsed chunks, in file order
+     * @param tempo The tempo the song starts at unless it sets its own
+     * @param err   The stream parse errors are printed to
+     * @return The joined score, or null if any line was invalid
+     */
+    private static Score join(List<Chunk> parts, Tempo tempo, PrintStream err) {
+        boolean valid = true;
+        int lineOffset = 0;
+        int total = 0;
+        for (Chunk c : parts) {
+            for (int i = 0; i < c.errorLines.size(); i++) {
+                err.println("Line " + (lineOffset + c.errorLines.get(i)) + ": " + c.errorMessages.get(i));
+                valid = false;
+            }
+            lineOffset += c.lines;
+            total += c.size;
+        }
+        if (!valid) {
+            err.println("At least one line failed to read, please review errors");
+            return null;
+        }
+        final PackedScore notes = new PackedScore();
+        Tempo current = tempo;
+        if (total > 0) {
+            notes.setTempo(0, current);
+        }
+        int base = 0;
+        for (Chunk c : parts) {
+            for (int[] d : c.directives) {
+                current = d[1] > 0 ? current.withBpm(d[1]) : new Tempo(current.bpm(), d[2], d[3]);
+                // SongParser sets the tempo before each note line, so only a directive followed by notes makes a region.
+                if (base + d[0] < total) {
+                    notes.setTempo(base + d[0], current);
+                }
+            }
+            for (int i = 0; i < c.size; i++) {
+                notes.append(c.events[i]);
+            }
+            base += c.size;
+        }
+        return notes;
+    }
+
+    /**
+     * Finds the perfect hash of a note name made of a letter from A to G, an
+     * octave digit and an optional S for sharp.
+     *
+     * @param c The characters of the name
+     * @param a The start of the name
+     * @param b The end of the name
+     * @return The index into NOTE_TABLE, or -1 if the name does not have that form
+     */
+    private static int noteKey(char[] c, int a, int b) {
+        final int length = b - a;
+        if (length != 2 && length != 3) {
+            return -1;
+        }
+        final int letter = c[a] - 'A';
+        final int octave = c[a + 1] - '0';
+        if (letter < 0 || letter >= NOTE_LETTERS || octave < 0 || octave > 9 || (length == 3 && c[a + 2] != 'S')) {
+            return -1;
+        }
+        return (letter * 10 + octave) * 2 + length - 2;
+    }
+
+    /**
+     * Finds the note with the given name, like Note.valueOf but without
+     * exceptions.
+     *
+     * @param c The characters of the line
+     * @param a The start of the name
+     * @param b The end of the name
+     * @return The note, or null if no note has that name
+     */
+    private static Note noteOf(char[] c, int a, int b) {
+        final int key = noteKey(c, a, b);
+        if (key >= 0) {
+            return NOTE_TABLE[key];
+        }
+        for (Note n : OTHER_NOTES) {
+            if (matches(c, a, b, n.name())) {
+                return n;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses a number like Integer.parseInt, including its optional sign and
+     * digits of any script, but without exceptions.
+     *
+     * @param c The characters of the line
+     * @param a The start of the number
+     * @param b The end of the number
+     * @return The number, or INVALID if it is not a number, negative or too large
+     */
+    static int parseInt(char[] c, int a, int b) {
+        int i = a;
+        boolean negative = false;
+        if (i < b && (c[i] == '-' || c[i] == '+')) {
+            negative = c[i] == '-';
+            i++;
+        }
+        if (i == b) {
+            return INVALID;
+        }
+        long value = 0;
+        for (; i < b; i++) {
+            final int digit = Character.digit(c[i], 10);
+            if (digit < 0) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) {
+                return INVALID;
+            }
+        }
+        // SongParser rejects every negative number, and -0 is 0.
+        return negative && value != 0 ? INVALID : (int) value;
+    }
+
+    /**
+     * Skips leading whitespace, like String.strip.
+     *
+     * @param c The characters of the line
+     * @param a The start of the text
+     * @param b The end of the text
+     * @return The start of the text without leading whitespace
+     */
+    private static int stripStart(char[] c, int a, int b) {
+        while (a < b && Character.isWhitespace(c[a])) {
+            a++;
+        }
+        return a;
+    }
+
+    /**
+     * Skips trailing whitespace, like String.strip.
+     *
+     * @param c The characters of the line
+     * @param a The start of the text
+     * @param b The end of the text
+     * @return The end of the text without trailing whitespace
+     */
+    private static int stripEnd(char[] c, int a, int b) {
+        while (b > a && Character.isWhitespace(c[b - 1])) {
+            b--;
+        }
+        return b;
+    }
+
+    /**
+     * Finds a character in part of a line.
+     *
+     * @param c  The characters of the line
+     * @param ch The character to find
+     * @param a  The start of the search
+     * @param b  The end of the search
+     * @return The position of the character, or -1 if it is not found
+     */
+    private static int indexOf(char[] c, char ch, int a, int b) {
+        for (int i = a; i < b; i++) {
+            if (c[i] == ch) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if part of a line holds the given text.
+     *
+     * @param c    The characters of the line
+     * @param a    The start of the part
+     * @param b    The end of the part
+     * @param text The text to compare with
+     * @return True if the part equals the text
+     */
+    private static boolean matches(char[] c, int a, int b, String text) {
+        if (b - a != text.length()) {
+            return false;
+        }
+        for (int i = a; i < b; i++) {
+            if (c[i] != text.charAt(i - a)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A part of the song file starting at the beginning of a line, and what
+     * was parsed from it.
+     */
+    private static final class Chunk implements Callable<Chunk> {
+        /** The bytes of the whole song file */
+        private final ByteBuffer buffer;
+
+        /** The position of the first byte of the chunk */
+        private final int start;
+
+        /** The position after the last byte of the chunk */
+        private final int end;
+
+        /** Decodes lines that are not plain ASCII */
+        private final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        /** The characters of the current line, reused for every line */
+        private char[] line = new char[128];
+
+        /** The packed events of the chunk */
+        private int[] events = new int[64];
+
+        /** Number of events in the chunk */
+        private int size = 0;
+
+        /** Number of lines in the chunk */
+        private int lines = 0;
+
+        /** The notes of the current chord, by ordinal */
+        private final int[] chord = new int[NOTES.length];
+
+        /** Which notes the current chord already holds, by ordinal */
+        private final boolean[] inChord = new boolean[NOTES.length];
+
+        /**
+         * Valid directives in file order: the number of events before it,
+         * the new beats per minute or 0, and the new beats and beat unit
+         */
+        private final List<int[]> directives = new ArrayList<>();
+
+        /** Line numbers of the errors, counted from the start of the chunk */
+        private final List<Integer> errorLines = new ArrayList<>();
+
+        /** The errors, without their line numbers */
+        private final List<String> errorMessages = new ArrayList<>();
+
+        /**
+         * Constructs a chunk of a song file.
+         *
+         * @param buffer The bytes of the whole song file
+         * @param start  The position of the first byte of the chunk
+         * @param end    The position after the last byte of the chunk
+         */
+        Chunk(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Parses every line of the chunk. Lines end at a line feed, a carriage
+         * return or both, like BufferedReader.readLine.
+         *
+         * @return This chunk
+         */
+        @Override
+        public Chunk call() {
+            int pos = start;
+            while (pos < end) {
+                int eol = pos;
+                byte b;
+                while (eol < end && (b = buffer.get(eol)) != '\n' && b != '\r') {
+                    eol++;
+                }
+                lines++;
+                parseLine(read(pos, eol), lines);
+                if (eol + 1 < end && buffer.get(eol) == '\r' && buffer.get(eol + 1) == '\n') {
+                    eol++;
+                }
+                pos = eol + 1;
+            }
+            return this;
+        }
+
+        /**
+         * Copies a line into the line buffer. ASCII is copied byte by byte,
+         * anything else is decoded with the default charset.
+         *
+         * @param from The position of the first byte of the line
+         * @param to   The position after the last byte of the line
+         * @return The number of characters in the line
+         */
+        private int read(int from, int to) {
+            final int length = to - from;
+            final int capacity = (int) Math.ceil(length * (double) decoder.maxCharsPerByte());
+            if (line.length < capacity) {
+                line = new char[Math.max(capacity, line.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                final byte b = buffer.get(from + i);
+                if (b < 0) {
+                    final CharBuffer out = CharBuffer.wrap(line);
+                    decoder.reset();
+                    decoder.decode(buffer.slice(from, length), out, true);
+                    decoder.flush(out);
+                    return out.position();
+                }
+                line[i] = (char) b;
+            }
+            return length;
+        }
+
+        /**
+         * Parses the line in the line buffer, following SongParser.parseLine:
+         * the line is split at single spaces, the first element is a chord or
+         * a directive and the second one its length or value.
+         *
+         * @param n          The number of characters in the line
+         * @param lineNumber The number of the line within the chunk
+         */
+        private void parseLine(int n, int lineNumber) {
+            final char[] c = line;
+            final int space = indexOf(c, ' ', 0, n);
+            // String.split drops trailing empty elements, so a second element needs a non-space after the first space.
+            boolean second = false;
+            if (space >= 0) {
+                for (int i = space + 1; i < n && !second; i++) {
+                    second = c[i] != ' ';
+                }
+            }
+            if (!second) {
+                error(lineNumber, "Couldn't extract two elements from line: " + new String(c, 0, n));
+                return;
+            }
+            int valueEnd = indexOf(c, ' ', space + 1, n);
+            if (valueEnd < 0) {
+                valueEnd = n;
+            }
+            if (matches(c, 0, space, SongParser.TEMPO_DIRECTIVE) || matches(c, 0, space, SongParser.METER_DIRECTIVE)) {
+                parseDirective(space, valueEnd, lineNumber);
+                return;
+            }
+            final int notes = parseChord(space, lineNumber);
+            final int a = stripStart(c, space + 1, valueEnd);
+            final int input = parseInt(c, a, stripEnd(c, a, valueEnd));
+            final NoteLength nl = input >= 0 && input < LENGTHS_BY_INPUT.length ? LENGTHS_BY_INPUT[input] : null;
+            if (nl == null) {
+                error(lineNumber, "Failed to parse note length: " + new String(c, space + 1, valueEnd - space - 1));
+            }
+            if (notes < 0 || nl == null) {
+                return;
+            }
+            if (size + notes > events.length) {
+                events = Arrays.copyOf(events, Math.max(size + notes, events.length * 2));
+            }
+            for (int i = 0; i < notes; i++) {
+                events[size++] = Score.encode(NOTES[chord[i]], nl, i > 0);
+            }
+        }
+
+        /**
+         * Parses the chord at the start of the line into the chord buffer.
+         *
+         * @param end        The end of the chord, the first space of the line
+         * @param lineNumber The number of the line within the chunk
+         * @return The number of notes in the chord, or -1 if it is invalid
+         */
+        private int parseChord(int end, int lineNumber) {
+            final char[] c = line;
+            int count = 0;
+            int a = 0;
+            while (true) {
+                final int plus = indexOf(c, '+', a, end);
+                final int b = plus < 0 ? end : plus;
+                final Note note = noteOf(c, a, b);
+                if (note == null) {
+                    error(lineNumber, "Failed to parse note: " + new String(c, a, b - a));
+                    count = clearChord(count);
+                    break;
+                }
+                if (inChord[note.ordinal()]) {
+                    error(lineNumber, "Note " + note + " appears twice in chord: " + new String(c, 0, end));
+                    count = clearChord(count);
+                    break;
+                }
+                inChord[note.ordinal()] = true;
+                chord[count++] = note.ordinal();
+                if (plus < 0) {
+                    clearChord(count);
+                    break;
+                }
+                a = plus + 1;
+            }
+            return count;
+        }
+
+        /**
+         * Forgets which notes the current chord holds.
+         *
+         * @param count The number of notes in the chord buffer
+         * @return -1, marking the chord as invalid when used after an error
+         */
+        private int clearChord(int count) {
+            for (int i = 0; i < count; i++) {
+                inChord[chord[i]] = false;
+            }
+            return -1;
+        }
+
+        /**
+         * Parses a tempo or meter directive, following SongParser.parseDirective.
+         *
+         * @param space      The position of the first space, after the directive
+         * @param valueEnd   The end of the value
+         * @param lineNumber The number of the line within the chunk
+         */
+        private void parseDirective(int space, int valueEnd, int lineNumber) {
+            final char[] c = line;
+            final boolean isTempo = matches(c, 0, space, SongParser.TEMPO_DIRECTIVE);
+            final int a = stripStart(c, space + 1, valueEnd);
+            final int b = stripEnd(c, a, valueEnd);
+            if (isTempo) {
+                final int bpm = parseInt(c, a, b);
+                if (bpm != INVALID && Tempo.isValidBpm(bpm)) {
+                    directives.add(new int[] { size, bpm, 0, 0 });
+                    return;
+                }
+            } else {
+                final int slash = indexOf(c, '/', a, b);
+                if (slash >= 0 && indexOf(c, '/', slash + 1, b) < 0) {
+                    final int beatsStart = stripStart(c, a, slash);
+                    final int beats = parseInt(c, beatsStart, stripEnd(c, beatsStart, slash));
+                    final int unitStart = stripStart(c, slash + 1, b);
+                    final int unit = parseInt(c, unitStart, stripEnd(c, unitStart, b));
+                    if (beats != INVALID && unit != INVALID && Tempo.isValidMeter(beats, unit)) {
+                        directives.add(new int[] { size, 0, beats, unit });
+                        return;
+                    }
+                }
+            }
+            final String directive = isTempo ? SongParser.TEMPO_DIRECTIVE : SongParser.METER_DIRECTIVE;
+            error(lineNumber, "Failed to parse " + directive.toLowerCase() + ": "
+                    + new String(c, space + 1, valueEnd - space - 1));
+        }
+
+        /**
+         * Records an error of a line.
+         *
+         * @param lineNumber The number of the line within the chunk
+         * @param message    The error, without its line number
+         */
+        private void error(int lineNumber, String message) {
+            errorLines.add(lineNumber);
+            errorMessages.add(message);
+        }
+    }
+}
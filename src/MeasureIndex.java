@@ -0,0 +1,368 @@
+import java.util.Arrays;
+
+import enums.Note;
+
+/**
+ * An index from measures and playback time to positions in a song.
+ * The index is built in one pass over the steps of the song and keeps, for
+ * every measure, the first event starting in or after it and the frame at
+ * which that event plays. Measures are as long as the meter of their tempo
+ * region, and a change of meter in the middle of a measure starts a new one.
+ * Finding a measure is a lookup, finding a time is a binary search over the
+ * measures followed by a walk through the steps of a single measure, so
+ * seeking costs the same at the start and at the end of a long song.
+ * A compiled song stores the first event and the frame of every measure, so
+ * its index is copied from the file instead of walking through the song.
+ */
+public class MeasureIndex {
+
+    /** Initial capacity of the index arrays */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Explains the range properties when they are invalid */
+    static final String USAGE = "Invalid range, use -Dfrom=[POSITION] and -Dto=[POSITION] with a measure "
+            + "number such as 12 or a time such as 1:30 or 90.5s, and -Dloop=[TIMES]";
+
+    /** The song the index points into */
+    private final Score song;
+
+    /** Number of measures in the song */
+    private final int measures;
+
+    /** Position of the first event of each measure */
+    private final int[] events;
+
+    /** Frame at which the first event of each measure plays */
+    private final long[] frames;
+
+    /** Number of frames the whole song plays for */
+    private final long totalFrames;
+
+    /**
+     * Constructs an index from the arrays built by of().
+     *
+     * @param song        The song the index points into
+     * @param measures    Number of measures in the song
+     * @param events      Position of the first event of each measure
+     * @param frames      Frame at which the first event of each measure plays
+     * @param totalFrames Number of frames the whole song plays for
+     */
+    private MeasureIndex(Score song, int measures, int[] events, long[] frames, long totalFrames) {
+        this.song = song;
+        this.measures = measures;
+        this.events = events;
+        this.frames = frames;
+        this.totalFrames = totalFrames;
+    }
+
+    /**
+     * Builds the index of a song. The index of a compiled song whose file
+     * holds the frames of its measures is read from the file.
+     *
+     * @param song The notes of the song
+     * @return The index
+     */
+    public static MeasureIndex of(Score song) {
+        if (song instanceof MappedScore && ((MappedScore) song).hasMeasureFrames()) {
+            final MappedScore mapped = (MappedScore) song;
+            final int measures = mapped.measureCount();
+            final int[] events = new int[measures];
+            final long[] frames = new long[measures];
+            for (int m = 0; m < measures; m++) {
+                events[m] = mapped.measureStart(m);
+                frames[m] = mapped.measureFrame(m);
+            }
+            return new MeasureIndex(song, measures, events, frames, mapped.totalFrames());
+        }
+        int[] events = new int[INITIAL_CAPACITY];
+        long[] frames = new long[INITIAL_CAPACITY];
+        int measures = 0;
+        long eighths = 0;
+        long measureEnd = 0;
+        long frame = 0;
+        int measureEighths = song.tempoAt(0).measureEighths();
+        for (int start = 0; start < song.size(); start = song.stepEnd(start)) {
+            final int meter = song.tempoAt(start).measureEighths();
+            if (meter != measureEighths) {
+                measureEighths = meter;
+                measureEnd = Math.min(measureEnd, eighths);
+            }
+            // A step longer than a measure starts every measure it spans.
+            while (eighths >= measureEnd) {
+                if (measures == events.length) {
+                    events = Arrays.copyOf(events, measures * 2);
+                    frames = Arrays.copyOf(frames, measures * 2);
+                }
+                events[measures] = start;
+                frames[measures] = frame;
+                measures++;
+                measureEnd += measureEighths;
+            }
+            final int end = song.stepEnd(start);
+            int longest = 0;
+            for (int i = start; i < end; i++) {
+                longest = Math.max(longest, song.length(i).eighths());
+            }
+            eighths += longest;
+            frame += FrameScheduler.stepFrames(song, start, end);
+        }
+        return new MeasureIndex(song, measures, events, frames, frame);
+    }
+
+    /**
+     * Gets the number of measures in the song.
+     *
+     * @return The number of measures
+     */
+    public int measureCount() {
+        return measures;
+    }
+
+    /**
+     * Gets the position of the first event starting in or after a measure.
+     *
+     * @param measure The measure, counted from 0
+     * @return The position of the first event of the measure
+     */
+    public int measureStart(int measure) {
+        return events[measure];
+    }
+
+    /**
+     * Gets the position after the last event starting in a measure.
+     *
+     * @param measure The measure, counted from 0
+     * @return The position of the first event of the next measure, or the size of the song
+     */
+    public int measureEnd(int measure) {
+        return measure + 1 < measures ? events[measure + 1] : song.size();
+    }
+
+    /**
+     * Gets the frame at which the first event of a measure plays.
+     *
+     * @param measure The measure, counted from 0
+     * @return The frame, counted from the start of the song
+     */
+    public long measureFrame(int measure) {
+        return frames[measure];
+    }
+
+    /**
+     * Gets the number of frames the whole song plays for.
+     *
+     * @return The number of frames
+     */
+    public long totalFrames() {
+        return totalFrames;
+    }
+
+    /**
+     * Finds the measure playing at a frame.
+     *
+     * @param frame The frame, counted from the start of the song
+     * @return The last measure starting at or before the frame, or 0 if the song is empty
+     */
+    public int measureAt(long frame) {
+        int low = 0;
+        int high = measures - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (frames[mid] <= frame) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the measure an event belongs to.
+     *
+     * @param position The position of the event
+     * @return The last measure starting at or before the event, or 0 if the song is empty
+     */
+    public int measureOf(int position) {
+        int low = 0;
+        int high = measures - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (events[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the step playing at a frame.
+     *
+     * @param frame The frame, counted from the start of the song
+     * @return The position of the first event of the step, or the size of the song if it has ended
+     */
+    public int stepAt(long frame) {
+        if (measures == 0 || frame >= totalFrames) {
+            return song.size();
+        }
+        final int measure = measureAt(frame);
+        int start = events[measure];
+        long stepFrame = frames[measure];
+        while (true) {
+            final int end = song.stepEnd(start);
+            stepFrame += FrameScheduler.stepFrames(song, start, end);
+            if (stepFrame > frame || end >= song.size()) {
+                return start;
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Finds the first step starting at or after a frame.
+     *
+     * @param frame The frame, counted from the start of the song
+     * @return The position of the first event of the step, or the size of the song if none starts
+     */
+    public int stepFrom(long frame) {
+        if (measures == 0 || frame > totalFrames) {
+            return song.size();
+        }
+        final int measure = measureAt(frame);
+        int start = events[measure];
+        long stepFrame = frames[measure];
+        while (start < song.size() && stepFrame < frame) {
+            final int end = song.stepEnd(start);
+            stepFrame += FrameScheduler.stepFrames(song, start, end);
+            start = end;
+        }
+        return start;
+    }
+
+    /**
+     * Finds the frame at which an event plays.
+     *
+     * @param position The position of an event, or the size of the song for its end
+     * @return The frame at which the step holding the event starts
+     */
+    public long frameOf(int position) {
+        if (measures == 0 || position >= song.size()) {
+            return totalFrames;
+        }
+        final int measure = measureOf(position);
+        int start = events[measure];
+        long stepFrame = frames[measure];
+        int end;
+        while ((end = song.stepEnd(start)) <= position) {
+            stepFrame += FrameScheduler.stepFrames(song, start, end);
+            start = end;
+        }
+        return stepFrame;
+    }
+
+    /**
+     * Finds where playback starts for a position given as a measure number,
+     * counted from 1, or a time. A time starts with the step playing at it.
+     *
+     * @param spec The position, for example "12", "1:30" or "90.5s"
+     * @return The position of the first event to play
+     * @throws IllegalArgumentException If the position cannot be parsed or is past the end of the song
+     */
+    public int startOf(String spec) {
+        final int start = isMeasure(spec) ? measureStart(measureNumber(spec) - 1) : stepAt(parseFrame(spec));
+        if (start >= song.size()) {
+            throw new IllegalArgumentException("Start past the end of the song: " + spec);
+        }
+        return start;
+    }
+
+    /**
+     * Finds where playback stops for a position given as a measure number,
+     * counted from 1, or a time. A measure is played to its end, a time stops
+     * before the first step starting at or after it.
+     *
+     * @param spec The position, for example "16", "2:00" or "120s"
+     * @return The position after the last event to play
+     * @throws IllegalArgumentException If the position cannot be parsed
+     */
+    public int endOf(String spec) {
+        return isMeasure(spec) ? measureEnd(measureNumber(spec) - 1) : stepFrom(parseFrame(spec));
+    }
+
+    /**
+     * Describes a position as its measure, counted from 1, and its time.
+     *
+     * @param position The position of an event, or the size of the song for its end
+     * @return The position, for example "measure 12 at 0:23.500"
+     */
+    public String describe(int position) {
+        final long frame = frameOf(position);
+        final String time = formatTime(frame);
+        if (position >= song.size()) {
+            return "the end at " + time;
+        }
+        return "measure " + (measureOf(position) + 1) + " at " + time;
+    }
+
+    /**
+     * Checks if a position is given as a measure number.
+     *
+     * @param spec The position
+     * @return True if the position only holds digits
+     */
+    private static boolean isMeasure(String spec) {
+        return spec.strip().matches("\\d+");
+    }
+
+    /**
+     * Parses a measure number and checks that the song has that measure.
+     *
+     * @param spec The measure number, counted from 1
+     * @return The measure number
+     * @throws IllegalArgumentException If the song has no such measure
+     */
+    private int measureNumber(String spec) {
+        final int measure = Integer.parseInt(spec.strip());
+        if (measure < 1 || measure > measures) {
+            throw new IllegalArgumentException("Measure " + measure + " outside 1-" + measures);
+        }
+        return measure;
+    }
+
+    /**
+     * Parses a time as minutes and seconds ("1:30.5") or as seconds ("90.5s").
+     *
+     * @param spec The time
+     * @return The frame at that time
+     * @throws IllegalArgumentException If the time cannot be parsed
+     */
+    static long parseFrame(String spec) {
+        final String s = spec.strip();
+        final double seconds;
+        final int colon = s.indexOf(':');
+        if (colon >= 0) {
+            seconds = Integer.parseInt(s.substring(0, colon)) * 60.0 + Double.parseDouble(s.substring(colon + 1));
+        } else if (s.endsWith("s")) {
+            seconds = Double.parseDouble(s.substring(0, s.length() - 1));
+        } else {
+            throw new IllegalArgumentException("Invalid position: " + spec);
+        }
+        if (!(seconds >= 0) || Double.isInfinite(seconds)) {
+            throw new IllegalArgumentException("Invalid time: " + spec);
+        }
+        return Math.round(seconds * Note.SAMPLE_RATE);
+    }
+
+    /**
+     * Formats a frame as minutes, seconds and milliseconds.
+     *
+     * @param frame The frame, counted from the start of the song
+     * @return The time, for example "1:30.500"
+     */
+    static String formatTime(long frame) {
+        final long ms = frame * 1000 / Note.SAMPLE_RATE;
+        return String.format("%d:%02d.%03d", ms / 60000, ms / 1000 % 60, ms % 1000);
+    }
+}
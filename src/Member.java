@@ -1,58 +1,85 @@
-import java.util.ArrayList;
-import java.util.List;
-
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.SourceDataLine;
-
 import enums.Note;
 import enums.NoteLength;
 
 /**
  * Represents a member of the musical ensemble that plays a specific note.
- * Each Member runs in its own thread and is responsible for playing its
- * assigned note when requested by the Conductor.
+ * Each Member runs in its own thread, or on a shared pool chosen by its
+ * MemberExecutor, and is responsible for playing its assigned note when
+ * requested by the Conductor.
  */
 public class Member implements Runnable {
 
-    /** List of note durations this member needs to play */
-    private final List<NoteLength> songParts;
+    /** Number of silent samples written after every note */
+    static final int REST_SAMPLES = 50;
+
+    /** Whether every played note is logged, turned on with -Dmember.log=true */
+    private static final boolean LOG_NOTES = Boolean.getBoolean("member.log");
+
+    /** Queue of note durations this member needs to play */
+    private final PartQueue songParts;
 
     /** The specific note this member is responsible for playing */
     private final Note note;
 
-    /** The thread that runs this member */
-    private final Thread thread;
+    /** The name used for this member's thread and messages */
+    private final String name;
+
+    /** Decides which thread this member's notes are played on */
+    private final MemberExecutor executor;
+
+    /** The thread that runs this member, or null if it runs on a shared pool */
+    private Thread thread;
+
+    /** Mixer that combines this member's notes with the rest of the choir */
+    private final VoiceMixer mixer;
+
+    /** Rendered bell tones, or null to play plain sine waves */
+    private final ToneCache tones;
 
-    /** Audio line for output */
-    private final SourceDataLine line;
+    /** Passes cues from the Conductor to this member and acknowledgements back */
+    private final Handoff handoff;
 
     /** Flag indicating if this member is currently active */
-    private boolean playing = false;
+    private volatile boolean playing = false;
 
-    /** Flag indicating if a new note is ready to be played */
-    private boolean hasNewNote = false;
+    /** The tempo of the cued note, set by the Conductor before each cue */
+    private Tempo tempo = Tempo.DEFAULT;
 
     /**
      * Constructs a Member that will play a specific note.
      *
-     * @param note The note this member will play
-     * @param lock Synchronization object
-     * @param af   Audio format for playback
-     * @param line Audio output line
+     * @param note    The note this member will play
+     * @param mixer    Mixer the notes are played into
+     * @param tones    Rendered bell tones, or null to play plain sine waves
+     * @param handoff  Handoff used to receive cues from the Conductor
+     * @param executor Decides which thread the notes are played on
      */
-    Member(Note note, SourceDataLine line) {
-        this.songParts = new ArrayList<>();
+    Member(Note note, VoiceMixer mixer, ToneCache tones, Handoff handoff, MemberExecutor executor) {
+        this.songParts = new PartQueue();
         this.note = note;
-        this.line = line;
-        thread = new Thread(this, "Member " + note);
+        this.mixer = mixer;
+        this.tones = tones;
+        this.handoff = handoff;
+        this.executor = executor;
+        this.name = "Member " + note;
     }
 
     /**
-     * Starts this member's thread.
+     * Gets the name used for this member's thread and messages.
+     *
+     * @return The name of this member
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Starts this member's thread, unless its notes run on a shared pool.
      */
     public void startMember() {
-        thread.start();
-        playing = true;
+        // Mark the member as playing before its thread checks the flag.
+        setPlaying(true);
+        thread = executor.startMember(this, name);
     }
 
     /**
@@ -61,9 +88,7 @@ public class Member implements Runnable {
     public void stopMember() {
         setPlaying(false);
         // Wake up the thread if it's waiting
-        synchronized (this) {
-            this.notify();
-        }
+        handoff.stop();
         waitToStop();
     }
 
@@ -71,15 +96,20 @@ public class Member implements Runnable {
      * Waits for this member's thread to finish execution.
      */
     public void waitToStop() {
+        if (thread == null) {
+            return; // Nothing to wait for when notes run on a shared pool.
+        }
         try {
             thread.join();
         } catch (InterruptedException e) {
-            System.err.println(thread.getName() + " stop malfunction");
+            System.err.println(name + " stop malfunction");
         }
     }
 
     /**
      * Assigns a note duration to this member's play queue.
+     * Parts may keep being assigned from the Conductor's thread while this
+     * member is playing.
      *
      * @param nl The note length to add to the queue
      */
@@ -88,21 +118,32 @@ public class Member implements Runnable {
     }
 
     /**
-     * Sets the flag indicating whether a new note is ready to be played.
+     * Signals this member to play its next note at the tempo of the last cue.
+     */
+    public void cue() {
+        handoff.signal();
+        executor.cued(this);
+    }
+
+    /**
+     * Signals this member to play its next note at the given tempo.
+     * The handoff publishes the tempo to the member's thread with the cue.
      *
-     * @param flag True if a new note is ready, false otherwise
+     * @param tempo The tempo of the note
      */
-    public synchronized void setHasNewNote(boolean flag) {
-        hasNewNote = flag;
+    public void cue(Tempo tempo) {
+        this.tempo = tempo;
+        cue();
     }
 
     /**
-     * Checks if a new note is ready to be played.
+     * Waits until this member has played the note it was cued for.
      *
-     * @return True if a new note is ready, false otherwise
+     * @return True if the note was played, false if the member was stopped
+     * @throws InterruptedException If the waiting thread is interrupted
      */
-    public synchronized boolean hasNewNote() {
-        return hasNewNote;
+    public boolean awaitNotePlayed() throws InterruptedException {
+        return handoff.awaitCompletion();
     }
 
     /**
@@ -110,7 +151,7 @@ public class Member implements Runnable {
      *
      * @param playing True to indicate playing, false to stop
      */
-    public synchronized void setPlaying(boolean playing) {
+    public void setPlaying(boolean playing) {
         this.playing = playing;
     }
 
@@ -119,71 +160,93 @@ public class Member implements Runnable {
      *
      * @return True if the member is playing, false otherwise
      */
-    public synchronized boolean isPlaying() {
+    public boolean isPlaying() {
         return playing;
     }
 
     /**
      * The main execution method for this member's thread.
-     * Waits for signals to play notes and handles them accordingly.
+     * Waits for cues from the Conductor and plays a note for each of them.
      */
     @Override
     public void run() {
-        synchronized (this) {
-            try {
-                while (playing) {
-                    // Wait until a new note is signaled or a stop request occurs.
-                    while (!hasNewNote && playing) {
-                        // Timeout ensures periodic check for the playing state.
-                        this.wait(500);
-                    }
-                    if (!playing)
-                        break; // Exit loop if playback has been stopped.
-
-                    if (hasNewNote) { // Process the new note.
-                        playNote();
-                    }
-
-                    // Reset the flag and notify any thread waiting for the note to complete.
-                    hasNewNote = false;
-                    this.notify();
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                System.out.println(thread.getName() + " was interrupted");
+        // Wait until a new note is cued or a stop request occurs.
+        while (playCued()) {
+            // Keep playing until the member is stopped.
+        }
+    }
+
+    /**
+     * Waits for a cue and plays the cued note. Runs on the member's own thread,
+     * or as a single task on a pool worker once the member has been cued.
+     *
+     * @return True if a note was played, false if the member was stopped
+     */
+    boolean playCued() {
+        try {
+            if (!handoff.awaitSignal()) {
+                return false;
             }
+            final NoteEvents.HandoffAcknowledged event = new NoteEvents.HandoffAcknowledged();
+            event.begin();
+            final long wokeNanos = System.nanoTime();
+            final NoteLength nl = playNote();
+            if (event.isEnabled()) {
+                event.note = note.name();
+                event.length = nl == null ? null : nl.name();
+                event.memberThread = Thread.currentThread().getName();
+                event.cuedNanos = handoff.signalNanos();
+                event.wakeLatency = wokeNanos - event.cuedNanos;
+                event.acknowledgedNanos = System.nanoTime();
+            }
+            // Let the Conductor know the note is complete.
+            handoff.complete();
+            event.commit();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println(name + " was interrupted");
+            return false;
         }
     }
 
     /**
      * Plays the next note from the queue.
-     * Removes the first note from songParts, constructs a BellNote and plays it.
+     * Removes the first note length from songParts and plays it.
+     *
+     * @return The length of the note played, or null if there was no part left
      */
-    private void playNote() {
-        NoteLength nl = songParts.remove(0);
+    private NoteLength playNote() {
+        NoteLength nl = songParts.poll();
         if (nl == null) {
             System.err.println("What's my line? Member was asked to play note when they have no song parts left");
-            return;
+            return null;
         }
         // Debug log to show which thread is playing.
-        System.out.println(thread + " playing");
-        BellNote note = new BellNote(this.note, nl);
-        playNote(line, note);
+        if (LOG_NOTES) {
+            System.out.println(Thread.currentThread() + " playing");
+        }
+        playNote(mixer, nl);
+        return nl;
     }
 
     /**
-     * Writes the audio data for the BellNote to the output line.
+     * Adds the audio data for this member's note to the mixer.
      * Plays the note followed by a short rest to simulate a staccato pause.
+     * The Conductor renders the bell tones of a song before cueing it, so a
+     * cached tone is handed to the mixer as it is, without rendering anything
+     * on this thread. The number of samples is looked up in the
+     * table of the tempo the note was cued at.
      *
-     * @param line The SourceDataLine to write audio data.
-     * @param bn   The BellNote to play.
+     * @param mixer The VoiceMixer combining the notes of the current step.
+     * @param nl    The length of the note to play.
      */
-    private void playNote(SourceDataLine line, BellNote bn) {
-        final int ms = Math.min(bn.getLength().timeMs(), Note.MEASURE_LENGTH_SEC * 1000);
-        final int length = Note.SAMPLE_RATE * ms / 1000;
-        // Write the note samples.
-        line.write(bn.getNote().sample(), 0, length);
-        // Add a short rest after playing the note.
-        line.write(Note.REST.sample(), 0, 50);
+    private void playNote(VoiceMixer mixer, NoteLength nl) {
+        // Add the note samples followed by a short rest.
+        if (tones != null) {
+            mixer.mix(tones.tone(note, tempo.samples(nl), VoiceMixer.FORMAT), REST_SAMPLES);
+        } else {
+            mixer.mix(note, tempo.samples(nl), REST_SAMPLES);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,140 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which threads the Conductor and its Members run on.
+ * Members either run their own loop on a dedicated platform or virtual thread,
+ * or have each cued note played as a task on a fixed pool of worker threads
+ * that can be shared by many Conductors.
+ */
+public class MemberExecutor {
+
+    /**
+     * The available execution models.
+     */
+    public enum Mode {
+        /** One platform thread per Member */
+        PLATFORM,
+        /** One virtual thread per Member */
+        VIRTUAL,
+        /** Cued notes are played on a fixed pool of platform threads */
+        POOL;
+
+        /**
+         * Finds the mode with the given name, ignoring case.
+         *
+         * @param name The name of the mode
+         * @return The matching mode
+         * @throws IllegalArgumentException If no mode has the given name
+         */
+        public static Mode fromName(String name) {
+            return valueOf(name.strip().toUpperCase());
+        }
+    }
+
+    /** The execution model of this executor */
+    private final Mode mode;
+
+    /** Worker threads that play cued notes, only used in POOL mode */
+    private final ExecutorService pool;
+
+    /**
+     * Constructs an executor using one platform thread per Member.
+     */
+    public MemberExecutor() {
+        this(Mode.PLATFORM, 0);
+    }
+
+    /**
+     * Constructs an executor with the given execution model.
+     *
+     * @param mode     The execution model
+     * @param poolSize The number of worker threads, only used in POOL mode
+     */
+    public MemberExecutor(Mode mode, int poolSize) {
+        this.mode = mode;
+        if (mode == Mode.POOL) {
+            final AtomicInteger count = new AtomicInteger();
+            final ThreadFactory factory = r -> {
+                Thread t = new Thread(r, "Member pool-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            };
+            pool = Executors.newFixedThreadPool(Math.max(1, poolSize), factory);
+        } else {
+            pool = null;
+        }
+    }
+
+    /**
+     * Gets the execution model of this executor.
+     *
+     * @return The execution model
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Creates an unstarted thread for a long running loop such as a Conductor.
+     * Virtual threads are used in VIRTUAL mode and platform threads otherwise,
+     * since a loop that blocks must never occupy a pool worker.
+     *
+     * @param task The loop to run
+     * @param name The name of the thread
+     * @return The new thread
+     */
+    public Thread newThread(Runnable task, String name) {
+        if (mode == Mode.VIRTUAL) {
+            return Thread.ofVirtual().name(name).unstarted(task);
+        }
+        return Thread.ofPlatform().name(name).unstarted(task);
+    }
+
+    /**
+     * Starts a Member. In PLATFORM and VIRTUAL mode the member runs its loop on
+     * a thread of its own; in POOL mode nothing runs until it is cued.
+     *
+     * @param member The member to start
+     * @param name   The name of the member's thread
+     * @return The member's thread, or null if its notes run on the pool
+     */
+    public Thread startMember(Member member, String name) {
+        if (mode == Mode.POOL) {
+            return null;
+        }
+        Thread thread = newThread(member, name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Called after a Member has been cued. In POOL mode the note is played
+     * by the next free worker; dedicated threads pick up the cue themselves.
+     *
+     * @param member The member that was cued
+     */
+    public void cued(Member member) {
+        if (mode == Mode.POOL) {
+            pool.execute(member::playCued);
+        }
+    }
+
+    /**
+     * Shuts down the worker pool, if any, and waits for running notes to end.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("Interrupted while shutting down the member pool");
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * The original handoff between Conductor and Member, built on a monitor with
+ * wait/notify. Both sides wait with a timeout so that a missed notification
+ * is eventually noticed.
+ */
+public class MonitorHandoff extends Handoff {
+
+    /** Flag indicating if a new note is ready to be played */
+    private boolean hasNewNote = false;
+
+    /** Flag indicating if the handoff has been stopped */
+    private boolean stopped = false;
+
+    /**
+     * Constructs a monitor based handoff.
+     *
+     * @param stats The statistics to record into
+     */
+    public MonitorHandoff(HandoffStats stats) {
+        super(stats);
+    }
+
+    @Override
+    protected synchronized void doSignal() {
+        hasNewNote = true;
+        notifyAll();
+    }
+
+    @Override
+    protected synchronized boolean doAwaitSignal() throws InterruptedException {
+        // Timeout ensures periodic check for the stopped state.
+        while (!hasNewNote && !stopped) {
+            wait(500);
+        }
+        return !stopped;
+    }
+
+    @Override
+    public synchronized void complete() {
+        // Reset the flag and notify the Conductor waiting for the note to complete.
+        hasNewNote = false;
+        notifyAll();
+    }
+
+    @Override
+    protected synchronized boolean doAwaitCompletion() throws InterruptedException {
+        while (hasNewNote && !stopped) {
+            wait(1000); // Timeout to avoid potential deadlock.
+        }
+        if (stopped) {
+            // If stopping mid-note, clear the new note flag.
+            hasNewNote = false;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized boolean isStopped() {
+        return stopped;
+    }
+}
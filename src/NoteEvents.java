@@ -0,0 +1,171 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events following each note through playback.
+ * A note is scheduled by the Conductor, acknowledged by its Member once it is
+ * in the mixer, written to the line with the rest of its step, and finally
+ * the line is drained at the end of the song. Each event carries the frame
+ * or time at which it was expected and the one actually observed. Times are
+ * System.nanoTime values, frames are positions on the audio line.
+ * The events cost next to nothing unless a recording is running, for example
+ * one started with -XX:StartFlightRecording.
+ */
+public final class NoteEvents {
+
+    /**
+     * Prevents instantiation, this class only groups the events.
+     */
+    private NoteEvents() {
+    }
+
+    /**
+     * The Conductor cued a Member to play a note.
+     */
+    @Name("bellchoir.NoteScheduled")
+    @Label("Note Scheduled")
+    @Category("Bell Choir")
+    @Description("The Conductor cued a Member to play a note of the next step")
+    @StackTrace(false)
+    static final class Scheduled extends Event {
+        /** The note cued */
+        @Label("Note")
+        String note;
+
+        /** The length of the note */
+        @Label("Length")
+        String length;
+
+        /** The member playing the note */
+        @Label("Member")
+        String member;
+
+        /** The number of the step the note belongs to */
+        @Label("Step")
+        int step;
+
+        /** Frame at which the step should start */
+        @Label("Expected Frame")
+        long expectedFrame;
+
+        /** Frame the line was playing when the note was cued */
+        @Label("Observed Frame")
+        long observedFrame;
+
+        /** Time at which the step should start playing */
+        @Label("Expected Nanos")
+        long expectedNanos;
+
+        /** Time at which the note was cued */
+        @Label("Observed Nanos")
+        long observedNanos;
+    }
+
+    /**
+     * A Member added its note to the mixer and acknowledged the cue.
+     */
+    @Name("bellchoir.HandoffAcknowledged")
+    @Label("Handoff Acknowledged")
+    @Category("Bell Choir")
+    @Description("A Member played its cued note into the mixer and acknowledged the cue")
+    @StackTrace(false)
+    static final class HandoffAcknowledged extends Event {
+        /** The note played */
+        @Label("Note")
+        String note;
+
+        /** The length of the note */
+        @Label("Length")
+        String length;
+
+        /** The thread the note was played on */
+        @Label("Member Thread")
+        String memberThread;
+
+        /** Time at which the Conductor cued the note */
+        @Label("Cued Nanos")
+        long cuedNanos;
+
+        /** Time at which the Member acknowledged the note */
+        @Label("Acknowledged Nanos")
+        long acknowledgedNanos;
+
+        /** Time from the cue until the Member woke up */
+        @Label("Wake Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long wakeLatency;
+    }
+
+    /**
+     * A mixed step was written to the line.
+     */
+    @Name("bellchoir.SamplesWritten")
+    @Label("Samples Written")
+    @Category("Bell Choir")
+    @Description("The mixer wrote a step, padded to the start of the next step, to the line")
+    @StackTrace(false)
+    static final class SamplesWritten extends Event {
+        /** The number of the step */
+        @Label("Step")
+        int step;
+
+        /** The number of frames written */
+        @Label("Frames")
+        int frames;
+
+        /** Frame at which the step starts */
+        @Label("Expected Frame")
+        long expectedFrame;
+
+        /** Frame the line was playing when the step was written */
+        @Label("Observed Frame")
+        long observedFrame;
+
+        /** Time at which the step should start playing */
+        @Label("Expected Nanos")
+        long expectedNanos;
+
+        /** Time at which the step was written */
+        @Label("Observed Nanos")
+        long observedNanos;
+
+        /** Whether the line had already played everything before this step */
+        @Label("Late")
+        boolean late;
+
+        /** Whether the line ran dry while this step was written */
+        @Label("Underrun")
+        boolean underrun;
+    }
+
+    /**
+     * The line played out everything written for the song.
+     */
+    @Name("bellchoir.LineDrained")
+    @Label("Line Drained")
+    @Category("Bell Choir")
+    @Description("The line finished playing every frame scheduled for the song")
+    @StackTrace(false)
+    static final class LineDrained extends Event {
+        /** The number of frames scheduled for the song */
+        @Label("Expected Frame")
+        long expectedFrame;
+
+        /** The position of the line once drained */
+        @Label("Observed Frame")
+        long observedFrame;
+
+        /** Time at which the song should end */
+        @Label("Expected Nanos")
+        long expectedNanos;
+
+        /** Time at which the line was drained */
+        @Label("Observed Nanos")
+        long observedNanos;
+    }
+}
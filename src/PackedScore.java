@@ -0,0 +1,78 @@
+import java.util.Arrays;
+
+import enums.Note;
+import enums.NoteLength;
+
+/**
+ * A Score that stores its events in growable chunks of an int array.
+ * Appending never copies more than one chunk, so songs with millions of
+ * events grow without large reallocations, while short songs stay small.
+ */
+public class PackedScore extends Score {
+
+    /** Number of bits addressing an event within a chunk */
+    private static final int CHUNK_SHIFT = 12;
+
+    /** Number of events in a full chunk */
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    /** Mask selecting the position of an event within its chunk */
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** Initial capacity of the first chunk */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The chunks holding the events */
+    private int[][] chunks = new int[1][];
+
+    /** The number of events in this score */
+    private int size = 0;
+
+    /**
+     * Appends a note to the end of the score.
+     *
+     * @param note   The pitch of the note
+     * @param length The duration of the note
+     * @param chord  True if the note sounds together with the previous note
+     */
+    public void add(Note note, NoteLength length, boolean chord) {
+        append(encode(note, length, chord));
+    }
+
+    /**
+     * Appends a packed event to the end of the score.
+     *
+     * @param event The packed event
+     */
+    public void append(int event) {
+        final int c = size >>> CHUNK_SHIFT;
+        final int offset = size & CHUNK_MASK;
+        if (c == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        int[] chunk = chunks[c];
+        if (chunk == null) {
+            chunk = new int[c == 0 ? INITIAL_CAPACITY : CHUNK_SIZE];
+            chunks[c] = chunk;
+        } else if (offset == chunk.length) {
+            // Only a chunk that started small is ever grown, up to the full chunk size.
+            chunk = Arrays.copyOf(chunk, Math.min(CHUNK_SIZE, chunk.length * 2));
+            chunks[c] = chunk;
+        }
+        chunk[offset] = event;
+        size++;
+    }
+
+    @Override
+    public int event(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
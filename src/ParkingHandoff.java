@@ -0,0 +1,111 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A handoff between Conductor and Member that never takes a monitor.
+ * The state of the note lives in an atomic integer; each side spins briefly
+ * and then parks until the other side unparks it, so every note costs at most
+ * one park/unpark pair in each direction.
+ */
+public class ParkingHandoff extends Handoff {
+
+    /** No note is pending */
+    private static final int IDLE = 0;
+
+    /** A note has been signalled and not yet played */
+    private static final int CUED = 1;
+
+    /** The handoff has been stopped */
+    private static final int STOPPED = 2;
+
+    /** Number of times to check the state before parking */
+    private static final int SPIN_LIMIT = 100;
+
+    /** The current state of the note */
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+
+    /** The Member thread waiting for a signal */
+    private volatile Thread member;
+
+    /** The Conductor thread waiting for completion */
+    private volatile Thread conductor;
+
+    /**
+     * Constructs a lock-free handoff.
+     *
+     * @param stats The statistics to record into
+     */
+    public ParkingHandoff(HandoffStats stats) {
+        super(stats);
+    }
+
+    @Override
+    protected void doSignal() {
+        conductor = Thread.currentThread();
+        if (state.compareAndSet(IDLE, CUED)) {
+            LockSupport.unpark(member);
+        }
+    }
+
+    @Override
+    protected boolean doAwaitSignal() throws InterruptedException {
+        member = Thread.currentThread();
+        return await(CUED);
+    }
+
+    @Override
+    public void complete() {
+        if (state.compareAndSet(CUED, IDLE)) {
+            LockSupport.unpark(conductor);
+        }
+    }
+
+    @Override
+    protected boolean doAwaitCompletion() throws InterruptedException {
+        conductor = Thread.currentThread();
+        return await(IDLE);
+    }
+
+    @Override
+    public void stop() {
+        state.set(STOPPED);
+        LockSupport.unpark(member);
+        LockSupport.unpark(conductor);
+    }
+
+    @Override
+    public boolean isStopped() {
+        return state.get() == STOPPED;
+    }
+
+    /**
+     * Waits until the state reaches the expected value or the handoff stops.
+     * The waiting thread must have registered itself before calling this, so
+     * an unpark issued after the state check is never lost.
+     *
+     * @param expected The state to wait for
+     * @return True if the expected state was reached, false if stopped
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    private boolean await(int expected) throws InterruptedException {
+        int spins = 0;
+        while (true) {
+            final int current = state.get();
+            if (current == expected) {
+                return true;
+            }
+            if (current == STOPPED) {
+                return false;
+            }
+            if (spins < SPIN_LIMIT) {
+                spins++;
+                Thread.onSpinWait();
+            } else {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import enums.NoteLength;
+
+/**
+ * A queue of the note lengths a Member still has to play.
+ * The lengths are stored as byte-sized NoteLength ordinals in a ring buffer
+ * that doubles when full, so adding and taking a part are amortized O(1).
+ * One thread (the Conductor) may keep adding parts while another thread (the
+ * Member) takes them, without any locking.
+ */
+public class PartQueue {
+
+    /** Initial number of parts the ring buffer can hold, a power of two */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** All note lengths, indexed by ordinal */
+    private static final NoteLength[] LENGTHS = NoteLength.values();
+
+    /** The ring buffer, its length is always a power of two */
+    private volatile byte[] buffer = new byte[INITIAL_CAPACITY];
+
+    /** Number of parts taken so far, only written by the consuming thread */
+    private volatile long head = 0;
+
+    /** Number of parts added so far, only written by the producing thread */
+    private volatile long tail = 0;
+
+    /**
+     * Adds a part to the end of the queue. Must only be called from a single
+     * producing thread.
+     *
+     * @param nl The note length to add
+     */
+    public void add(NoteLength nl) {
+        final long t = tail;
+        byte[] b = buffer;
+        if (t - head == b.length) {
+            // Full: copy the parts not yet taken into a buffer twice the size.
+            // The consumer may still read from the old buffer, which is never
+            // written again.
+            final byte[] larger = new byte[b.length * 2];
+            for (long i = head; i < t; i++) {
+                larger[(int) i & (larger.length - 1)] = b[(int) i & (b.length - 1)];
+            }
+            buffer = larger;
+            b = larger;
+        }
+        b[(int) t & (b.length - 1)] = (byte) nl.ordinal();
+        // Publishing the new tail makes the part visible to the consumer.
+        tail = t + 1;
+    }
+
+    /**
+     * Takes the part at the front of the queue. Must only be called from a
+     * single consuming thread.
+     *
+     * @return The note length at the front, or null if the queue is empty
+     */
+    public NoteLength poll() {
+        final long h = head;
+        if (h == tail) {
+            return null;
+        }
+        // Read the buffer after the tail so a part added to a new buffer is seen.
+        final byte[] b = buffer;
+        final NoteLength nl = LENGTHS[b[(int) h & (b.length - 1)]];
+        head = h + 1;
+        return nl;
+    }
+
+    /**
+     * Checks if there are no parts left in the queue.
+     *
+     * @return True if the queue is empty
+     */
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * Gets the number of parts left in the queue.
+     *
+     * @return The number of parts not yet taken
+     */
+    public int size() {
+        return (int) (tail - head);
+    }
+}
@@ -0,0 +1,860 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import enums.Note;
+
+/**
+ * Conducts a choir of RemoteMembers, each running in its own JVM and playing
+ * on its own audio line, over TCP sockets. The bells of a song are shared out
+ * among the members, and every note is sent ahead of time with the frame it
+ * starts at, so the members play against a shared timeline rather than
+ * whenever a message happens to arrive. The clock of each member is measured
+ * against the conductor's before the first song and kept up to date by a
+ * heartbeat, so the timeline starts at the same moment everywhere. A member
+ * that closes its socket or stops answering the heartbeat is dropped: its
+ * bells go to the members that are left, along with every note of those
+ * bells that has not finished playing. The conductor listens on the loopback
+ * address unless it is given another, so that members on other machines can
+ * join.
+ */
+public class RemoteChoir implements AutoCloseable {
+
+    /** Default port the conductor listens on */
+    static final int DEFAULT_PORT = 7300;
+
+    /** Default number of members to wait for */
+    static final int DEFAULT_MEMBERS = 2;
+
+    /** Default time a note is sent ahead of its frame, in milliseconds */
+    static final int DEFAULT_AHEAD_MS = 500;
+
+    /** Explains the choir properties when they are invalid */
+    static final String USAGE = "Invalid choir, use -Dchoir.port=[PORT] (0 for any free port with choir.spawn), "
+            + "-Dchoir.bind=[ADDRESS] (0.0.0.0 for every interface), -Dchoir.members=[COUNT], -Dchoir.ahead=[MS] "
+            + "and -Dchoir.spawn=true to start the members here";
+
+    /** Number of clock samples taken from each member before the first song */
+    private static final int SYNC_ROUNDS = 8;
+
+    /** Time between heartbeats */
+    private static final long HEARTBEAT_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    /** Time without a message after which a member is dropped */
+    private static final long SILENCE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** Longest time to wait for a member to join */
+    private static final int JOIN_TIMEOUT_MS = 10_000;
+
+    /** Longest time to wait for the members to finish, on top of the length of the song */
+    private static final long DONE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /** The socket members connect to */
+    private final ServerSocket server;
+
+    /** Time a note is sent ahead of its frame, in milliseconds */
+    private final int aheadMs;
+
+    /** Time a note is sent ahead of its frame, in nanoseconds */
+    private final long aheadNanos;
+
+    /** The members that joined, including those dropped since */
+    private final List<Seat> seats = new ArrayList<>();
+
+    /** The member ringing each bell of the current song */
+    private final Map<Note, Seat> owners = new EnumMap<>(Note.class);
+
+    /** Member JVMs started by this conductor */
+    private final List<Process> spawned = new ArrayList<>();
+
+    /** Sends the heartbeat and drops silent members, started once the members have gathered */
+    private Thread heartbeat;
+
+    /** Conductor clock at which frame 0 of the current song plays */
+    private long startNanos = 0;
+
+    /** Set once close has been called */
+    private volatile boolean closed = false;
+
+    /**
+     * One member of the choir as the conductor sees it.
+     */
+    private final class Seat implements Runnable {
+        /** The socket to the member */
+        final Socket socket;
+
+        /** Messages from the member */
+        final DataInputStream in;
+
+        /** Messages to the member, only written while holding the choir */
+        final DataOutputStream out;
+
+        /** The name the member introduced itself with */
+        final String name;
+
+        /** Reads the messages of the member */
+        final Thread reader;
+
+        /** Notes sent to the member that have not finished playing: frame, note ordinal, samples */
+        final ArrayDeque<int[]> pending = new ArrayDeque<>();
+
+        /** Member clock minus conductor clock, in nanoseconds */
+        long offset = 0;
+
+        /** Round trip of the clock sample the offset was taken from, in nanoseconds */
+        long rtt = Long.MAX_VALUE;
+
+        /** Conductor clock when the last message arrived */
+        volatile long lastHeard = System.nanoTime();
+
+        /** Why the heartbeat closed the socket, or null */
+        volatile String silence;
+
+        /** False once the member has been dropped */
+        boolean alive = true;
+
+        /** The report of the member for the current song, or null */
+        ChoirProtocol.Message done;
+
+        /**
+         * Constructs a seat for a member that has introduced itself.
+         *
+         * @param socket The socket to the member
+         * @param in     The stream the HELLO was read from
+         * @param name   The name of the member
+         * @throws IOException If the output stream cannot be opened
+         */
+        Seat(Socket socket, DataInputStream in, String name) throws IOException {
+            this.socket = socket;
+            this.in = in;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.name = name;
+            this.reader = Thread.ofPlatform().name("Choir " + name).daemon().unstarted(this);
+        }
+
+        /**
+         * Reads messages from the member until its socket closes, then drops
+         * it.
+         */
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final ChoirProtocol.Message m = ChoirProtocol.read(in);
+                    lastHeard = System.nanoTime();
+                    if (m.type == ChoirProtocol.SYNC_REPLY) {
+                        measure(this, m, lastHeard);
+                    } else if (m.type == ChoirProtocol.DONE) {
+                        report(this, m);
+                    } else {
+                        throw new IOException("Unexpected message type " + m.type);
+                    }
+                }
+            } catch (IOException e) {
+                drop(this, silence != null ? silence : e.getMessage() == null ? "connection lost" : e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Listens for members on the given address and port.
+     *
+     * @param bind    The address to listen on, the wildcard address for every interface
+     * @param port    The port to listen on, 0 for any free port
+     * @param aheadMs The time a note is sent ahead of its frame, in milliseconds
+     * @throws IOException If the port cannot be opened
+     */
+    public RemoteChoir(InetAddress bind, int port, int aheadMs) throws IOException {
+        this.server = new ServerSocket(port, 50, bind);
+        this.aheadMs = aheadMs;
+        this.aheadNanos = TimeUnit.MILLISECONDS.toNanos(aheadMs);
+    }
+
+    /**
+     * Gets the port the conductor listens on.
+     *
+     * @return The local port
+     */
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Gets the address members on this machine reach the conductor at.
+     *
+     * @return The address listened on, or the loopback address when listening on every interface
+     */
+    String localHost() {
+        final InetAddress bound = server.getInetAddress();
+        return (bound.isAnyLocalAddress() ? InetAddress.getLoopbackAddress() : bound).getHostAddress();
+    }
+
+    /**
+     * Starts member JVMs on this machine with the class path and JVM options
+     * of this one. They are destroyed when the choir is closed.
+     *
+     * @param count The number of members to start
+     * @throws IOException If a JVM cannot be started
+     */
+    public void spawn(int count) throws IOException {
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (int i = 1; i <= count; i++) {
+            final List<String> command = new ArrayList<>();
+            command.add(java);
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-Dchoir.host=" + localHost());
+            command.add("-Dchoir.port=" + port());
+            command.add("-Dchoir.name=member-" + i);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(RemoteMember.class.getName());
+            spawned.add(new ProcessBuilder(command).inheritIO().start());
+        }
+    }
+
+    /**
+     * Waits for members to join, then measures their clocks and starts the
+     * heartbeat.
+     *
+     * @param count The number of members to wait for
+     * @return The number of members that joined
+     */
+    public int gather(int count) {
+        try {
+            server.setSoTimeout(JOIN_TIMEOUT_MS);
+            while (seats.size() < count) {
+                final Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                try {
+                    final ChoirProtocol.Message hello = ChoirProtocol.read(in);
+                    if (hello.type != ChoirProtocol.HELLO) {
+                        throw new IOException("Expected HELLO, got message type " + hello.type);
+                    }
+                    final Seat seat = new Seat(socket, in, hello.name);
+                    synchronized (this) {
+                        seats.add(seat);
+                    }
+                    seat.reader.start();
+                    System.out.println("Choir: " + seat.name + " joined from " + socket.getRemoteSocketAddress());
+                } catch (IOException e) {
+                    System.err.println("Choir: rejected " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+                    socket.close();
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            System.err.println("Choir: only " + seats.size() + " of " + count + " members joined");
+        } catch (IOException e) {
+            System.err.println("Choir: failed to accept members: " + e.getMessage());
+        }
+        for (int round = 0; round < SYNC_ROUNDS; round++) {
+            synchronized (this) {
+                for (Seat seat : alive()) {
+                    send(seat, s -> {
+                        ChoirProtocol.writeSync(s.out, System.nanoTime());
+                        s.out.flush();
+                    });
+                }
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        if (heartbeat == null) {
+            heartbeat = Thread.ofPlatform().name("Choir heartbeat").daemon().start(this::beat);
+        }
+        return alive().size();
+    }
+
+    /**
+     * Plays a song on the members, waiting until they have all played it
+     * out.
+     *
+     * @param score The song
+     * @return True if at least one member played the song to the end
+     */
+    public boolean play(Score score) {
+        final List<Seat> members;
+        synchronized (this) {
+            members = alive();
+            if (members.isEmpty()) {
+                System.err.println("Choir: no members to play the song");
+                return false;
+            }
+            assign(score, members);
+            startNanos = System.nanoTime() + aheadNanos;
+            for (Seat seat : members) {
+                seat.done = null;
+                seat.pending.clear();
+                send(seat, s -> {
+                    ChoirProtocol.writeStart(s.out, startNanos + s.offset, aheadMs);
+                    s.out.flush();
+                });
+            }
+        }
+        long frame = 0;
+        for (int start = 0; start < score.size(); start = score.stepEnd(start)) {
+            final int end = score.stepEnd(start);
+            waitUntil(startNanos + nanosFor(frame) - aheadNanos);
+            synchronized (this) {
+                if (alive().isEmpty()) {
+                    return false;
+                }
+                prune(frameAt(System.nanoTime()));
+                final Tempo tempo = score.tempoAt(start);
+                for (int i = start; i < end; i++) {
+                    if (score.note(i) != Note.REST) {
+                        cue(score.note(i), new int[] {(int) frame, score.note(i).ordinal(),
+                                tempo.samples(score.length(i))});
+                    }
+                }
+                flush();
+            }
+            frame += FrameScheduler.stepFrames(score, start, end);
+        }
+        final int frames = (int) frame;
+        synchronized (this) {
+            for (Seat seat : alive()) {
+                send(seat, s -> {
+                    ChoirProtocol.writeEnd(s.out, frames);
+                    s.out.flush();
+                });
+            }
+        }
+        return awaitDone(startNanos + nanosFor(frames) + DONE_TIMEOUT_NANOS);
+    }
+
+    /**
+     * Shares out the bells of a song among the members round-robin and tells
+     * each member its bells.
+     *
+     * @param score   The song
+     * @param members The members that are still alive
+     */
+    private void assign(Score score, List<Seat> members) {
+        final TreeSet<Note> bells = new TreeSet<>();
+        for (int i = 0; i < score.size(); i++) {
+            if (score.note(i) != Note.REST) {
+                bells.add(score.note(i));
+            }
+        }
+        owners.clear();
+        int next = 0;
+        for (Note bell : bells) {
+            owners.put(bell, members.get(next++ % members.size()));
+        }
+        for (Seat seat : members) {
+            sendBells(seat);
+        }
+    }
+
+    /**
+     * Sends a member the bells it rings.
+     *
+     * @param seat The member
+     */
+    private void sendBells(Seat seat) {
+        final List<Note> bells = bellsOf(seat);
+        System.out.println("Choir: " + seat.name + " rings " + bells);
+        send(seat, s -> ChoirProtocol.writeAssign(s.out, bells.toArray(new Note[0])));
+    }
+
+    /**
+     * Lists the bells a member rings in the current song. Must be called
+     * while holding the choir.
+     *
+     * @param seat The member
+     * @return The bells, lowest first
+     */
+    private List<Note> bellsOf(Seat seat) {
+        final List<Note> bells = new ArrayList<>();
+        for (Map.Entry<Note, Seat> e : owners.entrySet()) {
+            if (e.getValue() == seat) {
+                bells.add(e.getKey());
+            }
+        }
+        return bells;
+    }
+
+    /**
+     * Sends a note to the member ringing its bell. The note is recorded as
+     * pending first, so it is sent again if the member drops out while it
+     * is being sent.
+     *
+     * @param bell The bell of the note
+     * @param part The start frame, note ordinal and number of samples
+     */
+    private void cue(Note bell, int[] part) {
+        final Seat seat = owners.get(bell);
+        if (seat == null) {
+            return;
+        }
+        seat.pending.add(part);
+        send(seat, s -> ChoirProtocol.writePlay(s.out, part[0], bell, part[2]));
+    }
+
+    /**
+     * Forgets the pending notes that have finished playing.
+     *
+     * @param frame The frame playing now
+     */
+    private void prune(long frame) {
+        for (Seat seat : alive()) {
+            seat.pending.removeIf(part -> part[0] + (long) part[2] <= frame);
+        }
+    }
+
+    /**
+     * Flushes the messages written to every member.
+     */
+    private void flush() {
+        for (Seat seat : alive()) {
+            send(seat, s -> s.out.flush());
+        }
+    }
+
+    /**
+     * Something written to a member.
+     */
+    @FunctionalInterface
+    private interface Outgoing {
+        /**
+         * Writes to the member.
+         *
+         * @param seat The member
+         * @throws IOException If writing fails
+         */
+        void writeTo(Seat seat) throws IOException;
+    }
+
+    /**
+     * Writes to a member, dropping it if the write fails. Must be called
+     * while holding the choir.
+     *
+     * @param seat    The member
+     * @param message What to write
+     */
+    private void send(Seat seat, Outgoing message) {
+        if (!seat.alive) {
+            return;
+        }
+        try {
+            message.writeTo(seat);
+        } catch (IOException e) {
+            drop(seat, e.getMessage() == null ? "write failed" : e.getMessage());
+        }
+    }
+
+    /**
+     * Drops a member: closes its socket, shares its bells among the members
+     * left, and sends them every note of those bells that has not finished
+     * playing.
+     *
+     * @param seat   The member
+     * @param reason Why it is dropped
+     */
+    private synchronized void drop(Seat seat, String reason) {
+        if (!seat.alive) {
+            return;
+        }
+        seat.alive = false;
+        close(seat.socket);
+        notifyAll();
+        if (closed) {
+            return;
+        }
+        System.err.println("Choir: " + seat.name + " dropped out (" + reason + ")");
+        final List<Seat> members = alive();
+        final List<Note> bells = bellsOf(seat);
+        if (members.isEmpty()) {
+            owners.clear();
+            System.err.println("Choir: every member has dropped out");
+            return;
+        }
+        int next = 0;
+        for (Note bell : bells) {
+            owners.put(bell, members.get(next++ % members.size()));
+        }
+        for (Seat member : members) {
+            if (owners.containsValue(member) && !bells.isEmpty()) {
+                sendBells(member);
+            }
+        }
+        final long now = frameAt(System.nanoTime());
+        int resent = 0;
+        for (int[] part : seat.pending) {
+            if (part[0] + (long) part[2] > now) {
+                cue(Note.values()[part[1]], part);
+                resent++;
+            }
+        }
+        seat.pending.clear();
+        flush();
+        if (!bells.isEmpty()) {
+            System.err.println("Choir: moved " + bells + " and " + resent + " pending notes to the members left");
+        }
+    }
+
+    /**
+     * Takes a clock sample from a SYNC_REPLY. The offset is only replaced by
+     * samples with a round trip no longer than the one it came from, which
+     * is slowly allowed to grow so the offset follows a drifting clock.
+     *
+     * @param seat     The member
+     * @param m        The reply
+     * @param received The conductor clock when the reply arrived
+     */
+    private synchronized void measure(Seat seat, ChoirProtocol.Message m, long received) {
+        final long rtt = (received - m.sent) - (m.replied - m.received);
+        if (seat.rtt != Long.MAX_VALUE) {
+            seat.rtt += seat.rtt / 16;
+        }
+        if (rtt >= 0 && rtt <= seat.rtt) {
+            seat.rtt = rtt;
+            seat.offset = ((m.received - m.sent) + (m.replied - received)) / 2;
+        }
+    }
+
+    /**
+     * Records the report of a member at the end of a song.
+     *
+     * @param seat The member
+     * @param m    The report
+     */
+    private synchronized void report(Seat seat, ChoirProtocol.Message m) {
+        seat.done = m;
+        notifyAll();
+    }
+
+    /**
+     * Waits until every member left has reported the end of the song.
+     *
+     * @param deadline The conductor clock to give up at
+     * @return True if at least one member reported
+     */
+    private synchronized boolean awaitDone(long deadline) {
+        try {
+            while (!alive().stream().allMatch(s -> s.done != null)) {
+                final long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    System.err.println("Choir: timed out waiting for the members to finish");
+                    break;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Choir: interrupted while waiting for the members to finish");
+        }
+        boolean played = false;
+        for (Seat seat : alive()) {
+            if (seat.done != null) {
+                played = true;
+                System.out.println("Choir: " + seat.name + " played " + seat.done.played + " notes, "
+                        + seat.done.late + " late, " + seat.done.underruns + " underruns, clock offset "
+                        + seat.offset / 1000 + " us (round trip " + seat.rtt / 1000 + " us)");
+            }
+        }
+        return played;
+    }
+
+    /**
+     * Sends a SYNC to every member at each heartbeat, and drops the members
+     * that have been silent too long. A silent member's socket is closed
+     * before the choir is locked, so a write stuck on it cannot hold up the
+     * heartbeat.
+     */
+    private void beat() {
+        while (!closed) {
+            LockSupport.parkNanos(this, HEARTBEAT_NANOS);
+            final List<Seat> members;
+            synchronized (this) {
+                members = alive();
+            }
+            final long now = System.nanoTime();
+            for (Seat seat : members) {
+                if (now - seat.lastHeard > SILENCE_NANOS) {
+                    seat.silence = "silent for " + TimeUnit.NANOSECONDS.toMillis(now - seat.lastHeard) + " ms";
+                    close(seat.socket);
+                    drop(seat, seat.silence);
+                }
+            }
+            synchronized (this) {
+                for (Seat seat : alive()) {
+                    send(seat, s -> {
+                        ChoirProtocol.writeSync(s.out, System.nanoTime());
+                        s.out.flush();
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists the members that have not been dropped.
+     *
+     * @return The members left
+     */
+    private synchronized List<Seat> alive() {
+        final List<Seat> members = new ArrayList<>();
+        for (Seat seat : seats) {
+            if (seat.alive) {
+                members.add(seat);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Lists the names of the members that have not been dropped.
+     *
+     * @return The names, in the order the members joined
+     */
+    synchronized List<String> members() {
+        final List<String> names = new ArrayList<>();
+        for (Seat seat : alive()) {
+            names.add(seat.name);
+        }
+        return names;
+    }
+
+    /**
+     * Finds a member that has not been dropped by its name.
+     *
+     * @param name The name of the member
+     * @return The member
+     * @throws IllegalArgumentException If no member left has that name
+     */
+    private synchronized Seat seat(String name) {
+        for (Seat seat : alive()) {
+            if (seat.name.equals(name)) {
+                return seat;
+            }
+        }
+        throw new IllegalArgumentException("No member named " + name);
+    }
+
+    /**
+     * Lists the bells a member rings in the current song.
+     *
+     * @param name The name of the member
+     * @return The bells, lowest first
+     * @throws IllegalArgumentException If no member left has that name
+     */
+    synchronized List<Note> bells(String name) {
+        return bellsOf(seat(name));
+    }
+
+    /**
+     * Lists the notes sent to a member that have not finished playing.
+     *
+     * @param name The name of the member
+     * @return The notes as start frame, note ordinal and number of samples, in the order they were sent
+     * @throws IllegalArgumentException If no member left has that name
+     */
+    synchronized List<int[]> pending(String name) {
+        return new ArrayList<>(seat(name).pending);
+    }
+
+    /**
+     * Gets how far the clock of a member is from the conductor's.
+     *
+     * @param name The name of the member
+     * @return The member clock minus the conductor clock, in nanoseconds
+     * @throws IllegalArgumentException If no member left has that name
+     */
+    synchronized long clockOffset(String name) {
+        return seat(name).offset;
+    }
+
+    /**
+     * Gets the round trip of the clock sample the offset of a member was
+     * taken from. The offset is off by at most half of it.
+     *
+     * @param name The name of the member
+     * @return The round trip in nanoseconds, Long.MAX_VALUE if no sample has been taken
+     * @throws IllegalArgumentException If no member left has that name
+     */
+    synchronized long roundTrip(String name) {
+        return seat(name).rtt;
+    }
+
+    /**
+     * Converts a conductor clock reading to a frame of the current song.
+     *
+     * @param nanos The conductor clock
+     * @return The frame playing at that time
+     */
+    private long frameAt(long nanos) {
+        return (nanos - startNanos) * Note.SAMPLE_RATE / 1_000_000_000L;
+    }
+
+    /**
+     * Converts a number of frames to the time they take to play.
+     *
+     * @param frames The number of frames
+     * @return The time in nanoseconds
+     */
+    private static long nanosFor(long frames) {
+        return frames * 1_000_000_000L / Note.SAMPLE_RATE;
+    }
+
+    /**
+     * Parks the calling thread until the conductor clock reaches a time.
+     *
+     * @param nanos The conductor clock to wait for
+     */
+    private static void waitUntil(long nanos) {
+        long left;
+        while ((left = nanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    /**
+     * Closes a socket, ignoring errors.
+     *
+     * @param socket The socket
+     */
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed.
+        }
+    }
+
+    /**
+     * Closes every member connection and the listening socket, and destroys
+     * the member JVMs this conductor started.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Seat seat : alive()) {
+            drop(seat, "choir closed");
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            System.err.println("Choir: failed to close the listening socket: " + e.getMessage());
+        }
+        for (Process p : spawned) {
+            try {
+                if (!p.waitFor(2, TimeUnit.SECONDS)) {
+                    p.destroy();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                p.destroy();
+            }
+        }
+    }
+
+    /**
+     * Reads an int property that must be at least the given minimum.
+     *
+     * @param key      The property
+     * @param fallback The value if the property is not set
+     * @param min      The smallest value allowed
+     * @return The value
+     * @throws IllegalArgumentException If the property is invalid
+     */
+    private static int intProperty(String key, int fallback, int min) {
+        final String value = System.getProperty(key, "");
+        final int n = value.isBlank() ? fallback : Integer.parseInt(value.strip());
+        if (n < min) {
+            throw new IllegalArgumentException(key + " below " + min + ": " + n);
+        }
+        return n;
+    }
+
+    /**
+     * Reads the "choir.bind" property, the address the conductor listens on.
+     *
+     * @return The address, the loopback address if the property is not set
+     * @throws IllegalArgumentException If the address cannot be resolved
+     */
+    private static InetAddress bindAddress() {
+        final String value = System.getProperty("choir.bind", "");
+        if (value.isBlank()) {
+            return InetAddress.getLoopbackAddress();
+        }
+        try {
+            return InetAddress.getByName(value.strip());
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Unknown choir.bind address: " + value, e);
+        }
+    }
+
+    /**
+     * Main entry point of the conductor of a distributed choir. Waits for
+     * the members, optionally starting them, then plays each song given.
+     *
+     * @param args The paths of the song files
+     */
+    public static void main(String[] args) {
+        final InetAddress bind;
+        final int port;
+        final int members;
+        final int ahead;
+        final Tempo tempo;
+        try {
+            bind = bindAddress();
+            port = intProperty("choir.port", DEFAULT_PORT, 0);
+            members = intProperty("choir.members", DEFAULT_MEMBERS, 1);
+            ahead = intProperty("choir.ahead", DEFAULT_AHEAD_MS, 1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(USAGE);
+            return;
+        }
+        try {
+            tempo = Tempo.fromProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println(Tempo.USAGE);
+            return;
+        }
+        if (args == null || args.length == 0) {
+            System.err.println("Failed to read in notes. Pass in a file using argument -Dsong=[PATH_TO_SONG]");
+            return;
+        }
+        try (RemoteChoir choir = new RemoteChoir(bind, port, ahead)) {
+            System.out.println("Choir: listening on " + bind.getHostAddress() + " port " + choir.port());
+            if (Boolean.getBoolean("choir.spawn")) {
+                choir.spawn(members);
+            }
+            if (choir.gather(members) == 0) {
+                return;
+            }
+            for (String filename : args) {
+                final File file = SongParser.resolve(filename, System.err);
+                final Score score = file == null ? null : Conductor.readScore(file, tempo, System.err);
+                if (score == null) {
+                    System.err.println("Failed to read in notes. Pass in a file using argument -Dsong=[PATH_TO_SONG]");
+                    continue;
+                }
+                System.out.println("Choir: playing " + file.getName());
+                if (!choir.play(score)) {
+                    System.err.println("Choir: " + file.getName() + " was not played to the end");
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Choir: failed to listen on " + bind.getHostAddress() + " port " + port + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,333 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+import dsp.Kernels;
+import enums.Note;
+
+/**
+ * A member of a distributed choir, running in its own JVM and playing on its
+ * own audio line. It connects to a RemoteChoir, answers its clock samples at
+ * once, and plays the notes it is sent at the frames they are due on the
+ * shared timeline, mixing any that overlap. A note that arrives after its
+ * start frame has been written to the line is joined where the timeline has
+ * got to and counted as late.
+ */
+public class RemoteMember {
+
+    /** Default host of the conductor */
+    static final String DEFAULT_HOST = "localhost";
+
+    /** Number of times to try to reach the conductor */
+    private static final int CONNECT_ATTEMPTS = 100;
+
+    /** Time between attempts to reach the conductor, in milliseconds */
+    private static final int CONNECT_RETRY_MS = 100;
+
+    /** Number of frames mixed and written at a time */
+    private static final int BLOCK_FRAMES = 1024;
+
+    /** Time the line takes to play a block */
+    private static final long BLOCK_NANOS = BLOCK_FRAMES * 1_000_000_000L / Note.SAMPLE_RATE;
+
+    /** The name the member introduces itself with */
+    private final String name;
+
+    /** The socket to the conductor */
+    private final Socket socket;
+
+    /** Messages from the conductor */
+    private final DataInputStream in;
+
+    /** Messages to the conductor, written by the reader and the song threads */
+    private final DataOutputStream out;
+
+    /** Sizes the buffer of the audio line and counts its underruns */
+    private final LineBuffer lineBuffer;
+
+    /** The song being played, or null */
+    private Song song;
+
+    /**
+     * The notes of one song and the thread playing them.
+     */
+    private final class Song implements Runnable {
+        /** Member clock at which frame 0 plays */
+        final long startNanos;
+
+        /** Most bytes queued in the line, less than the time notes are sent ahead */
+        final int leadBytes;
+
+        /** Notes waiting to be mixed, earliest first: frame, note ordinal, samples */
+        final PriorityBlockingQueue<int[]> parts = new PriorityBlockingQueue<>(64,
+                Comparator.comparingInt(part -> part[0]));
+
+        /** The thread mixing and writing the song */
+        final Thread thread;
+
+        /** Number of frames in the song, unknown until the END arrives */
+        volatile long endFrame = Long.MAX_VALUE;
+
+        /** Set when the conductor has gone */
+        volatile boolean stopped = false;
+
+        /**
+         * Constructs a song starting at the given time.
+         *
+         * @param startNanos The member clock at which frame 0 plays
+         * @param aheadMs    The time notes are sent ahead of their frame, in milliseconds
+         */
+        Song(long startNanos, int aheadMs) {
+            this.startNanos = startNanos;
+            this.leadBytes = Math.max(BLOCK_FRAMES, (int) ((long) Note.SAMPLE_RATE * aheadMs / 2000))
+                    * VoiceMixer.FORMAT.getFrameSize();
+            this.thread = Thread.ofPlatform().name(name + " song").priority(Thread.MAX_PRIORITY).unstarted(this);
+        }
+
+        /**
+         * Opens the line, waits for the start of the song, then mixes the
+         * notes block by block until the last frame and reports to the
+         * conductor.
+         */
+        @Override
+        public void run() {
+            final Kernels kernels = Kernels.get();
+            final int[] accumulator = new int[BLOCK_FRAMES];
+            final byte[] output = new byte[BLOCK_FRAMES];
+            final List<int[]> voices = new ArrayList<>();
+            final Note[] notes = Note.values();
+            int played = 0;
+            int late = 0;
+            try (SourceDataLine line = AudioSystem.getSourceDataLine(VoiceMixer.FORMAT)) {
+                lineBuffer.open(line);
+                long left;
+                while ((left = startNanos - System.nanoTime()) > 0 && !stopped) {
+                    LockSupport.parkNanos(left);
+                }
+                // Anything due a block or more before the line could start has been missed.
+                final long missed = (System.nanoTime() - startNanos) * Note.SAMPLE_RATE / 1_000_000_000L;
+                long frame = missed < BLOCK_FRAMES ? 0 : missed;
+                line.start();
+                while (frame < endFrame && !stopped) {
+                    final int n = (int) Math.min(BLOCK_FRAMES, endFrame - frame);
+                    int[] part;
+                    while ((part = parts.peek()) != null && part[0] < frame + n) {
+                        parts.poll();
+                        if (part[0] < frame) {
+                            late++;
+                        }
+                        voices.add(part);
+                        played++;
+                    }
+                    Arrays.fill(accumulator, 0, n, 0);
+                    for (int[] v : voices) {
+                        final long from = Math.max(frame, v[0]);
+                        final long to = Math.min(frame + n, (long) v[0] + v[2]);
+                        if (to > from) {
+                            notes[v[1]].addTo(accumulator, (int) (from - frame), (int) (to - from), from - v[0]);
+                        }
+                    }
+                    kernels.clipToBytes(accumulator, output, 0, n, 1.0f / Math.max(1, voices.size()));
+                    final long next = frame + n;
+                    voices.removeIf(v -> (long) v[0] + v[2] <= next);
+                    // A frame mixed before its notes arrive would play without them.
+                    while (line.getBufferSize() - line.available() > leadBytes && !stopped) {
+                        LockSupport.parkNanos(BLOCK_NANOS);
+                    }
+                    lineBuffer.check(line);
+                    line.write(output, 0, n);
+                    frame += n;
+                }
+                line.drain();
+            } catch (LineUnavailableException | IllegalArgumentException e) {
+                // Still report, so the conductor does not wait for a song that cannot be heard.
+                System.err.println(name + ": the Audio System tried to read an unavailable line.");
+            }
+            if (stopped) {
+                return;
+            }
+            System.out.println(name + ": played " + played + " notes, " + late + " late, line buffer " + lineBuffer);
+            final int underruns = lineBuffer.underruns();
+            lineBuffer.adapt();
+            try {
+                synchronized (out) {
+                    ChoirProtocol.writeDone(out, played, late, underruns);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                System.err.println(name + ": failed to report to the conductor: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Constructs a member connected to a conductor.
+     *
+     * @param name       The name to introduce the member with
+     * @param socket     The connected socket
+     * @param lineBuffer The buffer sizer for the audio line
+     * @throws IOException If the streams of the socket cannot be opened
+     */
+    public RemoteMember(String name, Socket socket, LineBuffer lineBuffer) throws IOException {
+        this.name = name;
+        this.socket = socket;
+        this.lineBuffer = lineBuffer;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Introduces the member and follows the conductor until it closes the
+     * connection.
+     *
+     * @return True if the conductor closed the connection, false on a protocol error
+     */
+    public boolean serve() {
+        try {
+            synchronized (out) {
+                ChoirProtocol.writeHello(out, name);
+                out.flush();
+            }
+            while (true) {
+                final ChoirProtocol.Message m = ChoirProtocol.read(in);
+                switch (m.type) {
+                    case ChoirProtocol.SYNC:
+                        final long received = System.nanoTime();
+                        synchronized (out) {
+                            ChoirProtocol.writeSyncReply(out, m.sent, received, System.nanoTime());
+                            out.flush();
+                        }
+                        break;
+                    case ChoirProtocol.ASSIGN:
+                        System.out.println(name + ": ringing " + Arrays.toString(m.bells));
+                        break;
+                    case ChoirProtocol.START:
+                        stopSong();
+                        song = new Song(m.sent, m.aheadMs);
+                        song.thread.start();
+                        break;
+                    case ChoirProtocol.PLAY:
+                        if (song != null) {
+                            song.parts.add(new int[] {m.frame, m.note.ordinal(), m.samples});
+                        }
+                        break;
+                    case ChoirProtocol.END:
+                        if (song != null) {
+                            song.endFrame = m.frame;
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unexpected message type " + m.type);
+                }
+            }
+        } catch (EOFException e) {
+            return true;
+        } catch (IOException e) {
+            System.err.println(name + ": " + e.getMessage());
+            return false;
+        } finally {
+            stopSong();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed.
+            }
+        }
+    }
+
+    /**
+     * Stops the song being played, if it has not ended yet, and waits for
+     * its thread.
+     */
+    private void stopSong() {
+        if (song == null) {
+            return;
+        }
+        if (song.endFrame == Long.MAX_VALUE) {
+            song.stopped = true;
+        }
+        try {
+            song.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        song = null;
+    }
+
+    /**
+     * Connects to the conductor, trying again while it is not listening yet.
+     *
+     * @param host The host of the conductor
+     * @param port The port of the conductor
+     * @return The connected socket, or null if the conductor could not be reached
+     */
+    static Socket connect(String host, int port) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                final Socket socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                return socket;
+            } catch (IOException e) {
+                if (attempt == CONNECT_ATTEMPTS) {
+                    System.err.println("Failed to reach the conductor at " + host + ":" + port + ": " + e.getMessage());
+                    return null;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(CONNECT_RETRY_MS));
+            }
+        }
+    }
+
+    /**
+     * Main entry point of a member of a distributed choir. Connects to the
+     * conductor given by the "choir.host" and "choir.port" properties and
+     * plays until it closes the connection.
+     *
+     * @param args Not used
+     */
+    public static void main(String[] args) {
+        final int port;
+        try {
+            final String value = System.getProperty("choir.port", "");
+            port = value.isBlank() ? RemoteChoir.DEFAULT_PORT : Integer.parseInt(value.strip());
+        } catch (NumberFormatException e) {
+            System.err.println(RemoteChoir.USAGE);
+            return;
+        }
+        final LineBuffer lineBuffer;
+        try {
+            lineBuffer = LineBuffer.fromProperties(VoiceMixer.FORMAT);
+        } catch (IllegalArgumentException e) {
+            System.err.println(LineBuffer.USAGE);
+            return;
+        }
+        final String given = System.getProperty("choir.name", "");
+        final String name = given.isBlank() ? "member-" + ProcessHandle.current().pid() : given.strip();
+        final String host = System.getProperty("choir.host", "");
+        final Socket socket = connect(host.isBlank() ? DEFAULT_HOST : host.strip(), port);
+        if (socket == null) {
+            return;
+        }
+        try {
+            if (!new RemoteMember(name, socket, lineBuffer).serve()) {
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            System.err.println(name + ": failed to open the connection: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,487 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import dsp.Kernels;
+import enums.Note;
+
+/**
+ * Renders songs over HTTP from a long-lived JVM, so a request costs neither
+ * a JVM start nor building the note tables, and the rendering loops are
+ * already compiled. A song is named in the path or posted as text, and its
+ * samples are streamed back with chunked transfer while it is still being
+ * rendered:
+ * <pre>
+ * GET  /songs/NAME[?format=pcm]  renders a song of the songs/ directory
+ * POST /render[?format=pcm]      renders the song text in the request body
+ * GET  /status                   reports requests, bytes and time to first byte
+ * </pre>
+ * Songs are returned as WAV unless format=pcm asks for the raw samples.
+ * Requests run on a virtual thread each, or on a fixed pool of threads.
+ */
+public class RenderServer implements AutoCloseable {
+
+    /** Default port the server listens on */
+    static final int DEFAULT_PORT = 7380;
+
+    /** Explains the server properties when they are invalid */
+    static final String USAGE = "Invalid server, use -Dserver.port=[PORT] and -Dserver.threads=[THREADS] "
+            + "(0 for a virtual thread per request)";
+
+    /** Largest song text accepted in a request body */
+    static final int MAX_SONG_BYTES = 1 << 20;
+
+    /** Number of bytes gathered into each chunk of a response */
+    private static final int CHUNK_BYTES = 8192;
+
+    /** Number of times every note is rendered before the first request */
+    private static final int WARM_UP_ROUNDS = 20;
+
+    /** Longest time to let requests finish when the server stops, in seconds */
+    private static final int STOP_DELAY_SECONDS = 2;
+
+    /** The HTTP server */
+    private final HttpServer server;
+
+    /** Runs the requests */
+    private final ExecutorService executor;
+
+    /** Renders the songs, shared by all requests */
+    private final Renderer renderer;
+
+    /** Keeps parsed songs of the songs/ directory, or null to read them every time */
+    private final SongCache cache;
+
+    /** The tempo text songs start at unless they set their own */
+    private final Tempo tempo;
+
+    /** Number of requests answered */
+    private final AtomicLong requests = new AtomicLong();
+
+    /** Number of requests answered with an error */
+    private final AtomicLong failures = new AtomicLong();
+
+    /** Number of songs rendered */
+    private final AtomicLong songs = new AtomicLong();
+
+    /** Number of bytes of audio sent */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /** Time from a request arriving to its first bytes being sent */
+    private final LatencyHistogram firstByte = new LatencyHistogram();
+
+    /** False during the warm up, whose requests are not counted */
+    private volatile boolean counting = false;
+
+    /**
+     * Gathers the bytes of a response into chunks, counts them, and records
+     * the time to first byte when the first chunk is sent.
+     */
+    private final class ResponseStream extends BufferedOutputStream {
+        /** The time the request arrived, or 0 once the first byte is recorded */
+        private long received;
+
+        /** Number of bytes written */
+        long count = 0;
+
+        /**
+         * Constructs a stream gathering the bytes written into chunks.
+         *
+         * @param out      The body of the response
+         * @param received The time the request arrived
+         */
+        ResponseStream(OutputStream out, long received) {
+            super(out, CHUNK_BYTES);
+            this.received = received;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            super.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            super.flush();
+            if (received != 0 && counting) {
+                firstByte.record(System.nanoTime() - received);
+            }
+            received = 0;
+        }
+    }
+
+    /**
+     * Opens a server on the given port of the loopback address. Requests
+     * are only answered once start() is called.
+     *
+     * @param port     The port to listen on, 0 for any free port
+     * @param threads  The number of threads requests run on, 0 for a virtual thread each
+     * @param renderer Renders the songs
+     * @param cache    Keeps parsed songs, or null to read them every time
+     * @param tempo    The tempo text songs start at unless they set their own
+     * @throws IOException If the port cannot be opened
+     */
+    public RenderServer(int port, int threads, Renderer renderer, SongCache cache, Tempo tempo) throws IOException {
+        this.renderer = renderer;
+        this.cache = cache;
+        this.tempo = tempo;
+        this.executor = threads == 0 ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Registers the handlers and starts answering requests. The handlers are
+     * only handed to the server here, after construction, so no request can
+     * reach a server that is not fully built.
+     */
+    public void start() {
+        server.createContext("/songs/", this::song);
+        server.createContext("/render", this::render);
+        server.createContext("/status", this::status);
+        server.start();
+    }
+
+    /**
+     * Gets the port the server listens on.
+     *
+     * @return The local port
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Posts a song holding every note to the server itself, then gets the
+     * first song of songs/, so that the note tables are built and the HTTP,
+     * parsing and rendering code is loaded and compiled before the first
+     * real request arrives. The requests of the warm up are not counted.
+     *
+     * @param rounds The number of times to render the song
+     * @throws IOException If a request fails
+     */
+    public void warmUp(int rounds) throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (Note note : Note.values()) {
+            text.append(note.name()).append(" 8\n");
+        }
+        final byte[] song = text.toString().getBytes(StandardCharsets.UTF_8);
+        final String base = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + port();
+        for (int i = 0; i < rounds; i++) {
+            fetch(base + "/render" + (i % 2 == 0 ? "" : "?format=pcm"), song);
+        }
+        // Reading a song file also loads the parser of files and the song cache.
+        final String[] names = new File("songs").list((dir, name) -> name.endsWith(".txt"));
+        if (names != null && names.length > 0) {
+            Arrays.sort(names);
+            fetch(base + "/songs/" + URLEncoder.encode(names[0], StandardCharsets.UTF_8).replace("+", "%20"), null);
+        }
+        counting = true;
+    }
+
+    /**
+     * Sends a request to the server itself and reads the whole response.
+     *
+     * @param address The address of the request
+     * @param body    The body to post, or null to get
+     * @throws IOException If the request fails
+     */
+    private static void fetch(String address, byte[] body) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) URI.create(address).toURL().openConnection();
+        if (body != null) {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+        try (InputStream in = connection.getInputStream()) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    /**
+     * Answers GET /songs/NAME by rendering a song of the songs/ directory.
+     *
+     * @param exchange The request
+     * @throws IOException If the response cannot be sent
+     */
+    private void song(HttpExchange exchange) throws IOException {
+        final long received = System.nanoTime();
+        if (!exchange.getRequestMethod().equals("GET")) {
+            fail(exchange, 405, "Use GET to render a song of the songs/ directory\n");
+            return;
+        }
+        final String name = exchange.getRequestURI().getPath().substring("/songs/".length());
+        if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+            fail(exchange, 404, "Unknown song: " + name + "\n");
+            return;
+        }
+        final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        final PrintStream err = new PrintStream(errors, true, StandardCharsets.UTF_8);
+        final File file = SongParser.resolve("songs/" + name, err);
+        if (file == null) {
+            fail(exchange, 404, errors.toString(StandardCharsets.UTF_8));
+            return;
+        }
+        final Score score = cache != null ? cache.get(file.getPath(), tempo, err)
+                : Conductor.readScore(file, tempo, err);
+        if (score == null) {
+            fail(exchange, 400, errors.toString(StandardCharsets.UTF_8));
+            return;
+        }
+        stream(exchange, score, received);
+    }
+
+    /**
+     * Answers POST /render by rendering the song text in the request body.
+     *
+     * @param exchange The request
+     * @throws IOException If the response cannot be sent
+     */
+    private void render(HttpExchange exchange) throws IOException {
+        final long received = System.nanoTime();
+        if (!exchange.getRequestMethod().equals("POST")) {
+            fail(exchange, 405, "Use POST with the song text as the body\n");
+            return;
+        }
+        final byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readNBytes(MAX_SONG_BYTES + 1);
+        }
+        if (body.length > MAX_SONG_BYTES) {
+            fail(exchange, 413, "Songs are limited to " + MAX_SONG_BYTES + " bytes\n");
+            return;
+        }
+        final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        final Score score = new SongParser(new PrintStream(errors, true, StandardCharsets.UTF_8), tempo)
+                .parseBytes(body);
+        if (score == null) {
+            fail(exchange, 400, errors.toString(StandardCharsets.UTF_8));
+            return;
+        }
+        stream(exchange, score, received);
+    }
+
+    /**
+     * Answers GET /status with what the server has done so far.
+     *
+     * @param exchange The request
+     * @throws IOException If the response cannot be sent
+     */
+    private void status(HttpExchange exchange) throws IOException {
+        final byte[] body = (toString() + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        if (counting) {
+            requests.incrementAndGet();
+        }
+    }
+
+    /**
+     * Streams a rendered song with chunked transfer. The response headers,
+     * and the WAV header, are sent before the first step is rendered, and
+     * the samples follow a chunk at a time as they are mixed.
+     *
+     * @param exchange The request
+     * @param score    The song
+     * @param received The time the request arrived
+     * @throws IOException If the response cannot be sent
+     */
+    private void stream(HttpExchange exchange, Score score, long received) throws IOException {
+        final boolean pcm = "format=pcm".equals(exchange.getRequestURI().getQuery());
+        exchange.getResponseHeaders().set("Content-Type", pcm ? "application/octet-stream" : "audio/wav");
+        // A length of 0 asks for chunked transfer.
+        exchange.sendResponseHeaders(200, 0);
+        final ResponseStream out = new ResponseStream(exchange.getResponseBody(), received);
+        boolean rendered = false;
+        try (out) {
+            if (pcm) {
+                out.flush();
+                renderer.render(score, out);
+            } else {
+                renderer.renderWav(score, out);
+            }
+            rendered = true;
+        } catch (IOException e) {
+            // The client went away, or the song is too long for WAV.
+        } finally {
+            if (counting) {
+                (rendered ? songs : failures).incrementAndGet();
+                bytes.addAndGet(out.count);
+                requests.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Answers a request with an error.
+     *
+     * @param exchange The request
+     * @param code     The HTTP status
+     * @param message  The text of the response
+     * @throws IOException If the response cannot be sent
+     */
+    private void fail(HttpExchange exchange, int code, String message) throws IOException {
+        final byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        if (counting) {
+            failures.incrementAndGet();
+            requests.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stops accepting requests, lets those in progress finish for a moment,
+     * and stops the threads.
+     */
+    @Override
+    public void close() {
+        server.stop(STOP_DELAY_SECONDS);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(STOP_DELAY_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Summarises the requests answered so far.
+     *
+     * @return A human readable summary
+     */
+    @Override
+    public String toString() {
+        return requests.get() + " requests, " + failures.get() + " failed, " + songs.get() + " songs rendered, "
+                + bytes.get() + " bytes sent, time to first byte: " + firstByte;
+    }
+
+    /**
+     * Reads an int property that must not be negative.
+     *
+     * @param key      The property
+     * @param fallback The value if the property is not set
+     * @return The value
+     * @throws IllegalArgumentException If the property is invalid
+     */
+    private static int intProperty(String key, int fallback) {
+        final String value = System.getProperty(key, "");
+        final int n = value.isBlank() ? fallback : Integer.parseInt(value.strip());
+        if (n < 0) {
+            throw new IllegalArgumentException("Negative " + key + ": " + n);
+        }
+        return n;
+    }
+
+    /**
+     * Main entry point of the render server. Serves requests until the JVM
+     * is stopped.
+     *
+     * @param args Not used
+     */
+    public static void main(String[] args) {
+        final int port;
+        final int threads;
+        try {
+            port = intProperty("server.port", DEFAULT_PORT);
+            threads = intProperty("server.threads", 0);
+        } catch (IllegalArgumentException e) {
+            System.err.println(USAGE);
+            return;
+        }
+        final ToneCache tones;
+        try {
+            tones = Conductor.createTones();
+        } catch (IllegalArgumentException e) {
+            System.err.println(Conductor.TONE_USAGE);
+            return;
+        }
+        final Tempo tempo;
+        try {
+            tempo = Tempo.fromProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println(Tempo.USAGE);
+            return;
+        }
+        final SongCache cache;
+        try {
+            cache = SongCache.fromProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println(SongCache.USAGE);
+            return;
+        } catch (IOException e) {
+            System.err.println("Failed to watch the songs directory: " + e.getMessage());
+            return;
+        }
+        final SegmentCache segments;
+        try {
+            segments = SegmentCache.fromProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println(SegmentCache.USAGE);
+            return;
+        } catch (IOException e) {
+            System.err.println("Failed to open the segment cache: " + e.getMessage());
+            return;
+        }
+        final RenderServer server;
+        try {
+            server = new RenderServer(port, threads, new Renderer(VoiceMixer.FORMAT, tones, segments), cache, tempo);
+            server.start();
+            server.warmUp(WARM_UP_ROUNDS);
+        } catch (IOException e) {
+            System.err.println("Failed to start the render server on port " + port + ": " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            System.out.println("Render server: " + server);
+            System.out.println("Sample kernels: " + Kernels.get().name());
+            if (tones != null) {
+                System.out.println("Tone cache: " + tones);
+            }
+            if (cache != null) {
+                cache.close();
+                System.out.println("Song cache: " + cache);
+            }
+            if (segments != null) {
+                System.out.println("Segment cache: " + segments);
+            }
+        }));
+        System.out.println("Render server listening on http://localhost:" + server.port() + "/ ("
+                + (threads == 0 ? "a virtual thread per request" : threads + " threads") + ")");
+    }
+}
@@ -0,0 +1,332 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import dsp.Kernels;
+import enums.Note;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Renders a song to PCM audio without an audio device.
+ * Produces the same sample stream that the Conductor and its Members write to
+ * a SourceDataLine, but as fast as the CPU allows instead of in real time.
+ */
+public class Renderer {
+
+    /** Size of a WAV header with a single format and data chunk */
+    static final int WAV_HEADER_BYTES = 44;
+
+    /** Largest number of sample bytes a WAV file can hold */
+    private static final long MAX_WAV_DATA_BYTES = 0xFFFF_FFFFL - WAV_HEADER_BYTES + 8;
+
+    /** Flips a signed 8-bit sample to the unsigned form WAV stores */
+    private static final int SIGN_BIT = 0x80;
+
+    /** The audio format of the rendered samples */
+    private final AudioFormat af;
+
+    /** Rendered bell tones, or null to render plain sine waves */
+    private final ToneCache tones;
+
+    /** Rendered segments kept on disk, or null to render every step */
+    private final SegmentCache segments;
+
+    /**
+     * Passes 8-bit samples on with their sign bit flipped, turning signed
+     * samples into the unsigned ones stored in WAV files.
+     */
+    private static final class UnsignedOutputStream extends FilterOutputStream {
+        /** The flipped samples of the block being written */
+        private byte[] flipped = new byte[0];
+
+        /**
+         * Constructs a stream flipping the samples written to another.
+         *
+         * @param out The stream receiving the flipped samples
+         */
+        UnsignedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b ^ SIGN_BIT);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (flipped.length < len) {
+                flipped = new byte[len];
+            }
+            for (int i = 0; i < len; i++) {
+                flipped[i] = (byte) (b[off + i] ^ SIGN_BIT);
+            }
+            out.write(flipped, 0, len);
+        }
+    }
+
+    /**
+     * Constructs a Renderer producing samples in the specified audio format.
+     *
+     * @param af The audio format to render to
+     */
+    public Renderer(AudioFormat af) {
+        this(af, null);
+    }
+
+    /**
+     * Constructs a Renderer producing samples in the specified audio format,
+     * using bell tones from the given cache.
+     *
+     * @param af    The audio format to render to
+     * @param tones Rendered bell tones, or null to render plain sine waves
+     */
+    public Renderer(AudioFormat af, ToneCache tones) {
+        this(af, tones, null);
+    }
+
+    /**
+     * Constructs a Renderer producing samples in the specified audio format,
+     * using bell tones from the given cache and reusing the segments of
+     * songs rendered before.
+     *
+     * @param af       The audio format to render to
+     * @param tones    Rendered bell tones, or null to render plain sine waves
+     * @param segments Rendered segments kept on disk, or null to render every step
+     */
+    public Renderer(AudioFormat af, ToneCache tones, SegmentCache segments) {
+        this.af = af;
+        this.tones = tones;
+        this.segments = segments;
+    }
+
+    /**
+     * Calculates the total number of samples a song renders to.
+     *
+     * @param song The notes of the song
+     * @return The number of samples in the rendered song
+     */
+    public long sampleCount(Score song) {
+        long samples = 0;
+        for (int start = 0; start < song.size(); start = song.stepEnd(start)) {
+            samples += FrameScheduler.stepFrames(song, start, song.stepEnd(start));
+        }
+        return samples;
+    }
+
+    /**
+     * Renders a song and writes the raw samples to an output stream.
+     * The notes of every step are mixed exactly as during playback: each note
+     * is played for its length at the tempo of its step and followed by the
+     * short rest a Member adds, and every step is padded with the silent
+     * frames of the staccato pause. With a segment cache, segments rendered
+     * before are written straight from their mapped files and the others are
+     * mixed and cached.
+     *
+     * @param song The notes of the song
+     * @param out  The stream to write the samples to
+     * @throws IOException If writing to the stream fails
+     */
+    public void render(Score song, OutputStream out) throws IOException {
+        final VoiceMixer mixer = new VoiceMixer();
+        if (segments == null) {
+            renderSteps(song, 0, song.size(), mixer, out);
+            return;
+        }
+        // A file is written from the mapping by the kernel, other streams a buffer at a time.
+        final WritableByteChannel channel = out instanceof FileOutputStream
+                ? ((FileOutputStream) out).getChannel() : Channels.newChannel(out);
+        final String tone = tones == null ? ToneCache.Tone.SINE.name() : ToneCache.Tone.BELL.name();
+        final ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        int start = 0;
+        while (start < song.size()) {
+            final int end = SegmentCache.segmentEnd(song, start);
+            final String key = SegmentCache.key(song, start, end, af, tone);
+            final ByteBuffer cached = segments.get(key);
+            if (cached != null) {
+                while (cached.hasRemaining()) {
+                    channel.write(cached);
+                }
+            } else {
+                segment.reset();
+                renderSteps(song, start, end, mixer, segment);
+                final byte[] samples = segment.toByteArray();
+                segments.put(key, samples);
+                out.write(samples);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Mixes the steps between two positions of a song and writes their
+     * samples to an output stream.
+     *
+     * @param song  The notes of the song
+     * @param start The position of the first note of the first step
+     * @param end   The position after the last note of the last step
+     * @param mixer The mixer, between steps
+     * @param out   The stream to write the samples to
+     * @throws IOException If writing to the stream fails
+     */
+    private void renderSteps(Score song, int start, int end, VoiceMixer mixer, OutputStream out) throws IOException {
+        if (tones != null) {
+            tones.prewarm(song, start, end, VoiceMixer.FORMAT);
+        }
+        while (start < end) {
+            final int stepEnd = song.stepEnd(start);
+            final Tempo tempo = song.tempoAt(start);
+            for (int i = start; i < stepEnd; i++) {
+                final int samples = tempo.samples(song.length(i));
+                if (tones != null) {
+                    mixer.mix(tones.tone(song.note(i), samples, VoiceMixer.FORMAT), Member.REST_SAMPLES);
+                } else {
+                    mixer.mix(song.note(i), samples, Member.REST_SAMPLES);
+                }
+            }
+            mixer.padTo(FrameScheduler.stepFrames(song, start, stepEnd));
+            mixer.writeTo(out);
+            start = stepEnd;
+        }
+    }
+
+    /**
+     * Renders a song into an in-memory buffer.
+     *
+     * @param song The notes of the song
+     * @return A byte array containing the raw samples of the song
+     */
+    public byte[] render(Score song) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                Math.toIntExact(sampleCount(song) * af.getFrameSize()));
+        try {
+            render(song, buffer);
+        } catch (IOException e) {
+            // A ByteArrayOutputStream never throws on write.
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Renders a song as a WAV stream: the header, then the samples while
+     * they are rendered. The length of the song is known before it is
+     * rendered, so the header is complete from the start and is flushed at
+     * once, letting a client start reading before the first step is mixed.
+     * The bytes are the same as a WAV file written by AudioSystem.write,
+     * with 8-bit samples stored unsigned as WAV requires.
+     *
+     * @param song The notes of the song
+     * @param out  The stream to write to
+     * @throws IOException If writing to the stream fails or the song is too long for WAV
+     */
+    public void renderWav(Score song, OutputStream out) throws IOException {
+        final long dataBytes = sampleCount(song) * af.getFrameSize();
+        if (dataBytes > MAX_WAV_DATA_BYTES) {
+            throw new IOException("Song too long for WAV: " + dataBytes + " bytes of samples");
+        }
+        final ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt((int) (WAV_HEADER_BYTES - 8 + dataBytes));
+        header.put("WAVEfmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16);
+        header.putShort((short) 1).putShort((short) af.getChannels()).putInt((int) af.getSampleRate());
+        header.putInt((int) (af.getSampleRate() * af.getFrameSize())).putShort((short) af.getFrameSize());
+        header.putShort((short) af.getSampleSizeInBits());
+        header.put("data".getBytes(StandardCharsets.US_ASCII)).putInt((int) dataBytes);
+        out.write(header.array());
+        out.flush();
+        final boolean unsigned = af.getSampleSizeInBits() == 8 && af.getEncoding() == AudioFormat.Encoding.PCM_SIGNED;
+        render(song, unsigned ? new UnsignedOutputStream(out) : out);
+    }
+
+    /**
+     * Renders a song to a file. Files ending in ".wav" are written as WAV,
+     * anything else receives the raw PCM samples. Either way the samples are
+     * written as they are rendered, so the song is never held in memory.
+     *
+     * @param song The notes of the song
+     * @param file The file to write
+     * @throws IOException If writing the file fails or the song is too long for WAV
+     */
+    public void renderToFile(Score song, File file) throws IOException {
+        if (file.getName().toLowerCase().endsWith(".wav")) {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                renderWav(song, out);
+            }
+        } else {
+            try (OutputStream out = new FileOutputStream(file)) {
+                render(song, out);
+            }
+        }
+    }
+
+    /**
+     * Entry point for offline rendering.
+     * Parses a song file and renders it to the given output file.
+     *
+     * @param args The path to a song file followed by the output file
+     */
+    public static void main(String[] args) {
+        if (args == null || args.length < 2 || args[1].isEmpty()) {
+            System.err.println("Usage: ant render -Dsong=[PATH_TO_SONG] -Dout=[OUTPUT_FILE]");
+            return;
+        }
+        final AudioFormat af = new AudioFormat(Note.SAMPLE_RATE, 8, 1, true, false);
+        final ToneCache tones;
+        try {
+            tones = Conductor.createTones();
+        } catch (IllegalArgumentException e) {
+            System.err.println(Conductor.TONE_USAGE);
+            return;
+        }
+        final SegmentCache segments;
+        try {
+            segments = SegmentCache.fromProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println(SegmentCache.USAGE);
+            return;
+        } catch (IOException e) {
+            System.err.println("Failed to open the segment cache: " + e.getMessage());
+            return;
+        }
+        final Conductor conductor = new Conductor(af);
+        try {
+            conductor.setTempo(Tempo.fromProperties());
+        } catch (IllegalArgumentException e) {
+            System.err.println(Tempo.USAGE);
+            return;
+        }
+        Score notes = conductor.parseNotes(args[0]);
+        if (notes == null) {
+            System.err.println("Failed to read in notes. Pass in a file using argument -Dsong=[PATH_TO_SONG]");
+            return;
+        }
+        final File out = new File(args[1]);
+        final long start = System.nanoTime();
+        try {
+            new Renderer(af, tones, segments).renderToFile(notes, out);
+        } catch (IOException e) {
+            System.err.println("Failed to write " + out + ": " + e.getMessage());
+            return;
+        }
+        final long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Rendered " + notes.size() + " notes to " + out + " in " + elapsedMs + " ms");
+        System.out.println("Sample kernels: " + Kernels.get().name());
+        if (tones != null) {
+            System.out.println("Tone cache: " + tones);
+        }
+        if (segments != null) {
+            System.out.println("Segment cache: " + segments);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free ring of samples passed from one producer thread to one consumer
+ * thread. The producer and the consumer each move their own counter, so
+ * neither ever takes a lock or waits for the other while there is room to
+ * write or samples to read. A side that has to wait spins briefly, then parks
+ * until the other side unparks it; the parks are bounded, so a missed unpark
+ * only costs a short delay. The ring holds at most its limit, which may be
+ * smaller than the power of two its array is sized to.
+ */
+public class SampleRing {
+
+    /** Number of times to check for room or samples before parking */
+    private static final int SPIN_LIMIT = 100;
+
+    /** Longest time a waiting side parks before checking again */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /** The samples, indexed by counter modulo the array length */
+    private final byte[] samples;
+
+    /** Array length minus one, masking a counter into an index */
+    private final int mask;
+
+    /** Largest number of samples the ring holds */
+    private final int limit;
+
+    /** Number of samples written so far, only moved by the producer */
+    private final AtomicLong written = new AtomicLong();
+
+    /** Number of samples read so far, only moved by the consumer */
+    private final AtomicLong read = new AtomicLong();
+
+    /** The producer while it waits for room, or null */
+    private volatile Thread waitingProducer;
+
+    /** The consumer while it waits for samples, or null */
+    private volatile Thread waitingConsumer;
+
+    /** Set once the producer has written its last sample */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructs a ring holding up to the given number of samples.
+     *
+     * @param limit The largest number of samples the ring holds
+     * @throws IllegalArgumentException If the limit is not positive or too large
+     */
+    public SampleRing(int limit) {
+        if (limit <= 0 || limit > 1 << 30) {
+            throw new IllegalArgumentException("Ring size out of range: " + limit);
+        }
+        final int length = Integer.highestOneBit(limit) == limit ? limit : Integer.highestOneBit(limit) << 1;
+        this.samples = new byte[length];
+        this.mask = length - 1;
+        this.limit = limit;
+    }
+
+    /**
+     * Gets the largest number of samples the ring holds.
+     *
+     * @return The limit of the ring
+     */
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * Gets the number of samples written and not yet read.
+     *
+     * @return The number of samples in the ring
+     */
+    public int size() {
+        return (int) (written.get() - read.get());
+    }
+
+    /**
+     * Writes samples to the ring, waiting for room while it is full. Only the
+     * producer thread may call this.
+     *
+     * @param b   The samples to write
+     * @param off The position of the first sample
+     * @param len The number of samples
+     * @return The number of samples written, less than len only if the
+     *         thread was interrupted or the ring was closed
+     */
+    public int write(byte[] b, int off, int len) {
+        int done = 0;
+        int spins = 0;
+        while (done < len && !closed) {
+            final long tail = written.get();
+            final int room = limit - (int) (tail - read.get());
+            if (room == 0) {
+                if (!await(true, spins++)) {
+                    break;
+                }
+                continue;
+            }
+            spins = 0;
+            final int n = Math.min(room, len - done);
+            final int index = (int) (tail & mask);
+            final int first = Math.min(n, samples.length - index);
+            System.arraycopy(b, off + done, samples, index, first);
+            System.arraycopy(b, off + done + first, samples, 0, n - first);
+            // Publish the samples before waking the consumer.
+            written.set(tail + n);
+            LockSupport.unpark(waitingConsumer);
+            done += n;
+        }
+        return done;
+    }
+
+    /**
+     * Reads up to the given number of samples without waiting. Only the
+     * consumer thread may call this.
+     *
+     * @param b   The buffer to read into
+     * @param off The position of the first sample in the buffer
+     * @param len The largest number of samples to read
+     * @return The number of samples read, 0 if the ring is empty
+     */
+    public int read(byte[] b, int off, int len) {
+        final long head = read.get();
+        final int n = Math.min(len, (int) (written.get() - head));
+        if (n <= 0) {
+            return 0;
+        }
+        final int index = (int) (head & mask);
+        final int first = Math.min(n, samples.length - index);
+        System.arraycopy(samples, index, b, off, first);
+        System.arraycopy(samples, 0, b, off + first, n - first);
+        // Free the room before waking the producer.
+        read.set(head + n);
+        LockSupport.unpark(waitingProducer);
+        return n;
+    }
+
+    /**
+     * Waits until the ring holds samples, it is closed or the timeout passes.
+     * Only the consumer thread may call this.
+     *
+     * @param nanos The longest time to wait in nanoseconds
+     * @return True if the ring holds samples, false otherwise
+     */
+    public boolean awaitSamples(long nanos) {
+        final long deadline = System.nanoTime() + nanos;
+        int spins = 0;
+        while (size() == 0) {
+            if (closed || System.nanoTime() - deadline >= 0 || !await(false, spins++)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks the end of the samples, waking a waiting consumer. Samples
+     * already written can still be read.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(waitingConsumer);
+        LockSupport.unpark(waitingProducer);
+    }
+
+    /**
+     * Checks if the producer has written its last sample.
+     *
+     * @return True if the ring was closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Spins, then parks the calling side until the other side moves its
+     * counter. The waiting thread is registered before it parks, so an
+     * unpark issued after the caller last checked the counters is not lost.
+     *
+     * @param producer True if the producer is waiting, false for the consumer
+     * @param spins    The number of times the caller has already waited
+     * @return False if the thread was interrupted, true otherwise
+     */
+    private boolean await(boolean producer, int spins) {
+        if (spins < SPIN_LIMIT) {
+            Thread.onSpinWait();
+            return true;
+        }
+        final Thread self = Thread.currentThread();
+        if (producer) {
+            waitingProducer = self;
+            if (size() == limit && !closed) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+            waitingProducer = null;
+        } else {
+            waitingConsumer = self;
+            if (size() == 0 && !closed) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+            waitingConsumer = null;
+        }
+        return !self.isInterrupted();
+    }
+}
@@ -0,0 +1,252 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import enums.Note;
+import enums.NoteLength;
+
+/**
+ * A read-only view of the notes of a song, stored as packed events.
+ * Each event holds the ordinal of its Note, the ordinal of its NoteLength and
+ * a flag marking it as part of a chord with the previous event, all in the
+ * lower 16 bits of an int. Playback reads the events directly; BellNote
+ * objects are only created when the view is used as a List.
+ * A score is split into tempo regions, each starting at a step and played at
+ * one Tempo until the next region starts.
+ */
+public abstract class Score extends AbstractList<BellNote> implements RandomAccess {
+
+    /** Bits of an event holding the Note ordinal */
+    private static final int NOTE_MASK = 0xFF;
+
+    /** Position of the NoteLength ordinal within an event */
+    private static final int LENGTH_SHIFT = 8;
+
+    /** Bits of the NoteLength ordinal once shifted down */
+    private static final int LENGTH_MASK = 0x7F;
+
+    /** Bit of an event marking it as part of a chord with the previous event */
+    private static final int CHORD_FLAG = 1 << 15;
+
+    /** All notes, indexed by ordinal, to avoid copying values() on every lookup */
+    private static final Note[] NOTES = Note.values();
+
+    /** All note lengths, indexed by ordinal */
+    private static final NoteLength[] LENGTHS = NoteLength.values();
+
+    /** Position of the first event of each tempo region, in ascending order */
+    private int[] regionStarts = { 0 };
+
+    /** Tempo of each region */
+    private Tempo[] regionTempos = { Tempo.DEFAULT };
+
+    /** Number of tempo regions, at least 1 */
+    private int regions = 1;
+
+    /**
+     * Packs a note into an event.
+     *
+     * @param note   The pitch of the note
+     * @param length The duration of the note
+     * @param chord  True if the note sounds together with the previous note
+     * @return The packed event
+     */
+    public static int encode(Note note, NoteLength length, boolean chord) {
+        return note.ordinal() | length.ordinal() << LENGTH_SHIFT | (chord ? CHORD_FLAG : 0);
+    }
+
+    /**
+     * Gets the pitch of a packed event.
+     *
+     * @param event The packed event
+     * @return The Note of the event
+     */
+    public static Note noteOf(int event) {
+        return NOTES[event & NOTE_MASK];
+    }
+
+    /**
+     * Gets the duration of a packed event.
+     *
+     * @param event The packed event
+     * @return The NoteLength of the event
+     */
+    public static NoteLength lengthOf(int event) {
+        return LENGTHS[event >>> LENGTH_SHIFT & LENGTH_MASK];
+    }
+
+    /**
+     * Checks if a packed event is part of a chord with the previous event.
+     *
+     * @param event The packed event
+     * @return True if the event starts together with the previous event
+     */
+    public static boolean isChordEvent(int event) {
+        return (event & CHORD_FLAG) != 0;
+    }
+
+    /**
+     * Checks that a packed event holds a valid Note and NoteLength and no
+     * unused bits, for events read from outside the program.
+     *
+     * @param event The packed event
+     * @return True if the event can be decoded
+     */
+    public static boolean isValidEvent(int event) {
+        return (event & ~(NOTE_MASK | LENGTH_MASK << LENGTH_SHIFT | CHORD_FLAG)) == 0
+                && (event & NOTE_MASK) < NOTES.length
+                && (event >>> LENGTH_SHIFT & LENGTH_MASK) < LENGTHS.length;
+    }
+
+    /**
+     * Gets the packed event at the given position.
+     *
+     * @param index The position of the event
+     * @return The packed event
+     */
+    public abstract int event(int index);
+
+    /**
+     * Gets the pitch of the note at the given position.
+     *
+     * @param index The position of the note
+     * @return The Note at that position
+     */
+    public Note note(int index) {
+        return noteOf(event(index));
+    }
+
+    /**
+     * Gets the duration of the note at the given position.
+     *
+     * @param index The position of the note
+     * @return The NoteLength at that position
+     */
+    public NoteLength length(int index) {
+        return lengthOf(event(index));
+    }
+
+    /**
+     * Checks if the note at the given position starts together with the
+     * previous note.
+     *
+     * @param index The position of the note
+     * @return True if the note is part of a chord with the previous note
+     */
+    public boolean isChord(int index) {
+        return isChordEvent(event(index));
+    }
+
+    /**
+     * Finds the end of the step starting at the given position. A step is a
+     * note together with all following notes that form a chord with it.
+     *
+     * @param start The position of the first note of the step
+     * @return The position after the last note of the step
+     */
+    public int stepEnd(int start) {
+        int end = start + 1;
+        while (end < size() && isChord(end)) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Sets the tempo from the given position on. Positions must not go back
+     * before the start of the last region; setting the tempo at the start of
+     * the last region replaces it.
+     *
+     * @param index The position of the first event played at the tempo
+     * @param tempo The tempo
+     * @throws IllegalArgumentException If the position is before the last region
+     */
+    void setTempo(int index, Tempo tempo) {
+        final int last = regions - 1;
+        if (index < regionStarts[last]) {
+            throw new IllegalArgumentException("Tempo set at " + index + " before region at " + regionStarts[last]);
+        }
+        if (index == regionStarts[last]) {
+            regionTempos[last] = tempo;
+            if (last > 0 && regionTempos[last - 1].equals(tempo)) {
+                // The region no longer changes anything, merge it into the one before.
+                regions--;
+            }
+            return;
+        }
+        if (regionTempos[last].equals(tempo)) {
+            return;
+        }
+        if (regions == regionStarts.length) {
+            regionStarts = Arrays.copyOf(regionStarts, regions * 2);
+            regionTempos = Arrays.copyOf(regionTempos, regions * 2);
+        }
+        regionStarts[regions] = index;
+        regionTempos[regions] = tempo;
+        regions++;
+    }
+
+    /**
+     * Gets the tempo the event at the given position is played at.
+     *
+     * @param index The position of the event
+     * @return The tempo of the region holding the event
+     */
+    public Tempo tempoAt(int index) {
+        if (regions == 1) {
+            return regionTempos[0];
+        }
+        int low = 0;
+        int high = regions - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (regionStarts[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return regionTempos[low];
+    }
+
+    /**
+     * Gets the number of tempo regions.
+     *
+     * @return The number of regions, at least 1
+     */
+    public int regionCount() {
+        return regions;
+    }
+
+    /**
+     * Gets the position at which a tempo region starts.
+     *
+     * @param region The number of the region
+     * @return The position of the first event of the region
+     */
+    public int regionStart(int region) {
+        return regionStarts[region];
+    }
+
+    /**
+     * Gets the tempo of a region.
+     *
+     * @param region The number of the region
+     * @return The tempo of the region
+     */
+    public Tempo regionTempo(int region) {
+        return regionTempos[region];
+    }
+
+    /**
+     * Creates a BellNote for the note at the given position.
+     *
+     * @param index The position of the note
+     * @return A new BellNote describing the note
+     */
+    @Override
+    public BellNote get(int index) {
+        final int event = event(index);
+        return new BellNote(noteOf(event), lengthOf(event), isChordEvent(event));
+    }
+}
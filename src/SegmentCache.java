@@ -0,0 +1,407 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Keeps rendered segments of songs on disk, so that rendering a song again,
+ * or a song that was only edited in a few places, mixes only the steps that
+ * changed. A segment is a run of whole steps, and each mixed step depends on
+ * nothing but its own notes and tempo, so a segment is named by a hash of its
+ * events, the tempo of every step, the output format and what renders the
+ * tones. Segments end after steps chosen by the hash of their contents rather
+ * than by position, so a note added or removed changes the segment it falls
+ * in and leaves the boundaries of the segments after it where they were.
+ * Cached segments are memory-mapped from their files when they are used and
+ * written from the mapping without copying them onto the heap. Files are
+ * touched when they are used, so the least recently used segments are the
+ * first evicted once the cache holds more bytes than its budget, also across
+ * runs.
+ */
+public class SegmentCache {
+
+    /** Default disk budget of the segment cache in KB */
+    static final int DEFAULT_BUDGET_KB = 65536;
+
+    /** Directory the segments are kept in */
+    static final Path DEFAULT_DIR = Path.of("build", "segments");
+
+    /** Explains the segment cache property when it is invalid */
+    static final String USAGE = "Invalid segment cache, use -Dsegment.cache=[KB] (0 to render every segment)";
+
+    /** Extension of the segment files */
+    private static final String EXTENSION = ".pcm";
+
+    /** Extension of segment files still being written */
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    /** Fewest steps in a segment, unless the song ends first */
+    static final int MIN_STEPS = 4;
+
+    /** Most steps in a segment */
+    static final int MAX_STEPS = 64;
+
+    /** Mask of the step hash bits that end a segment when all are clear, averaging 16 steps */
+    private static final int BOUNDARY_MASK = 15;
+
+    /** Changes every key when the way steps are rendered changes */
+    private static final int RENDER_VERSION = 1;
+
+    /** The directory holding the segment files */
+    private final Path dir;
+
+    /** Largest number of bytes the segment files may take up */
+    private final long budgetBytes;
+
+    /** Cached segments in order of last use, least recently used first */
+    private final LinkedHashMap<String, Entry> segments = new LinkedHashMap<>(64, 0.75f, true);
+
+    /** Number of bytes taken up by the segment files */
+    private long bytes = 0;
+
+    /** Number of lookups that found their segment */
+    private long hits = 0;
+
+    /** Number of lookups whose segment had to be rendered */
+    private long misses = 0;
+
+    /** Number of bytes written from cached segments */
+    private long hitBytes = 0;
+
+    /** Number of segments evicted to stay within the budget */
+    private long evictions = 0;
+
+    /**
+     * A segment file and its mapping.
+     */
+    private static final class Entry {
+        /** The segment file */
+        private final Path path;
+
+        /** Size of the file in bytes */
+        private final long size;
+
+        /** The samples mapped from the file, or null until the segment is used */
+        private MappedByteBuffer mapped;
+
+        /**
+         * Constructs a cache entry.
+         *
+         * @param path The segment file
+         * @param size Size of the file in bytes
+         */
+        Entry(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Constructs a cache keeping its segments in a directory, picking up
+     * the segments already there. Segments over the budget are evicted,
+     * oldest first, and files left half written are deleted.
+     *
+     * @param dir         The directory of the segment files, created if missing
+     * @param budgetBytes The disk budget in bytes
+     * @throws IOException If the directory cannot be created or read
+     */
+    public SegmentCache(Path dir, long budgetBytes) throws IOException {
+        this.dir = dir;
+        this.budgetBytes = budgetBytes;
+        Files.createDirectories(dir);
+        final List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path path : files) {
+                final String name = path.getFileName().toString();
+                if (name.endsWith(TEMP_EXTENSION)) {
+                    Files.deleteIfExists(path);
+                } else if (name.endsWith(EXTENSION)) {
+                    found.add(path);
+                }
+            }
+        }
+        final Map<Path, FileTime> used = new HashMap<>();
+        for (Path path : found) {
+            used.put(path, Files.getLastModifiedTime(path));
+        }
+        found.sort(Comparator.comparing(used::get));
+        synchronized (this) {
+            for (Path path : found) {
+                final String name = path.getFileName().toString();
+                final Entry entry = new Entry(path, Files.size(path));
+                segments.put(name.substring(0, name.length() - EXTENSION.length()), entry);
+                bytes += entry.size;
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Creates the segment cache from the "segment.cache" system property,
+     * keeping its segments in build/segments.
+     *
+     * @return The segment cache, or null if every segment is rendered
+     * @throws IllegalArgumentException If the property is invalid
+     * @throws IOException              If the directory cannot be created or read
+     */
+    static SegmentCache fromProperties() throws IOException {
+        final String budget = System.getProperty("segment.cache", "");
+        final long kb = budget.isBlank() ? DEFAULT_BUDGET_KB : Long.parseLong(budget.strip());
+        if (kb < 0) {
+            throw new IllegalArgumentException("Negative segment cache budget: " + kb);
+        }
+        if (kb == 0) {
+            return null;
+        }
+        return new SegmentCache(DEFAULT_DIR, kb * 1024);
+    }
+
+    /**
+     * Finds the end of the segment starting at the given step. The segment
+     * ends after the first step, from its MIN_STEPS-th on, whose hash has
+     * the boundary bits clear, or after MAX_STEPS steps.
+     *
+     * @param song  The notes of the song
+     * @param start The position of the first note of the segment
+     * @return The position after the last note of the segment
+     */
+    static int segmentEnd(Score song, int start) {
+        int end = start;
+        for (int steps = 1; end < song.size(); steps++) {
+            final int stepStart = end;
+            end = song.stepEnd(stepStart);
+            if (steps >= MAX_STEPS || steps >= MIN_STEPS && (stepHash(song, stepStart, end) & BOUNDARY_MASK) == 0) {
+                break;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Hashes the events and tempo of a step, to choose the segment boundaries.
+     *
+     * @param song  The notes of the song
+     * @param start The position of the first note of the step
+     * @param end   The position after the last note of the step
+     * @return A well mixed hash of the step
+     */
+    private static int stepHash(Score song, int start, int end) {
+        int h = song.tempoAt(start).hashCode();
+        for (int i = start; i < end; i++) {
+            h = 31 * h + song.event(i);
+        }
+        // Spread every bit of the step into the low bits tested for a boundary.
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * Names a segment by a SHA-256 hash of everything its samples depend on:
+     * the events and tempo of each step, the output format and the tones.
+     * The sample kernels are left out, since the vector and scalar kernels
+     * mix the same samples.
+     *
+     * @param song  The notes of the song
+     * @param start The position of the first note of the segment
+     * @param end   The position after the last note of the segment
+     * @param af    The audio format the segment is rendered to
+     * @param tone  The name of the tones the notes are rendered with
+     * @return The hex digits of the hash
+     */
+    static String key(Score song, int start, int end, AudioFormat af, String tone) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+        digest.update((RENDER_VERSION + " " + af + " " + tone).getBytes(StandardCharsets.UTF_8));
+        final ByteBuffer step = ByteBuffer.allocate(4 * Integer.BYTES);
+        final ByteBuffer events = ByteBuffer.allocate(Integer.BYTES * 64);
+        for (int s = start; s < end; s = song.stepEnd(s)) {
+            final Tempo tempo = song.tempoAt(s);
+            final int stepEnd = song.stepEnd(s);
+            step.clear();
+            step.putInt(tempo.bpm()).putInt(tempo.beats()).putInt(tempo.beatUnit()).putInt(stepEnd - s);
+            digest.update(step.array());
+            for (int i = s; i < stepEnd; i++) {
+                if (!events.hasRemaining()) {
+                    digest.update(events.array(), 0, events.position());
+                    events.clear();
+                }
+                events.putInt(song.event(i));
+            }
+            digest.update(events.array(), 0, events.position());
+            events.clear();
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Gets the samples of a cached segment, mapped from its file, and marks
+     * the segment as used.
+     *
+     * @param key The name of the segment
+     * @return A read-only buffer of the samples, or null if the segment is not cached
+     */
+    public ByteBuffer get(String key) {
+        final Entry entry;
+        synchronized (this) {
+            entry = segments.get(key);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+        }
+        MappedByteBuffer mapped;
+        synchronized (entry) {
+            mapped = entry.mapped;
+            if (mapped == null) {
+                try (FileChannel channel = FileChannel.open(entry.path, StandardOpenOption.READ)) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, entry.size);
+                } catch (IOException e) {
+                    // The file was deleted or cut short behind the cache's back.
+                    mapped = null;
+                }
+                entry.mapped = mapped;
+            }
+        }
+        synchronized (this) {
+            if (mapped == null) {
+                if (segments.get(key) == entry) {
+                    remove(key);
+                }
+                misses++;
+                return null;
+            }
+            hits++;
+            hitBytes += entry.size;
+        }
+        try {
+            Files.setLastModifiedTime(entry.path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Evicted in the meantime, the mapping stays readable.
+        }
+        return mapped.duplicate();
+    }
+
+    /**
+     * Caches the samples of a segment, then evicts the least recently used
+     * segments until the cache fits its budget. The file is written under a
+     * temporary name and moved into place, so it is never seen half written.
+     * A segment larger than the whole budget is not cached.
+     *
+     * @param key     The name of the segment
+     * @param samples The rendered samples
+     * @return True if the segment was cached, false if it could not be written
+     */
+    public boolean put(String key, byte[] samples) {
+        if (samples.length > budgetBytes) {
+            return false;
+        }
+        final Path path = dir.resolve(key + EXTENSION);
+        final Path temp = dir.resolve(key + "." + Thread.currentThread().threadId() + TEMP_EXTENSION);
+        try {
+            Files.write(temp, samples);
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Failed to cache segment " + key + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Deleted when the cache is next opened.
+            }
+            return false;
+        }
+        synchronized (this) {
+            remove(key);
+            segments.put(key, new Entry(path, samples.length));
+            bytes += samples.length;
+            evict();
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the least recently used segments until the cache fits its
+     * budget. Buffers already mapped from them stay readable.
+     */
+    private void evict() {
+        final Iterator<Map.Entry<String, Entry>> it = segments.entrySet().iterator();
+        while (bytes > budgetBytes && it.hasNext()) {
+            final Entry entry = it.next().getValue();
+            it.remove();
+            bytes -= entry.size;
+            evictions++;
+            try {
+                Files.deleteIfExists(entry.path);
+            } catch (IOException e) {
+                System.err.println("Failed to evict segment " + entry.path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Drops a segment from the cache, leaving its file alone.
+     *
+     * @param key The name of the segment
+     */
+    private void remove(String key) {
+        final Entry old = segments.remove(key);
+        if (old != null) {
+            bytes -= old.size;
+        }
+    }
+
+    /**
+     * Gets the number of lookups that found their segment.
+     *
+     * @return The number of cache hits
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups whose segment had to be rendered.
+     *
+     * @return The number of cache misses
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Summarises the use of the cache.
+     *
+     * @return A human readable summary
+     */
+    @Override
+    public synchronized String toString() {
+        final long lookups = hits + misses;
+        return segments.size() + " segments, " + bytes / 1024 + " of " + budgetBytes / 1024 + " KB, " + hits
+                + " hits, " + misses + " misses (hit rate " + (lookups == 0 ? 0 : hits * 100 / lookups) + "%), "
+                + hitBytes / 1024 + " KB reused, " + evictions + " evictions";
+    }
+}
@@ -0,0 +1,593 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Keeps parsed songs in memory so that playing a song again does not read or
+ * parse its file. Songs are keyed by their resolved path and the tempo they
+ * start at, and every cached song remembers a hash of its file contents.
+ * The directories given to watch() are watched in the background: a song
+ * that changes is read again and only parsed if its contents differ, a
+ * compiled song that changes is mapped again from its new file, and a song
+ * that is deleted is dropped. Songs in a watched directory are found
+ * again by the name they were played with, without touching the disk. Songs
+ * elsewhere are checked against the size and modification time of their file
+ * on every lookup. The least recently used songs are evicted once the cache
+ * holds more bytes than its budget.
+ */
+public class SongCache implements AutoCloseable {
+
+    /** Default memory budget of the song cache in KB */
+    static final int DEFAULT_BUDGET_KB = 16384;
+
+    /** Explains the song cache properties when they are invalid */
+    static final String USAGE = "Invalid song cache, use -Dsong.cache=[KB] (0 to read every song from disk) and "
+            + "-Dsong.watch=true or -Dsong.watch=false";
+
+    /** Estimated bytes taken by a cached song besides its events */
+    private static final int ENTRY_BYTES = 256;
+
+    /** Bytes taken by each event of a parsed song */
+    private static final int PACKED_EVENT_BYTES = 4;
+
+    /** Bytes taken by each event of a compiled song, mapped from its file */
+    private static final int MAPPED_EVENT_BYTES = 2;
+
+    /** Time to let a file being written settle before reading it again, in milliseconds */
+    private static final int SETTLE_MS = 100;
+
+    /** Discards the errors of songs reloaded in the background */
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    /** Largest number of bytes the cached songs may take up */
+    private final long budgetBytes;
+
+    /** Cached songs in order of last use, least recently used first */
+    private final LinkedHashMap<Key, Entry> songs = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Resolved paths of the songs in watched directories, by the name they were played with */
+    private final Map<String, Path> aliases = new HashMap<>();
+
+    /** Watched directories, by their watch key */
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    /** Watches the directories, or null if none is watched */
+    private WatchService watcher;
+
+    /** Number of bytes taken up by the cached songs */
+    private long bytes = 0;
+
+    /** Number of lookups that found their song in the cache */
+    private long hits = 0;
+
+    /** Number of lookups that had to read their song */
+    private long misses = 0;
+
+    /** Number of songs parsed again after their file changed */
+    private long reloads = 0;
+
+    /** Number of songs evicted to stay within the budget */
+    private long evictions = 0;
+
+    /**
+     * Identifies a cached song by its file and starting tempo.
+     */
+    private static final class Key {
+        /** The absolute, normalized path of the song file */
+        private final Path path;
+
+        /** The tempo the song starts at unless it sets its own */
+        private final Tempo tempo;
+
+        /**
+         * Constructs the key of a song.
+         *
+         * @param path  The absolute, normalized path of the song file
+         * @param tempo The tempo the song starts at
+         */
+        Key(Path path, Tempo tempo) {
+            this.path = path;
+            this.tempo = tempo;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key) o;
+            return path.equals(k.path) && tempo.equals(k.tempo);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * path.hashCode() + tempo.hashCode();
+        }
+    }
+
+    /**
+     * A cached song and what is known about the file it was read from.
+     */
+    private static final class Entry {
+        /** The notes of the song */
+        private final Score score;
+
+        /** SHA-256 hash of the file contents */
+        private final byte[] hash;
+
+        /** Size of the file when it was read */
+        private final long size;
+
+        /** Modification time of the file when it was read, in milliseconds */
+        private final long modified;
+
+        /** Estimated number of bytes the song takes up */
+        private final long bytes;
+
+        /**
+         * Constructs a cache entry.
+         *
+         * @param score    The notes of the song
+         * @param hash     SHA-256 hash of the file contents
+         * @param size     Size of the file when it was read
+         * @param modified Modification time of the file when it was read, in milliseconds
+         */
+        Entry(Score score, byte[] hash, long size, long modified) {
+            this.score = score;
+            this.hash = hash;
+            this.size = size;
+            this.modified = modified;
+            final int eventBytes = score instanceof MappedScore ? MAPPED_EVENT_BYTES : PACKED_EVENT_BYTES;
+            this.bytes = ENTRY_BYTES + (long) eventBytes * score.size();
+        }
+    }
+
+    /**
+     * Constructs a cache holding at most the given number of bytes of songs.
+     *
+     * @param budgetBytes The memory budget in bytes
+     */
+    public SongCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Creates the song cache from the "song.cache" and "song.watch" system
+     * properties. Unless watching is turned off, the songs/ directory is
+     * watched if it exists.
+     *
+     * @return The song cache, or null if songs are read from disk every time
+     * @throws IllegalArgumentException If the properties are invalid
+     * @throws IOException              If the songs/ directory cannot be watched
+     */
+    static SongCache fromProperties() throws IOException {
+        final String budget = System.getProperty("song.cache", "");
+        final long kb = budget.isBlank() ? DEFAULT_BUDGET_KB : Long.parseLong(budget.strip());
+        if (kb < 0) {
+            throw new IllegalArgumentException("Negative song cache budget: " + kb);
+        }
+        if (kb == 0) {
+            return null;
+        }
+        final String property = System.getProperty("song.watch", "");
+        final String watch = property.isBlank() ? "true" : property.strip();
+        if (!watch.equalsIgnoreCase("true") && !watch.equalsIgnoreCase("false")) {
+            throw new IllegalArgumentException("Unknown song.watch value: " + watch);
+        }
+        final SongCache cache = new SongCache(kb * 1024);
+        final Path songs = Path.of("songs");
+        if (Boolean.parseBoolean(watch) && Files.isDirectory(songs)) {
+            cache.watch(songs);
+        }
+        return cache;
+    }
+
+    /**
+     * Gets a song, reading and caching it if it is not cached yet or its
+     * file has changed. A song played before from a watched directory is
+     * returned without any file I/O. The returned Score is shared and must
+     * not be modified.
+     *
+     * @param filename The path or name of the song, resolved like SongParser.resolve
+     * @param tempo    The tempo a text song starts at unless it sets its own
+     * @param err      The stream errors are printed to
+     * @return The notes of the song, or null if it cannot be found or is invalid
+     */
+    public Score get(String filename, Tempo tempo, PrintStream err) {
+        final Score known = peek(filename, tempo);
+        if (known != null) {
+            return known;
+        }
+        final File file = SongParser.resolve(filename, err);
+        if (file == null) {
+            return null;
+        }
+        final Path path = file.toPath().toAbsolutePath().normalize();
+        final Key key = new Key(path, tempo);
+        final boolean inWatched = isWatched(path);
+        final Entry cached;
+        synchronized (this) {
+            cached = songs.get(key);
+        }
+        if (cached != null && (inWatched || isUnchanged(cached, path))) {
+            synchronized (this) {
+                hits++;
+                if (inWatched) {
+                    aliases.put(filename, path);
+                }
+            }
+            return cached.score;
+        }
+        final Entry loaded = load(key, cached, err);
+        synchronized (this) {
+            misses++;
+            if (loaded == null) {
+                remove(key);
+                return null;
+            }
+            put(key, loaded);
+            if (inWatched) {
+                aliases.put(filename, path);
+            }
+        }
+        return loaded.score;
+    }
+
+    /**
+     * Gets a song played before from a watched directory, without any file
+     * I/O. The returned Score is shared and must not be modified.
+     *
+     * @param filename The path or name the song was played with
+     * @param tempo    The tempo a text song starts at unless it sets its own
+     * @return The notes of the song, or null if it is not known by that name
+     */
+    public synchronized Score peek(String filename, Tempo tempo) {
+        final Path alias = aliases.get(filename);
+        final Entry entry = alias == null ? null : songs.get(new Key(alias, tempo));
+        if (entry == null) {
+            return null;
+        }
+        hits++;
+        return entry.score;
+    }
+
+    /**
+     * Watches a directory and every directory below it for changed songs.
+     * The changes are handled on a background thread.
+     *
+     * @param dir The directory to watch
+     * @throws IOException If the directory cannot be watched
+     */
+    public synchronized void watch(Path dir) throws IOException {
+        if (watcher == null) {
+            final WatchService service = dir.getFileSystem().newWatchService();
+            watcher = service;
+            final Thread thread = new Thread(() -> watchChanges(service), "SongCache watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        register(dir.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Registers a directory and every directory below it with the watcher.
+     *
+     * @param dir The absolute, normalized directory
+     * @throws IOException If a directory cannot be registered
+     */
+    private synchronized void register(Path dir) throws IOException {
+        if (watcher == null) {
+            return;
+        }
+        try (Stream<Path> tree = Files.walk(dir)) {
+            for (Path d : (Iterable<Path>) tree.filter(Files::isDirectory)::iterator) {
+                directories.put(d.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), d);
+            }
+        }
+    }
+
+    /**
+     * Checks if a song file is in a watched directory.
+     *
+     * @param path The absolute, normalized path of the song file
+     * @return True if changes to the file are reported by the watcher
+     */
+    private synchronized boolean isWatched(Path path) {
+        return directories.containsValue(path.getParent());
+    }
+
+    /**
+     * Checks if a file still has the size and modification time it had when
+     * its song was cached.
+     *
+     * @param entry The cached song
+     * @param path  The song file
+     * @return True if the file looks unchanged, false if it changed or cannot be read
+     */
+    private static boolean isUnchanged(Entry entry, Path path) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.size() == entry.size && attributes.lastModifiedTime().toMillis() == entry.modified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads a song file and parses it unless its contents are the same as
+     * those of the cached song. A compiled song is always mapped again: its
+     * file is replaced by a rename when it is recompiled, and the old mapping
+     * would keep the replaced file alive.
+     *
+     * @param key    The song to read
+     * @param cached The cached song, or null if there is none
+     * @param err    The stream errors are printed to
+     * @return The new entry, or null if the file cannot be read or is invalid
+     */
+    private static Entry load(Key key, Entry cached, PrintStream err) {
+        final BasicFileAttributes attributes;
+        final byte[] content;
+        try {
+            attributes = Files.readAttributes(key.path, BasicFileAttributes.class);
+            content = Files.readAllBytes(key.path);
+        } catch (IOException e) {
+            err.println("Failed to read " + key.path + ": " + e.getMessage());
+            return null;
+        }
+        final byte[] hash = hash(content);
+        final Score score;
+        if (cached != null && Arrays.equals(cached.hash, hash) && !(cached.score instanceof MappedScore)) {
+            score = cached.score;
+        } else if (content.length >= Integer.BYTES && ByteBuffer.wrap(content).getInt() == CompiledSong.MAGIC) {
+            score = CompiledSong.load(key.path.toFile(), err);
+        } else {
+            score = new SongParser(err, key.tempo).parseBytes(content);
+        }
+        if (score == null) {
+            return null;
+        }
+        return new Entry(score, hash, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Hashes the contents of a song file.
+     *
+     * @param content The bytes of the file
+     * @return The SHA-256 hash
+     */
+    private static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Handles the changes reported by the watcher until it is closed.
+     *
+     * @param service The watcher
+     */
+    private void watchChanges(WatchService service) {
+        while (true) {
+            final WatchKey key;
+            try {
+                key = service.take();
+                // Let an editor finish saving, so its truncate and write events are handled once.
+                Thread.sleep(SETTLE_MS);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            final Path dir;
+            synchronized (this) {
+                dir = directories.get(key);
+            }
+            final List<Path> changed = new ArrayList<>();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    // Events were lost, check every cached song.
+                    for (Path path : cachedPaths()) {
+                        if (!changed.contains(path)) {
+                            changed.add(path);
+                        }
+                    }
+                    continue;
+                }
+                final Path path = dir.resolve((Path) event.context());
+                if (event.kind() != StandardWatchEventKinds.ENTRY_MODIFY) {
+                    // A file appearing or disappearing may change what a song name resolves to.
+                    synchronized (this) {
+                        aliases.clear();
+                    }
+                }
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    try {
+                        register(path);
+                    } catch (IOException e) {
+                        System.err.println("Failed to watch " + path + ": " + e.getMessage());
+                    }
+                } else if (!changed.contains(path)) {
+                    changed.add(path);
+                }
+            }
+            for (Path path : changed) {
+                reload(path);
+            }
+            if (!key.reset()) {
+                synchronized (this) {
+                    directories.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the paths of all cached songs.
+     *
+     * @return The distinct paths
+     */
+    private synchronized List<Path> cachedPaths() {
+        final List<Path> paths = new ArrayList<>();
+        for (Key k : songs.keySet()) {
+            if (!paths.contains(k.path)) {
+                paths.add(k.path);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Reads a changed song file again for every tempo it is cached at. Songs
+     * whose file was deleted or became invalid are dropped, so the next play
+     * reads the file and reports its errors.
+     *
+     * @param path The absolute, normalized path of the changed file
+     */
+    private void reload(Path path) {
+        final List<Key> keys = new ArrayList<>();
+        final List<Entry> entries = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Key, Entry> e : songs.entrySet()) {
+                if (e.getKey().path.equals(path)) {
+                    keys.add(e.getKey());
+                    entries.add(e.getValue());
+                }
+            }
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            final Entry loaded = Files.exists(path) ? load(keys.get(i), entries.get(i), DISCARD) : null;
+            synchronized (this) {
+                if (songs.get(keys.get(i)) != entries.get(i)) {
+                    // The song was read again or evicted in the meantime.
+                    continue;
+                }
+                if (loaded == null) {
+                    remove(keys.get(i));
+                } else {
+                    if (!Arrays.equals(loaded.hash, entries.get(i).hash)) {
+                        reloads++;
+                    }
+                    put(keys.get(i), loaded);
+                }
+            }
+        }
+    }
+
+    /**
+     * Caches a song, replacing any entry with the same key, and evicts the
+     * least recently used songs until the cache fits its budget. A song
+     * larger than the whole budget is not cached.
+     *
+     * @param key   The song
+     * @param entry The entry to cache
+     */
+    private void put(Key key, Entry entry) {
+        remove(key);
+        if (entry.bytes > budgetBytes) {
+            return;
+        }
+        songs.put(key, entry);
+        bytes += entry.bytes;
+        final Iterator<Map.Entry<Key, Entry>> it = songs.entrySet().iterator();
+        while (bytes > budgetBytes && it.hasNext()) {
+            bytes -= it.next().getValue().bytes;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops a song from the cache.
+     *
+     * @param key The song
+     */
+    private void remove(Key key) {
+        final Entry old = songs.remove(key);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+    }
+
+    /**
+     * Gets the number of lookups that found their song in the cache.
+     *
+     * @return The number of cache hits
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups that had to read their song.
+     *
+     * @return The number of cache misses
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of songs parsed again after their file changed.
+     *
+     * @return The number of reloads
+     */
+    public synchronized long reloads() {
+        return reloads;
+    }
+
+    /**
+     * Stops watching for changes. The cached songs stay available.
+     */
+    @Override
+    public void close() {
+        final WatchService w;
+        synchronized (this) {
+            w = watcher;
+            watcher = null;
+            directories.clear();
+            aliases.clear();
+        }
+        if (w != null) {
+            try {
+                w.close();
+            } catch (IOException e) {
+                System.err.println("Failed to stop watching songs: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Summarises the use of the cache.
+     *
+     * @return A human readable summary
+     */
+    @Override
+    public synchronized String toString() {
+        final long lookups = hits + misses;
+        return songs.size() + " songs, " + bytes / 1024 + " of " + budgetBytes / 1024 + " KB, " + hits + " hits, "
+                + misses + " misses (hit rate " + (lookups == 0 ? 0 : hits * 100 / lookups) + "%), " + reloads
+                + " reloads, " + evictions + " evictions";
+    }
+}
@@ -0,0 +1,303 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import enums.Note;
+import enums.NoteLength;
+
+/**
+ * Parses musical notation from song files into packed Scores.
+ * The file format should have one note per line with the format: "NOTE LENGTH"
+ * Where NOTE is the name of a Note enum value and LENGTH is a number
+ * representing the note duration (1 for whole note, 2 for half note, 4 for
+ * quarter note, etc.).
+ * Notes played at the same time are joined with a plus sign, for example
+ * "C4+E4+G4 2" plays a C major chord for a half note.
+ * The tempo and meter are set with "TEMPO 120" and "METER 3/4" lines, in the
+ * header or between notes, and apply to every following note.
+ */
+public class SongParser {
+
+    /** Dotted half representation in txt files */
+    private static final int DOTTED_HALF_INPUT = 3;
+
+    /** Dotted quarter representation in txt files */
+    private static final int DOTTED_QUARTER_INPUT = 6;
+
+    /** Dotted half measure length */
+    private static final float DOTTED_HALF_LENGTH = 0.75f;
+
+    /** Dotted quarter measure length */
+    private static final float DOTTED_QUARTER_LENGTH = 0.375f;
+
+    /** Directive setting the tempo in beats per minute */
+    static final String TEMPO_DIRECTIVE = "TEMPO";
+
+    /** Directive setting the meter as beats per measure and beat unit */
+    static final String METER_DIRECTIVE = "METER";
+
+    /** Where parse errors are reported */
+    private final PrintStream err;
+
+    /** The tempo the next notes are played at */
+    private Tempo tempo;
+
+    /**
+     * Constructs a SongParser reporting errors to the given stream.
+     *
+     * @param err The stream parse errors are printed to
+     */
+    public SongParser(PrintStream err) {
+        this(err, Tempo.DEFAULT);
+    }
+
+    /**
+     * Constructs a SongParser reporting errors to the given stream, for songs
+     * starting at the given tempo unless they set their own.
+     *
+     * @param err   The stream parse errors are printed to
+     * @param tempo The tempo songs start at
+     */
+    public SongParser(PrintStream err, Tempo tempo) {
+        this.err = err;
+        this.tempo = tempo;
+    }
+
+    /**
+     * Finds a song file. If the file is not found, the songs/ directory is
+     * prepended and .txt appended, so a song can be given by its name alone.
+     *
+     * @param filename The path or name of the song
+     * @param err      The stream errors are printed to
+     * @return The song file, or null if no such file exists
+     */
+    public static File resolve(String filename, PrintStream err) {
+        File file = new File(filename);
+        if (file.exists()) {
+            // Check that the provided path is not a directory
+            if (file.isDirectory()) {
+                err.println("Provided path is a directory, not a valid file: " + filename);
+                return null;
+            }
+            return file;
+        }
+        // If the file is not found, try prepending the songs/ directory or adding .txt
+        if (!filename.startsWith("songs/")) {
+            return resolve("songs/" + filename, err);
+        } else if (!filename.endsWith(".txt")) {
+            return resolve(filename + ".txt", err);
+        }
+        err.println("File: " + filename + " not found");
+        return null;
+    }
+
+    /**
+     * Parses a whole song file. Every line is checked so that all errors are
+     * reported, even after the first invalid line.
+     *
+     * @param file The song file
+     * @return A Score holding the notes of the song, or null if parsing failed
+     */
+    public Score parseFile(File file) {
+        if (MappedSongParser.supports(Charset.defaultCharset())) {
+            return MappedSongParser.parseFile(file, tempo, err);
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            return parseLines(reader);
+        } catch (IOException ignored) {
+            err.println("File " + file + " exists, this should never happen");
+            return null;
+        }
+    }
+
+    /**
+     * Parses the contents of a song file that has already been read into
+     * memory, decoded with the default charset like parseFile.
+     *
+     * @param content The bytes of the song file
+     * @return A Score holding the notes of the song, or null if parsing failed
+     */
+    public Score parseBytes(byte[] content) {
+        if (MappedSongParser.supports(Charset.defaultCharset())) {
+            return MappedSongParser.parse(ByteBuffer.wrap(content), tempo, err);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content),
+                Charset.defaultCharset()))) {
+            return parseLines(reader);
+        } catch (IOException e) {
+            // Reading from memory cannot fail.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses every line of a song. Every line is checked so that all errors
+     * are reported, even after the first invalid line.
+     *
+     * @param reader The lines of the song
+     * @return A Score holding the notes of the song, or null if parsing failed
+     * @throws IOException If reading a line fails
+     */
+    Score parseLines(BufferedReader reader) throws IOException {
+        final PackedScore notes = new PackedScore();
+        String line;
+        int lineNumber = 0;
+        boolean valid = true;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (!parseLine(line, lineNumber, notes)) {
+                valid = false;
+            }
+        }
+        if (valid == false) {
+            err.println("At least one line failed to read, please review errors");
+            return null;
+        }
+        return notes;
+    }
+
+    /**
+     * Parses a single line of a song file and appends its notes, or applies
+     * its tempo or meter to the notes that follow.
+     * Nothing is appended if the line is invalid.
+     *
+     * @param line       The text of the line
+     * @param lineNumber The number of the line, used in error messages
+     * @param notes      The score the notes of the line are added to
+     * @return True if the line was valid, false otherwise
+     */
+    public boolean parseLine(String line, int lineNumber, PackedScore notes) {
+        final String[] elements = line.split(" ");
+        if (elements.length < 2) {
+            err.println("Line " + lineNumber + ": Couldn't extract two elements from line: " + line);
+            return false;
+        }
+        if (TEMPO_DIRECTIVE.equals(elements[0]) || METER_DIRECTIVE.equals(elements[0])) {
+            return parseDirective(elements[0], elements[1], lineNumber);
+        }
+        List<Note> chord = parseChord(elements[0], lineNumber);
+        NoteLength nl = parseNoteLength(elements[1], lineNumber);
+        if (chord == null || nl == null) {
+            return false;
+        }
+        notes.setTempo(notes.size(), tempo);
+        for (int i = 0; i < chord.size(); i++) {
+            notes.add(chord.get(i), nl, i > 0);
+        }
+        return true;
+    }
+
+    /**
+     * Parses a tempo or meter directive and applies it to the notes that
+     * follow.
+     *
+     * @param directive  The name of the directive
+     * @param value      The beats per minute, or the meter such as "3/4"
+     * @param lineNumber The number of the line, used in error messages
+     * @return True if the directive was valid, false otherwise
+     */
+    private boolean parseDirective(String directive, String value, int lineNumber) {
+        try {
+            tempo = TEMPO_DIRECTIVE.equals(directive)
+                    ? tempo.withBpm(Integer.parseInt(value.strip()))
+                    : tempo.withMeter(value);
+            return true;
+        } catch (IllegalArgumentException e) {
+            err.println("Line " + lineNumber + ": Failed to parse " + directive.toLowerCase() + ": " + value);
+            return false;
+        }
+    }
+
+    /**
+     * Parses a chord of one or more notes joined with a plus sign.
+     * Each note may only appear once in a chord because a single Member plays it.
+     *
+     * @param chord      The string representation of the chord
+     * @param lineNumber The number of the line, used in error messages
+     * @return The notes of the chord, or null if parsing fails
+     */
+    private List<Note> parseChord(String chord, int lineNumber) {
+        final List<Note> notes = new ArrayList<>();
+        for (String element : chord.split("\\+", -1)) {
+            Note n = parseNote(element, lineNumber);
+            if (n == null) {
+                return null;
+            }
+            if (notes.contains(n)) {
+                err.println("Line " + lineNumber + ": Note " + n + " appears twice in chord: " + chord);
+                return null;
+            }
+            notes.add(n);
+        }
+        return notes;
+    }
+
+    /**
+     * Parses a string into a Note enum value.
+     *
+     * @param note       The string representation of the note
+     * @param lineNumber The number of the line, used in error messages
+     * @return The corresponding Note enum value, or null if parsing fails
+     */
+    private Note parseNote(String note, int lineNumber) {
+        try {
+            return Note.valueOf(note);
+        } catch (IllegalArgumentException e) {
+            err.println("Line " + lineNumber + ": Failed to parse note: " + note);
+            return null;
+        }
+    }
+
+    /**
+     * Parses a string into a NoteLength enum value.
+     * Supports standard note lengths as well as dotted notes.
+     * Example: "4" = quarter note, "2" = half note, "1" = whole note
+     * Special cases: "3" = dotted half note, "6" = dotted quarter note
+     *
+     * @param noteLength The string representation of the note length
+     * @param lineNumber The number of the line, used in error messages
+     * @return The corresponding NoteLength enum value, or null if parsing fails
+     */
+    private NoteLength parseNoteLength(String noteLength, int lineNumber) {
+        NoteLength nl = null;
+        try {
+            nl = lengthOf(Integer.parseInt(noteLength.strip()));
+        } catch (NumberFormatException ignored) {
+            // Reported below like any other invalid length.
+        }
+        if (nl == null) {
+            err.println("Line " + lineNumber + ": Failed to parse note length: " + noteLength);
+        }
+        return nl;
+    }
+
+    /**
+     * Finds the note length written as the given number in a song file.
+     * Example: 4 = quarter note, 2 = half note, 1 = whole note
+     * Special cases: 3 = dotted half note, 6 = dotted quarter note
+     *
+     * @param input The number written in the file
+     * @return The corresponding NoteLength enum value, or null if the number is not a length
+     */
+    static NoteLength lengthOf(int input) {
+        try {
+            if (input == DOTTED_HALF_INPUT) {
+                return NoteLength.fromLength(DOTTED_HALF_LENGTH);
+            } else if (input == DOTTED_QUARTER_INPUT) {
+                return NoteLength.fromLength(DOTTED_QUARTER_LENGTH);
+            }
+            return NoteLength.fromLength(1 / ((float) input));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and parses a song file on its own thread while the song is played.
+ * Each line becomes one step, a single note or a chord, that is handed to the
+ * Conductor through a bounded queue, so playback can start as soon as the
+ * first line is parsed and memory does not grow with the length of the song.
+ * After an invalid line nothing more is queued, but the rest of the file is
+ * still checked so that every error is reported, until the Conductor closes
+ * the reader. Each step carries the tempo it is played at.
+ */
+public class SongReader implements Runnable {
+
+    /** Marks the end of the playable part of the song in the queue */
+    private static final Score END = new PackedScore();
+
+    /** How long to wait for space in the queue before checking if reading was closed */
+    private static final long OFFER_TIMEOUT_MS = 100;
+
+    /** The song file being read */
+    private final File file;
+
+    /** Where parse errors are reported */
+    private final PrintStream err;
+
+    /** The tempo the song starts at unless it sets its own */
+    private final Tempo tempo;
+
+    /** Parsed steps waiting to be played */
+    private final BlockingQueue<Score> queue;
+
+    /** The thread reading the file, created by start() */
+    private Thread thread;
+
+    /** Number of the first invalid line, or 0 if every line so far was valid */
+    private volatile int errorLine = 0;
+
+    /** Flag indicating that the Conductor no longer takes steps from the queue */
+    private volatile boolean closed = false;
+
+    /** Flag indicating that the end marker has been taken from the queue */
+    private boolean finished = false;
+
+    /**
+     * Constructs a SongReader for the given file.
+     *
+     * @param file     The song file to read
+     * @param capacity The number of parsed steps to read ahead of playback
+     * @param tempo    The tempo the song starts at unless it sets its own
+     * @param err      The stream parse errors are printed to
+     */
+    public SongReader(File file, int capacity, Tempo tempo, PrintStream err) {
+        this.file = file;
+        this.err = err;
+        this.tempo = tempo;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Starts reading the song file. The thread is only created here, after
+     * construction, so it never sees a reader that is not fully built.
+     */
+    public void start() {
+        thread = new Thread(this, "SongReader " + file.getName());
+        thread.start();
+    }
+
+    /**
+     * Takes the next step of the song, waiting until it has been parsed.
+     *
+     * @return A score holding just the next step, or null at the end of the song or at
+     *         the first invalid line
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    public Score next() throws InterruptedException {
+        if (finished) {
+            return null;
+        }
+        final Score step = queue.take();
+        if (step == END) {
+            finished = true;
+            return null;
+        }
+        return step;
+    }
+
+    /**
+     * Gets the number of the first invalid line.
+     *
+     * @return The first invalid line, or 0 if no invalid line has been read
+     */
+    public int errorLine() {
+        return errorLine;
+    }
+
+    /**
+     * Stops handing steps to the Conductor and stops reading the file, then
+     * waits for the reading thread. Lines not read yet are not checked.
+     */
+    public void close() {
+        closed = true;
+        queue.clear();
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            System.err.println(thread.getName() + " stop malfunction");
+        }
+    }
+
+    /**
+     * Reads the file line by line, queueing each valid step until the first
+     * invalid line and reporting every error found, until the reader is
+     * closed.
+     */
+    @Override
+    public void run() {
+        final SongParser parser = new SongParser(err, tempo);
+        String line;
+        int lineNumber = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            while ((line = reader.readLine()) != null) {
+                if (closed) {
+                    // Nobody plays or reports the rest of the song.
+                    return;
+                }
+                lineNumber++;
+                final PackedScore step = new PackedScore();
+                if (!parser.parseLine(line, lineNumber, step)) {
+                    if (errorLine == 0) {
+                        // Playback ends here, the rest of the file is only checked.
+                        errorLine = lineNumber;
+                        put(END);
+                    }
+                } else if (errorLine == 0 && step.size() > 0) {
+                    // Tempo and meter lines only change the steps after them.
+                    put(step);
+                }
+            }
+        } catch (IOException e) {
+            err.println("Line " + (lineNumber + 1) + ": Failed to read " + file + ": " + e.getMessage());
+            if (errorLine == 0) {
+                errorLine = lineNumber + 1;
+                put(END);
+            }
+        }
+        if (errorLine != 0) {
+            err.println("At least one line failed to read, please review errors");
+        } else {
+            put(END);
+        }
+    }
+
+    /**
+     * Queues a step, giving up once the Conductor has closed the reader.
+     *
+     * @param step The step to queue
+     */
+    private void put(Score step) {
+        try {
+            while (!closed && !queue.offer(step, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                // Wait for playback to make room in the queue.
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+import enums.Note;
+import enums.NoteLength;
+
+/**
+ * The speed and meter a part of a song is played at.
+ * The tempo counts beats per minute, where a beat is the note length given
+ * by the lower number of the meter: 120 BPM in 3/4 plays 120 quarter notes a
+ * minute, three to a measure. The number of samples of every note length is
+ * worked out once when a tempo is created, so playing a note only looks up
+ * its length in a table.
+ */
+public final class Tempo {
+
+    /** All note lengths, indexed by ordinal, set before DEFAULT is built */
+    private static final NoteLength[] LENGTHS = NoteLength.values();
+
+    /** Beats per minute of the default tempo, a whole note per second */
+    static final int DEFAULT_BPM = 240;
+
+    /** Beats per measure of the default meter */
+    static final int DEFAULT_BEATS = 4;
+
+    /** Note length of a beat in the default meter, a quarter note */
+    static final int DEFAULT_BEAT_UNIT = 4;
+
+    /** The tempo songs play at unless they set their own, 240 BPM in 4/4 */
+    public static final Tempo DEFAULT = new Tempo(DEFAULT_BPM, DEFAULT_BEATS, DEFAULT_BEAT_UNIT);
+
+    /** Fastest tempo allowed in beats per minute */
+    static final int MAX_BPM = 1000;
+
+    /** Largest number of beats in a measure */
+    static final int MAX_BEATS = 32;
+
+    /** Explains the tempo properties when they are invalid */
+    static final String USAGE = "Invalid tempo, use -Dtempo=[BPM] up to " + MAX_BPM
+            + " and -Dmeter=[BEATS]/[BEAT_UNIT] with a beat unit of 1, 2, 4 or 8, for example -Dmeter=3/4";
+
+    /** Number of eighth notes in a whole note */
+    private static final int EIGHTHS_PER_WHOLE = 8;
+
+    /** Beats per minute */
+    private final int bpm;
+
+    /** Beats per measure, the upper number of the meter */
+    private final int beats;
+
+    /** Note length of a beat, the lower number of the meter */
+    private final int beatUnit;
+
+    /** Number of samples of each note length, indexed by ordinal */
+    private final int[] samples = new int[LENGTHS.length];
+
+    /**
+     * Constructs a tempo and works out the samples of every note length.
+     *
+     * @param bpm      Beats per minute
+     * @param beats    Beats per measure
+     * @param beatUnit Note length of a beat: 1, 2, 4 or 8
+     * @throws IllegalArgumentException If a value is out of range
+     */
+    public Tempo(int bpm, int beats, int beatUnit) {
+        if (!isValidBpm(bpm)) {
+            throw new IllegalArgumentException("Tempo must be between 1 and " + MAX_BPM + " BPM: " + bpm);
+        }
+        if (!isValidMeter(beats, beatUnit)) {
+            throw new IllegalArgumentException("Invalid meter: " + beats + "/" + beatUnit);
+        }
+        this.bpm = bpm;
+        this.beats = beats;
+        this.beatUnit = beatUnit;
+        // An eighth note lasts 60 * beatUnit / (8 * bpm) seconds, rounded to the nearest sample.
+        final long perMinute = (long) Note.SAMPLE_RATE * 60 * beatUnit;
+        final long divisor = (long) EIGHTHS_PER_WHOLE * bpm;
+        for (NoteLength nl : LENGTHS) {
+            samples[nl.ordinal()] = (int) ((perMinute * nl.eighths() + divisor / 2) / divisor);
+        }
+    }
+
+    /**
+     * Checks if a number of beats per minute is in range.
+     *
+     * @param bpm Beats per minute
+     * @return True if a tempo can be created with this speed
+     */
+    static boolean isValidBpm(int bpm) {
+        return bpm > 0 && bpm <= MAX_BPM;
+    }
+
+    /**
+     * Checks if a meter is in range.
+     *
+     * @param beats    Beats per measure
+     * @param beatUnit Note length of a beat
+     * @return True if a tempo can be created with this meter
+     */
+    static boolean isValidMeter(int beats, int beatUnit) {
+        return beats > 0 && beats <= MAX_BEATS && (beatUnit == 1 || beatUnit == 2 || beatUnit == 4 || beatUnit == 8);
+    }
+
+    /**
+     * Creates a tempo from the "tempo" and "meter" system properties, using
+     * the default for any property that is not set.
+     *
+     * @return The tempo
+     * @throws IllegalArgumentException If the properties are invalid
+     */
+    static Tempo fromProperties() {
+        final String bpm = System.getProperty("tempo", "");
+        final String meter = System.getProperty("meter", "");
+        Tempo tempo = DEFAULT;
+        if (!bpm.isBlank()) {
+            tempo = tempo.withBpm(Integer.parseInt(bpm.strip()));
+        }
+        if (!meter.isBlank()) {
+            tempo = tempo.withMeter(meter);
+        }
+        return tempo;
+    }
+
+    /**
+     * Creates a tempo with the same meter and a different speed.
+     *
+     * @param bpm Beats per minute
+     * @return The new tempo
+     * @throws IllegalArgumentException If the speed is out of range
+     */
+    public Tempo withBpm(int bpm) {
+        return new Tempo(bpm, beats, beatUnit);
+    }
+
+    /**
+     * Creates a tempo with the same speed and a different meter.
+     *
+     * @param meter The meter written as beats and beat unit, for example "3/4"
+     * @return The new tempo
+     * @throws IllegalArgumentException If the meter cannot be parsed or is out of range
+     */
+    public Tempo withMeter(String meter) {
+        final String[] parts = meter.strip().split("/", -1);
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid meter: " + meter);
+        }
+        return new Tempo(bpm, Integer.parseInt(parts[0].strip()), Integer.parseInt(parts[1].strip()));
+    }
+
+    /**
+     * Gets the number of beats per minute.
+     *
+     * @return The beats per minute
+     */
+    public int bpm() {
+        return bpm;
+    }
+
+    /**
+     * Gets the number of beats per measure.
+     *
+     * @return The upper number of the meter
+     */
+    public int beats() {
+        return beats;
+    }
+
+    /**
+     * Gets the note length of a beat.
+     *
+     * @return The lower number of the meter
+     */
+    public int beatUnit() {
+        return beatUnit;
+    }
+
+    /**
+     * Gets the number of samples a note of the given length is played for.
+     *
+     * @param nl The length of the note
+     * @return The number of samples at Note.SAMPLE_RATE
+     */
+    public int samples(NoteLength nl) {
+        return samples[nl.ordinal()];
+    }
+
+    /**
+     * Gets the length of a measure in eighth notes.
+     *
+     * @return The number of eighth notes in a measure
+     */
+    public int measureEighths() {
+        return beats * EIGHTHS_PER_WHOLE / beatUnit;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Tempo)) {
+            return false;
+        }
+        final Tempo t = (Tempo) o;
+        return bpm == t.bpm && beats == t.beats && beatUnit == t.beatUnit;
+    }
+
+    @Override
+    public int hashCode() {
+        return (bpm * 31 + beats) * 31 + beatUnit;
+    }
+
+    /**
+     * Describes the tempo and meter.
+     *
+     * @return The tempo, for example "120 BPM in 3/4"
+     */
+    @Override
+    public String toString() {
+        return bpm + " BPM in " + beats + "/" + beatUnit;
+    }
+}
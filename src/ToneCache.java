@@ -0,0 +1,393 @@
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import dsp.Kernels;
+import enums.Note;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Keeps fully rendered bell tones, ready to be written to a line.
+ * A tone is rendered once per note, number of frames and output format: a few
+ * partials above the note give it the colour of a bell, and a short attack,
+ * an exponential decay and a short release keep the edges of the note from
+ * clicking. Tones are keyed by frames rather than note length, so a tone is
+ * shared by every tempo that gives it the same number of frames. The least
+ * recently used tones are evicted once the cache holds more bytes than its
+ * budget. A tone is rendered outside the lock of the cache, so a thread
+ * rendering a new tone only holds up the threads waiting for that same tone.
+ */
+public class ToneCache {
+
+    /**
+     * The available tones for the notes of a song.
+     */
+    public enum Tone {
+        /** Plain sine waves generated while playing, nothing is cached */
+        SINE,
+        /** Bell tones with harmonics and an envelope, kept in a cache */
+        BELL;
+
+        /**
+         * Finds the tone with the given name, ignoring case.
+         *
+         * @param name The name of the tone
+         * @return The matching tone
+         * @throws IllegalArgumentException If no tone has the given name
+         */
+        public static Tone fromName(String name) {
+            return valueOf(name.strip().toUpperCase());
+        }
+    }
+
+    /** Frequencies of the partials of a bell tone, relative to the note */
+    private static final double[] PARTIAL_RATIOS = { 1.0d, 2.0d, 3.0d, 4.2d };
+
+    /** Amplitudes of the partials of a bell tone, adding up to 1 */
+    private static final float[] PARTIAL_AMPLITUDES = { 0.6f, 0.22f, 0.12f, 0.06f };
+
+    /** Length of the attack at the start of a tone in milliseconds */
+    private static final int ATTACK_MS = 3;
+
+    /** Length of the release at the end of a tone in milliseconds */
+    private static final int RELEASE_MS = 8;
+
+    /** Time in seconds for a tone to decay to about a third of its volume */
+    private static final double DECAY_SEC = 0.4d;
+
+    /** Largest number of bytes the cached tones may take up */
+    private final long budgetBytes;
+
+    /** Cached tones, rendered or being rendered, in order of last use, least recently used first */
+    private final LinkedHashMap<Key, FutureTask<byte[]>> tones = new LinkedHashMap<>(64, 0.75f, true);
+
+    /** Number of bytes taken up by the cached tones */
+    private long bytes = 0;
+
+    /** Number of lookups that found their tone in the cache */
+    private long hits = 0;
+
+    /** Number of lookups that had to render their tone */
+    private long misses = 0;
+
+    /** Number of tones evicted to stay within the budget */
+    private long evictions = 0;
+
+    /**
+     * Identifies a tone by its note, number of frames and the parts of the
+     * output format that change its samples. AudioFormat itself does not implement equals.
+     */
+    private static final class Key {
+        /** The note of the tone */
+        private final Note note;
+
+        /** The number of frames in the tone */
+        private final int frames;
+
+        /** The encoding of the samples */
+        private final AudioFormat.Encoding encoding;
+
+        /** The number of samples per second */
+        private final float sampleRate;
+
+        /** The number of bits in a sample */
+        private final int sampleSizeInBits;
+
+        /** The number of channels in a frame */
+        private final int channels;
+
+        /** Whether samples are stored big-endian */
+        private final boolean bigEndian;
+
+        /**
+         * Constructs the key of a tone.
+         *
+         * @param note   The note of the tone
+         * @param frames The number of frames in the tone
+         * @param format The format the tone is rendered to
+         */
+        Key(Note note, int frames, AudioFormat format) {
+            this.note = note;
+            this.frames = frames;
+            this.encoding = format.getEncoding();
+            this.sampleRate = format.getSampleRate();
+            this.sampleSizeInBits = format.getSampleSizeInBits();
+            this.channels = format.getChannels();
+            this.bigEndian = format.isBigEndian();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key) o;
+            return note == k.note && frames == k.frames && encoding.equals(k.encoding)
+                    && Float.compare(sampleRate, k.sampleRate) == 0 && sampleSizeInBits == k.sampleSizeInBits
+                    && channels == k.channels && bigEndian == k.bigEndian;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = note.hashCode();
+            h = 31 * h + frames;
+            h = 31 * h + encoding.hashCode();
+            h = 31 * h + Float.floatToIntBits(sampleRate);
+            h = 31 * h + sampleSizeInBits;
+            h = 31 * h + channels;
+            return 31 * h + (bigEndian ? 1 : 0);
+        }
+
+        /**
+         * Gets the size of the tone once it is rendered.
+         *
+         * @return The number of bytes of the tone
+         */
+        long bytes() {
+            return (long) frames * channels * (sampleSizeInBits / 8);
+        }
+    }
+
+    /**
+     * Constructs a cache holding at most the given number of bytes of tones.
+     *
+     * @param budgetBytes The memory budget in bytes
+     */
+    public ToneCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Gets a rendered tone, rendering and caching it if it is not cached yet.
+     * The tone is rendered on the calling thread but outside the lock, so
+     * lookups of other tones go on meanwhile; a thread asking for a tone
+     * that another thread is rendering waits for it. The returned buffer is
+     * shared and must not be modified.
+     *
+     * @param note   The note of the tone
+     * @param frames The number of frames in the tone, at the rate of the format
+     * @param format The format to render to, 8 or 16-bit signed PCM
+     * @return The samples of the tone
+     * @throws IllegalArgumentException If the format is not supported
+     */
+    public byte[] tone(Note note, int frames, AudioFormat format) {
+        checkFormat(format);
+        final Key key = new Key(note, frames, format);
+        FutureTask<byte[]> task;
+        synchronized (this) {
+            task = tones.get(key);
+            if (task != null) {
+                hits++;
+            } else {
+                misses++;
+                task = new FutureTask<>(() -> render(note, frames, format));
+                if (key.bytes() <= budgetBytes) {
+                    tones.put(key, task);
+                    bytes += key.bytes();
+                    evict();
+                }
+            }
+        }
+        // Does nothing if the tone is already rendered or being rendered by another thread.
+        task.run();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    // The tone is nearly done, finish waiting and keep the interrupt for later.
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                if (tones.get(key) == task) {
+                    tones.remove(key);
+                    bytes -= key.bytes();
+                }
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to render " + note + " tone", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Renders every tone a range of a song plays that is not cached yet, so
+     * that the Members playing it find all their tones ready.
+     *
+     * @param song   The notes of the song
+     * @param start  The position of the first note
+     * @param end    The position after the last note
+     * @param format The format to render to, 8 or 16-bit signed PCM
+     * @throws IllegalArgumentException If the format is not supported
+     */
+    public void prewarm(Score song, int start, int end, AudioFormat format) {
+        final Set<Long> seen = new HashSet<>();
+        for (int i = start; i < end; i++) {
+            final Note note = song.note(i);
+            final int frames = song.tempoAt(i).samples(song.length(i));
+            if (seen.add((long) frames << Integer.SIZE | note.ordinal())) {
+                tone(note, frames, format);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of lookups that found their tone in the cache.
+     *
+     * @return The number of cache hits
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups that had to render their tone.
+     *
+     * @return The number of cache misses
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of tones evicted to stay within the budget.
+     *
+     * @return The number of evictions
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the number of bytes taken up by the cached tones.
+     *
+     * @return The number of cached bytes
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Summarises the use of the cache.
+     *
+     * @return A human readable summary
+     */
+    @Override
+    public synchronized String toString() {
+        final long lookups = hits + misses;
+        return tones.size() + " tones, " + bytes / 1024 + " of " + budgetBytes / 1024 + " KB, " + hits
+                + " hits, " + misses + " misses (hit rate " + (lookups == 0 ? 0 : hits * 100 / lookups)
+                + "%), " + evictions + " evictions";
+    }
+
+    /**
+     * Evicts the least recently used tones until the cache fits its budget.
+     */
+    private void evict() {
+        final Iterator<Map.Entry<Key, FutureTask<byte[]>>> it = tones.entrySet().iterator();
+        while (bytes > budgetBytes && it.hasNext()) {
+            bytes -= it.next().getKey().bytes();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Renders a bell tone: its partials are summed, shaped by the envelope
+     * and converted to the samples of the output format.
+     *
+     * @param note   The note of the tone
+     * @param frames The number of frames in the tone
+     * @param format The format to render to
+     * @return The samples of the tone
+     * @throws IllegalArgumentException If the format is not supported
+     */
+    static byte[] render(Note note, int frames, AudioFormat format) {
+        checkFormat(format);
+        final int bits = format.getSampleSizeInBits();
+        final float rate = format.getSampleRate();
+        final float[] wave = new float[frames];
+        for (int p = 0; p < PARTIAL_RATIOS.length; p++) {
+            note.addPartialTo(wave, frames, rate, PARTIAL_RATIOS[p], PARTIAL_AMPLITUDES[p]);
+        }
+        applyEnvelope(wave, rate);
+
+        final int channels = format.getChannels();
+        final int sampleBytes = bits / 8;
+        final byte[] tone = new byte[frames * channels * sampleBytes];
+        if (bits == 8 && channels == 1) {
+            Kernels.get().toBytes(wave, tone, 0, frames, Byte.MAX_VALUE);
+            return tone;
+        }
+        int pos = 0;
+        for (int i = 0; i < frames; i++) {
+            if (bits == 8) {
+                final byte sample = (byte) Math.round(wave[i] * Byte.MAX_VALUE);
+                for (int c = 0; c < channels; c++) {
+                    tone[pos++] = sample;
+                }
+            } else {
+                final int sample = Math.round(wave[i] * Short.MAX_VALUE);
+                final byte hi = (byte) (sample >> 8);
+                final byte lo = (byte) sample;
+                for (int c = 0; c < channels; c++) {
+                    tone[pos++] = format.isBigEndian() ? hi : lo;
+                    tone[pos++] = format.isBigEndian() ? lo : hi;
+                }
+            }
+        }
+        return tone;
+    }
+
+    /**
+     * Checks that tones can be rendered to a format.
+     *
+     * @param format The format to render to
+     * @throws IllegalArgumentException If the format is not 8 or 16-bit signed PCM
+     */
+    private static void checkFormat(AudioFormat format) {
+        final int bits = format.getSampleSizeInBits();
+        if (!AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding()) || (bits != 8 && bits != 16)) {
+            throw new IllegalArgumentException("Tones can only be rendered to 8 or 16-bit signed PCM: " + format);
+        }
+    }
+
+    /**
+     * Shapes a tone with a linear attack, an exponential decay and a linear
+     * release, so that it starts and ends at silence.
+     *
+     * @param wave The samples of the tone
+     * @param rate The sample rate of the tone
+     */
+    private static void applyEnvelope(float[] wave, float rate) {
+        final int attack = Math.min(wave.length, (int) (rate * ATTACK_MS / 1000));
+        final int release = Math.min(wave.length - attack, (int) (rate * RELEASE_MS / 1000));
+        final double decay = Math.exp(-1.0d / (rate * DECAY_SEC));
+        double level = 1.0d;
+        for (int i = 0; i < wave.length; i++) {
+            float gain = (float) level;
+            if (i < attack) {
+                gain *= (float) i / attack;
+            }
+            final int left = wave.length - i;
+            if (left <= release) {
+                gain *= (float) (left - 1) / release;
+            }
+            wave[i] *= gain;
+            level *= decay;
+        }
+    }
+}
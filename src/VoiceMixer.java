@@ -0,0 +1,241 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.SourceDataLine;
+
+import dsp.Kernels;
+import enums.Note;
+
+/**
+ * Mixes the voices of all Members sounding at the same time into 8-bit signed
+ * mono samples. Members add their notes to the current step, and the mixer is
+ * the only object that writes the combined step to the output. The notes are
+ * generated block by block while the step is written, so the memory used does
+ * not depend on how long the notes are. Tones rendered ahead of time, such as
+ * those of a ToneCache, are mixed straight from their buffers.
+ */
+public class VoiceMixer {
+
+    /** The format of the samples the mixer writes */
+    public static final AudioFormat FORMAT = new AudioFormat(Note.SAMPLE_RATE, 8, 1, true, false);
+
+    /** Runs the loops adding, scaling and clipping the samples */
+    private static final Kernels KERNELS = Kernels.get();
+
+    /** Number of samples generated and written at a time */
+    private static final int BLOCK_SAMPLES = 4096;
+
+    /** Sum of all voices for the block being generated */
+    private final int[] accumulator = new int[BLOCK_SAMPLES];
+
+    /** Mixed output samples of the block being written */
+    private final byte[] output = new byte[BLOCK_SAMPLES];
+
+    /** Notes of the voices added during the current step, null for rendered tones */
+    private Note[] voiceNotes = new Note[Note.values().length];
+
+    /** Rendered tones of the voices added during the current step, null for notes */
+    private byte[][] voiceTones = new byte[Note.values().length][];
+
+    /** Number of samples of each voice added during the current step */
+    private int[] voiceCounts = new int[Note.values().length];
+
+    /** Number of samples the current step spans, including trailing rests */
+    private int length = 0;
+
+    /** Number of voices added during the current step */
+    private int voices = 0;
+
+    /** Master gain applied after the voices are balanced */
+    private float gain = 1.0f;
+
+    /** Number of samples that had to be clipped to fit the output range */
+    private long clippedSamples = 0;
+
+    /**
+     * Sets the master gain. The sum of a step is divided by its number of voices
+     * so that chords keep the headroom of a single bell; the gain is applied
+     * afterwards and any sample beyond the 8-bit range is clipped.
+     *
+     * @param gain The master gain, where 1.0 leaves a single voice unchanged
+     */
+    public synchronized void setGain(float gain) {
+        this.gain = gain;
+    }
+
+    /**
+     * Adds a voice to the current step.
+     *
+     * @param note  The note of the voice
+     * @param count The number of samples of the note to play
+     * @param rest  The number of silent samples the voice holds after its note
+     */
+    public synchronized void mix(Note note, int count, int rest) {
+        addVoice(note, null, count, rest);
+    }
+
+    /**
+     * Adds a rendered tone to the current step. The tone must be in the
+     * mixer's FORMAT; it is not copied, so it must not change until the step
+     * has been written.
+     *
+     * @param tone The samples of the tone
+     * @param rest The number of silent samples the voice holds after its tone
+     */
+    public synchronized void mix(byte[] tone, int rest) {
+        addVoice(null, tone, tone.length, rest);
+    }
+
+    /**
+     * Extends the current step with silence so that it spans at least the
+     * given number of samples.
+     *
+     * @param count The number of samples the step should span
+     */
+    public synchronized void padTo(int count) {
+        length = Math.max(length, count);
+    }
+
+    /**
+     * Writes the mixed samples of the current step to an audio line and
+     * starts a new step.
+     *
+     * @param line The line to write to
+     * @return The number of samples written
+     */
+    public synchronized int writeTo(SourceDataLine line) {
+        return writeTo(line, null);
+    }
+
+    /**
+     * Writes the mixed samples of the current step to an audio line and
+     * starts a new step, checking the fill level of the line before every
+     * block so that underruns in the middle of a long step are noticed.
+     *
+     * @param line   The line to write to
+     * @param buffer The buffer sizer the line was opened with, or null
+     * @return The number of samples written
+     */
+    public synchronized int writeTo(SourceDataLine line, LineBuffer buffer) {
+        final int count = length;
+        for (int start = 0; start < count; start += BLOCK_SAMPLES) {
+            final int n = mixBlock(start, Math.min(BLOCK_SAMPLES, count - start));
+            if (buffer != null) {
+                buffer.check(line);
+            }
+            line.write(output, 0, n);
+        }
+        clear();
+        return count;
+    }
+
+    /**
+     * Writes the mixed samples of the current step to a sample ring and
+     * starts a new step, waiting for room while the ring is full. The fill
+     * level of the line is checked by the thread reading the ring.
+     *
+     * @param ring The ring to write to
+     * @return The number of samples written
+     */
+    public synchronized int writeTo(SampleRing ring) {
+        final int count = length;
+        for (int start = 0; start < count; start += BLOCK_SAMPLES) {
+            final int n = mixBlock(start, Math.min(BLOCK_SAMPLES, count - start));
+            if (ring.write(output, 0, n) < n) {
+                break; // Interrupted or closed, the rest of the step is dropped.
+            }
+        }
+        clear();
+        return count;
+    }
+
+    /**
+     * Writes the mixed samples of the current step to an output stream and
+     * starts a new step.
+     *
+     * @param out The stream to write to
+     * @return The number of samples written
+     * @throws IOException If writing to the stream fails
+     */
+    public synchronized int writeTo(OutputStream out) throws IOException {
+        final int count = length;
+        try {
+            for (int start = 0; start < count; start += BLOCK_SAMPLES) {
+                final int n = mixBlock(start, Math.min(BLOCK_SAMPLES, count - start));
+                out.write(output, 0, n);
+            }
+        } finally {
+            clear();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of samples clipped since this mixer was created.
+     *
+     * @return The number of clipped samples
+     */
+    public synchronized long clippedSamples() {
+        return clippedSamples;
+    }
+
+    /**
+     * Generates one block of the current step, then balances and clips it into
+     * the output buffer.
+     *
+     * @param start The position of the block within the step
+     * @param count The number of samples in the block
+     * @return The number of samples in the output buffer
+     */
+    private int mixBlock(int start, int count) {
+        Arrays.fill(accumulator, 0, count, 0);
+        for (int v = 0; v < voices; v++) {
+            final int n = Math.min(count, voiceCounts[v] - start);
+            if (n <= 0) {
+                continue;
+            }
+            final byte[] tone = voiceTones[v];
+            if (tone == null) {
+                voiceNotes[v].addTo(accumulator, 0, n, start, KERNELS);
+            } else {
+                KERNELS.addBytes(tone, start, accumulator, 0, n);
+            }
+        }
+        final float scale = voices > 1 ? gain / voices : gain;
+        clippedSamples += KERNELS.clipToBytes(accumulator, output, 0, count, scale);
+        return count;
+    }
+
+    /**
+     * Records a voice of the current step.
+     *
+     * @param note  The note of the voice, or null for a rendered tone
+     * @param tone  The rendered tone of the voice, or null for a note
+     * @param count The number of samples of the voice
+     * @param rest  The number of silent samples the voice holds afterwards
+     */
+    private void addVoice(Note note, byte[] tone, int count, int rest) {
+        if (voices == voiceNotes.length) {
+            voiceNotes = Arrays.copyOf(voiceNotes, voices * 2);
+            voiceTones = Arrays.copyOf(voiceTones, voices * 2);
+            voiceCounts = Arrays.copyOf(voiceCounts, voices * 2);
+        }
+        voiceNotes[voices] = note;
+        voiceTones[voices] = tone;
+        voiceCounts[voices] = count;
+        length = Math.max(length, count + rest);
+        voices++;
+    }
+
+    /**
+     * Forgets the voices of the current step so a new step can start.
+     */
+    private void clear() {
+        Arrays.fill(voiceNotes, 0, voices, null);
+        Arrays.fill(voiceTones, 0, voices, null);
+        length = 0;
+        voices = 0;
+    }
+}
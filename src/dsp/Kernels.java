@@ -0,0 +1,193 @@
+package dsp;
+
+/**
+ * The inner loops of sound synthesis and mixing: reading a wavetable, adding
+ * voices together, and scaling, clipping and converting samples to 8-bit
+ * PCM. This class runs them one sample at a time. VectorKernels runs the
+ * same loops on SIMD registers with jdk.incubator.vector, and is used
+ * whenever the JVM was started with --add-modules jdk.incubator.vector and
+ * the CPU has wide enough registers. Both give exactly the same samples, so
+ * a song sounds and renders the same either way. Setting -Dsimd=false keeps
+ * the scalar loops.
+ */
+public class Kernels {
+
+    /** Name of the class holding the SIMD kernels, loaded by reflection */
+    private static final String VECTOR_KERNELS = "dsp.VectorKernels";
+
+    /** Largest value an 8-bit signed sample can hold */
+    static final int MAX_SAMPLE = Byte.MAX_VALUE;
+
+    /** Smallest value an 8-bit signed sample can hold */
+    static final int MIN_SAMPLE = Byte.MIN_VALUE;
+
+    /** The scalar kernels */
+    private static final Kernels SCALAR = new Kernels();
+
+    /** The kernels in use */
+    private static final Kernels ACTIVE = load();
+
+    /**
+     * Constructs the scalar kernels.
+     */
+    Kernels() {
+    }
+
+    /**
+     * Gets the kernels in use: the SIMD kernels if they could be loaded, the
+     * scalar kernels otherwise.
+     *
+     * @return The kernels
+     */
+    public static Kernels get() {
+        return ACTIVE;
+    }
+
+    /**
+     * Gets the scalar kernels, for comparing against the kernels in use.
+     *
+     * @return The scalar kernels
+     */
+    public static Kernels scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * Loads the SIMD kernels unless the "simd" property turns them off. The
+     * class is only reached by reflection, so a JVM without the incubator
+     * module never links against it.
+     *
+     * @return The SIMD kernels, or the scalar kernels if they cannot be used
+     */
+    private static Kernels load() {
+        final String simd = System.getProperty("simd", "");
+        if (!simd.isBlank() && !Boolean.parseBoolean(simd.strip())) {
+            return SCALAR;
+        }
+        try {
+            return (Kernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // The module is missing or the CPU lacks a usable vector shape.
+            return SCALAR;
+        }
+    }
+
+    /**
+     * Describes the kernels.
+     *
+     * @return The name of the kernels, for example "scalar"
+     */
+    public String name() {
+        return "scalar";
+    }
+
+    /**
+     * Adds samples read from a wavetable to a buffer, interpolating linearly
+     * between table entries. The phase is a 32-bit fixed point fraction of a
+     * cycle; its top bits index the table and the rest interpolate.
+     *
+     * @param cycle        One cycle of the wave, with a copy of its first entry at the end
+     * @param fractionBits Number of bits of the phase below the table index
+     * @param dst          The buffer the samples are added to, truncated to integers
+     * @param offset       The position in the buffer of the first sample
+     * @param count        The number of samples to add
+     * @param phase        The phase of the first sample
+     * @param step         The phase advance per sample
+     */
+    public void addWave(float[] cycle, int fractionBits, int[] dst, int offset, int count, int phase, int step) {
+        final int mask = (1 << fractionBits) - 1;
+        final float fractionScale = 1.0f / (1 << fractionBits);
+        for (int i = 0; i < count; i++) {
+            final int index = phase >>> fractionBits;
+            final float fraction = (phase & mask) * fractionScale;
+            final float a = cycle[index];
+            dst[offset + i] += (int) (a + (cycle[index + 1] - a) * fraction);
+            phase += step;
+        }
+    }
+
+    /**
+     * Adds scaled samples read from a wavetable to a buffer of floating
+     * point samples, interpolating linearly between table entries.
+     *
+     * @param cycle        One cycle of the wave, with a copy of its first entry at the end
+     * @param fractionBits Number of bits of the phase below the table index
+     * @param dst          The buffer the samples are added to
+     * @param offset       The position in the buffer of the first sample
+     * @param count        The number of samples to add
+     * @param phase        The phase of the first sample
+     * @param step         The phase advance per sample
+     * @param scale        The factor every sample is multiplied by
+     */
+    public void addWave(float[] cycle, int fractionBits, float[] dst, int offset, int count, int phase, int step,
+            float scale) {
+        final int mask = (1 << fractionBits) - 1;
+        final float fractionScale = 1.0f / (1 << fractionBits);
+        for (int i = 0; i < count; i++) {
+            final int index = phase >>> fractionBits;
+            final float fraction = (phase & mask) * fractionScale;
+            final float a = cycle[index];
+            dst[offset + i] += (a + (cycle[index + 1] - a) * fraction) * scale;
+            phase += step;
+        }
+    }
+
+    /**
+     * Adds 8-bit samples to a buffer.
+     *
+     * @param src       The samples to add
+     * @param srcOffset The position of the first sample to add
+     * @param dst       The buffer the samples are added to
+     * @param dstOffset The position in the buffer of the first sample
+     * @param count     The number of samples to add
+     */
+    public void addBytes(byte[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] += src[srcOffset + i];
+        }
+    }
+
+    /**
+     * Scales mixed samples, rounds them and clips them to 8-bit samples. A
+     * scale of exactly 1 leaves the samples as they are.
+     *
+     * @param src    The mixed samples
+     * @param dst    The buffer the 8-bit samples are written to
+     * @param offset The position of the first sample in both buffers
+     * @param count  The number of samples
+     * @param scale  The factor every sample is multiplied by
+     * @return The number of samples that had to be clipped
+     */
+    public int clipToBytes(int[] src, byte[] dst, int offset, int count, float scale) {
+        int clipped = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int sample = scale == 1.0f ? src[i] : Math.round(src[i] * scale);
+            if (sample > MAX_SAMPLE) {
+                sample = MAX_SAMPLE;
+                clipped++;
+            } else if (sample < MIN_SAMPLE) {
+                sample = MIN_SAMPLE;
+                clipped++;
+            }
+            dst[i] = (byte) sample;
+        }
+        return clipped;
+    }
+
+    /**
+     * Converts floating point samples to 8-bit samples, rounding to the
+     * nearest value. The samples must be within the range of a byte once
+     * multiplied by the peak.
+     *
+     * @param src    The floating point samples
+     * @param dst    The buffer the 8-bit samples are written to
+     * @param offset The position of the first sample in both buffers
+     * @param count  The number of samples
+     * @param peak   The value a sample of 1 becomes
+     */
+    public void toBytes(float[] src, byte[] dst, int offset, int count, float peak) {
+        for (int i = offset; i < offset + count; i++) {
+            dst[i] = (byte) Math.round(src[i] * peak);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package dsp;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The kernels run on the widest SIMD registers of the CPU with
+ * jdk.incubator.vector. Every lane performs the same float operations in the
+ * same order as the scalar loop, so the samples are identical; only the
+ * samples left over after the last full vector are handed to the scalar
+ * kernels. Only loaded by reflection from Kernels, so it is never linked
+ * when the incubator module is missing.
+ */
+final class VectorKernels extends Kernels {
+
+    /** Float lanes of the widest shape the CPU supports */
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    /** Int lanes of the same shape, one per float lane */
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, FLOATS.vectorShape());
+
+    /** Byte lanes of a quarter of the shape, one per int lane */
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(FLOATS.vectorBitSize() / Integer.BYTES));
+
+    /** Number of samples handled at a time */
+    private static final int LANES = FLOATS.length();
+
+    /** The lane numbers 0, 1, 2 and so on */
+    private static final IntVector IOTA = IntVector.zero(INTS).addIndex(1);
+
+    /**
+     * Constructs the SIMD kernels.
+     */
+    VectorKernels() {
+    }
+
+    @Override
+    public String name() {
+        return "vector (" + FLOATS.vectorBitSize() + "-bit, " + LANES + " lanes)";
+    }
+
+    @Override
+    public void addWave(float[] cycle, int fractionBits, int[] dst, int offset, int count, int phase, int step) {
+        final int bound = FLOATS.loopBound(count);
+        final int mask = (1 << fractionBits) - 1;
+        final float fractionScale = 1.0f / (1 << fractionBits);
+        final int[] indexes = new int[LANES];
+        IntVector phases = IOTA.mul(step).add(phase);
+        for (int i = 0; i < bound; i += LANES) {
+            final FloatVector wave = interpolate(cycle, fractionBits, mask, fractionScale, phases, indexes);
+            IntVector.fromArray(INTS, dst, offset + i)
+                    .add(wave.convert(VectorOperators.F2I, 0))
+                    .intoArray(dst, offset + i);
+            phases = phases.add(step * LANES);
+        }
+        super.addWave(cycle, fractionBits, dst, offset + bound, count - bound, phase + bound * step, step);
+    }
+
+    @Override
+    public void addWave(float[] cycle, int fractionBits, float[] dst, int offset, int count, int phase, int step,
+            float scale) {
+        final int bound = FLOATS.loopBound(count);
+        final int mask = (1 << fractionBits) - 1;
+        final float fractionScale = 1.0f / (1 << fractionBits);
+        final int[] indexes = new int[LANES];
+        IntVector phases = IOTA.mul(step).add(phase);
+        for (int i = 0; i < bound; i += LANES) {
+            final FloatVector wave = interpolate(cycle, fractionBits, mask, fractionScale, phases, indexes);
+            FloatVector.fromArray(FLOATS, dst, offset + i).add(wave.mul(scale)).intoArray(dst, offset + i);
+            phases = phases.add(step * LANES);
+        }
+        super.addWave(cycle, fractionBits, dst, offset + bound, count - bound, phase + bound * step, step, scale);
+    }
+
+    @Override
+    public void addBytes(byte[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        final int bound = INTS.loopBound(count);
+        for (int i = 0; i < bound; i += LANES) {
+            IntVector.fromArray(INTS, dst, dstOffset + i)
+                    .add(ByteVector.fromArray(BYTES, src, srcOffset + i).convertShape(VectorOperators.B2I, INTS, 0))
+                    .intoArray(dst, dstOffset + i);
+        }
+        super.addBytes(src, srcOffset + bound, dst, dstOffset + bound, count - bound);
+    }
+
+    @Override
+    public int clipToBytes(int[] src, byte[] dst, int offset, int count, float scale) {
+        final int bound = INTS.loopBound(count);
+        int clipped = 0;
+        for (int i = offset; i < offset + bound; i += LANES) {
+            IntVector samples = IntVector.fromArray(INTS, src, i);
+            if (scale != 1.0f) {
+                // Anything beyond the range is clipped anyway, so bound it before rounding.
+                samples = round(((FloatVector) samples.convert(VectorOperators.I2F, 0)).mul(scale)
+                        .max(MIN_SAMPLE - 1).min(MAX_SAMPLE + 1));
+            }
+            clipped += samples.compare(VectorOperators.GT, MAX_SAMPLE).trueCount()
+                    + samples.compare(VectorOperators.LT, MIN_SAMPLE).trueCount();
+            ((ByteVector) samples.max(MIN_SAMPLE).min(MAX_SAMPLE).convertShape(VectorOperators.I2B, BYTES, 0))
+                    .intoArray(dst, i);
+        }
+        return clipped + super.clipToBytes(src, dst, offset + bound, count - bound, scale);
+    }
+
+    @Override
+    public void toBytes(float[] src, byte[] dst, int offset, int count, float peak) {
+        final int bound = FLOATS.loopBound(count);
+        for (int i = offset; i < offset + bound; i += LANES) {
+            ((ByteVector) round(FloatVector.fromArray(FLOATS, src, i).mul(peak))
+                    .convertShape(VectorOperators.I2B, BYTES, 0)).intoArray(dst, i);
+        }
+        super.toBytes(src, dst, offset + bound, count - bound, peak);
+    }
+
+    /**
+     * Reads the wavetable at the phases of a vector of samples, interpolating
+     * linearly between entries as the scalar loop does.
+     *
+     * @param cycle         One cycle of the wave, with a copy of its first entry at the end
+     * @param fractionBits  Number of bits of the phase below the table index
+     * @param mask          Mask of the fraction bits
+     * @param fractionScale Scale turning the fraction bits into a value in [0, 1)
+     * @param phases        The phase of every lane
+     * @param indexes       Scratch array receiving the table index of every lane
+     * @return The interpolated samples
+     */
+    private static FloatVector interpolate(float[] cycle, int fractionBits, int mask, float fractionScale,
+            IntVector phases, int[] indexes) {
+        phases.lanewise(VectorOperators.LSHR, fractionBits).intoArray(indexes, 0);
+        final FloatVector fraction = ((FloatVector) phases.and(mask).convert(VectorOperators.I2F, 0))
+                .mul(fractionScale);
+        final FloatVector a = FloatVector.fromArray(FLOATS, cycle, 0, indexes, 0);
+        final FloatVector b = FloatVector.fromArray(FLOATS, cycle, 1, indexes, 0);
+        return b.sub(a).mul(fraction).add(a);
+    }
+
+    /**
+     * Rounds every lane to the nearest integer, ties towards positive
+     * infinity, as Math.round does. Exact for values below 2^23 in
+     * magnitude, where a float still has a fraction.
+     *
+     * @param x The values to round
+     * @return The rounded values
+     */
+    private static IntVector round(FloatVector x) {
+        final IntVector truncated = (IntVector) x.convert(VectorOperators.F2I, 0);
+        // Truncation rounds negative values up, step those with a fraction down to the floor.
+        final IntVector floor = truncated.sub(1,
+                x.compare(VectorOperators.LT, truncated.convert(VectorOperators.I2F, 0)).cast(INTS));
+        final FloatVector fraction = x.sub(floor.convert(VectorOperators.I2F, 0));
+        return floor.add(1, fraction.compare(VectorOperators.GE, 0.5f).cast(INTS));
+    }
+}
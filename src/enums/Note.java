@@ -1,5 +1,7 @@
 package enums;
 
+import dsp.Kernels;
+
 /**
  * Represents musical notes with their corresponding frequencies.
  * Includes REST and notes from A3 to B6 with their corresponding audio samples.
@@ -92,21 +94,31 @@ public enum Note {
     /** The length of a measure in seconds */
     public static final int MEASURE_LENGTH_SEC = 1;
 
-    /** The angle step for sine wave calculation, based on sample rate */
-    private static final double step_alpha = (2.0d * Math.PI) / SAMPLE_RATE;
+    /** Number of bits of the phase accumulator used to index the wavetable */
+    private static final int TABLE_BITS = 12;
+
+    /** Number of bits of the phase accumulator below the wavetable index */
+    private static final int FRACTION_BITS = 32 - TABLE_BITS;
 
     /** Base frequency for A notes (A3 = 220Hz) */
     private final double FREQUENCY_A_HZ = 220.0d;
 
     /** Maximum volume for generated samples */
-    private final double MAX_VOLUME = 127.0d;
+    private static final double MAX_VOLUME = 127.0d;
 
-    /** Pre-calculated sine wave sample data for this note */
-    private final byte[] sinSample = new byte[MEASURE_LENGTH_SEC * SAMPLE_RATE];
+    /**
+     * Phase advance per sample as a 32-bit fixed point fraction of a cycle.
+     * The accumulator wraps around naturally at the end of each cycle.
+     */
+    private final int phaseStep;
+
+    /** The frequency of this note in Hz, 0 for REST */
+    private final double frequency;
 
     /**
      * Constructs a Note with its corresponding frequency.
-     * Calculates and stores the sine wave data for this note.
+     * Only the phase step is calculated here; the waveform itself is generated
+     * from a shared single-cycle wavetable when the note is played.
      */
     private Note() {
         int n = this.ordinal();
@@ -115,21 +127,86 @@ public enum Note {
             final double halfStepUpFromA = n - 1;
             final double exp = halfStepUpFromA / 12.0d;
             final double freq = FREQUENCY_A_HZ * Math.pow(2.0d, exp);
+            phaseStep = (int) Math.round(freq / SAMPLE_RATE * 4294967296.0d);
+            frequency = freq;
+        } else {
+            phaseStep = 0;
+            frequency = 0.0d;
+        }
+    }
 
-            // Create sinusoidal data sample for the desired frequency
-            final double sinStep = freq * step_alpha;
-            for (int i = 0; i < sinSample.length; i++) {
-                sinSample[i] = (byte) (Math.sin(i * sinStep) * MAX_VOLUME);
+    /**
+     * Holds one cycle of a sine wave at full volume. The table is built the
+     * first time any note is played, not when the enum is initialized.
+     */
+    private static final class Wavetable {
+        /** One cycle of the sine wave, with a copy of the first entry at the end for interpolation */
+        static final float[] CYCLE = new float[(1 << TABLE_BITS) + 1];
+
+        static {
+            for (int i = 0; i < CYCLE.length; i++) {
+                CYCLE[i] = (float) (Math.sin(2.0d * Math.PI * i / (1 << TABLE_BITS)) * MAX_VOLUME);
             }
         }
     }
 
     /**
-     * Returns the pre-calculated audio sample for this note.
+     * Adds samples of this note to a buffer. The note can be streamed in
+     * pieces of any length: the phase of each sample follows from its position
+     * within the note, so no sample data is kept between calls and notes are
+     * not limited to the length of a measure.
      *
-     * @return A byte array containing the audio waveform data for this note
+     * @param dst        The buffer the samples are added to
+     * @param offset     The position in the buffer of the first sample
+     * @param count      The number of samples to add
+     * @param noteSample The position within the note of the first sample
      */
-    public byte[] sample() {
-        return sinSample;
+    public void addTo(int[] dst, int offset, int count, long noteSample) {
+        addTo(dst, offset, count, noteSample, Kernels.get());
+    }
+
+    /**
+     * Adds samples of this note to a buffer with the given kernels.
+     *
+     * @param dst        The buffer the samples are added to
+     * @param offset     The position in the buffer of the first sample
+     * @param count      The number of samples to add
+     * @param noteSample The position within the note of the first sample
+     * @param kernels    The kernels reading the wavetable
+     */
+    public void addTo(int[] dst, int offset, int count, long noteSample, Kernels kernels) {
+        if (phaseStep == 0) {
+            return; // Silence
+        }
+        kernels.addWave(Wavetable.CYCLE, FRACTION_BITS, dst, offset, count, (int) (noteSample * phaseStep), phaseStep);
+    }
+
+    /**
+     * Gets the frequency of this note.
+     *
+     * @return The frequency in Hz, or 0 for REST
+     */
+    public double frequency() {
+        return frequency;
+    }
+
+    /**
+     * Adds a partial of this note to a buffer of samples in the range [-1, 1].
+     * Used to build tones with harmonics at any sample rate, see ToneCache.
+     *
+     * @param dst        The buffer the partial is added to, from its start
+     * @param count      The number of samples to add
+     * @param sampleRate The sample rate of the buffer
+     * @param ratio      The frequency of the partial relative to this note
+     * @param amplitude  The amplitude of the partial
+     */
+    public void addPartialTo(float[] dst, int count, float sampleRate, double ratio, float amplitude) {
+        final double freq = frequency * ratio;
+        if (freq <= 0.0d || freq >= sampleRate / 2.0d) {
+            return; // Silence, or a partial that would alias
+        }
+        final float scale = (float) (amplitude / MAX_VOLUME);
+        final int step = (int) Math.round(freq / sampleRate * 4294967296.0d);
+        Kernels.get().addWave(Wavetable.CYCLE, FRACTION_BITS, dst, 0, count, 0, step, scale);
     }
 }
@@ -18,9 +18,12 @@ public enum NoteLength {
     /** An eighth note, equal to 1/8 of a measure (0.125) */
     EIGTH(0.125f);
 
-    /** The duration of the note in milliseconds */
+    /** The duration of the note in milliseconds at the default tempo */
     private final int timeMs;
 
+    /** The length of the note in eighth notes */
+    private final int eighths;
+
     /** The length of the note as a fraction of a measure */
     private final float length;
 
@@ -33,6 +36,7 @@ public enum NoteLength {
     private NoteLength(float length) {
         this.length = length;
         timeMs = (int) (length * Note.MEASURE_LENGTH_SEC * 1000);
+        eighths = Math.round(length * 8);
     }
 
     /**
@@ -52,11 +56,21 @@ public enum NoteLength {
     }
 
     /**
-     * Gets the duration of this note in milliseconds.
+     * Gets the duration of this note in milliseconds at the default tempo of
+     * one whole note per second.
      *
      * @return The time in milliseconds that this note should be played
      */
     public int timeMs() {
         return timeMs;
     }
+
+    /**
+     * Gets the length of this note in eighth notes, the shortest length.
+     *
+     * @return The number of eighth notes this note spans
+     */
+    public int eighths() {
+        return eighths;
+    }
 }
\ No newline at end of file